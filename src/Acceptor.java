@@ -0,0 +1,253 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+
+/**
+ * Connection acceptor.
+ * Accept the connections of a listening socket and start an http session for each one.
+ * On Linux every acceptor has its own listening socket bound with SO_REUSEPORT, so the kernel
+ * spreads the new connections across the acceptors, other ways all the acceptors share the same
+ * listening socket.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-10)
+ */
+public class Acceptor extends Thread {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Pause after a failed accept, like too many open files, in milliseconds.
+     */
+    public static final int ACCEPT_BACKOFF = Integer.getInteger("openweb.accept.backoff", 100);
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Listening socket.
+     */
+    private ServerSocket server;
+
+    /**
+     * TLS context, null for plain http.
+     */
+    private TlsContext tls;
+
+    /**
+     * Accepted connections meter.
+     */
+    private RateMeter accepted = new RateMeter();
+
+    // --------------------------------------------------------------------------- Getters & Setters
+
+    /**
+     * Get the listening socket.
+     *
+     * @return Listening socket.
+     */
+    public ServerSocket getServer() {
+        return this.server;
+    }
+
+    /**
+     * Get the number of accepted connections.
+     *
+     * @return Number of accepted connections.
+     */
+    public long getAccepted() {
+        return this.accepted.getCount();
+    }
+
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * Create the acceptor on the listening socket.
+     *
+     * @param server Listening socket.
+     * @param tls    TLS context, null for plain http.
+     * @param id     Acceptor id, used in the thread name.
+     */
+    public Acceptor(ServerSocket server, TlsContext tls, int id) {
+        super("acceptor-" + server.getLocalPort() + "-" + id);
+        this.server = server;
+        this.tls = tls;
+    }
+
+    // -------------------------------------------------------------------------------- Help Methods
+
+    /**
+     * Start the session of an accepted connection.
+     * A connection failing its setup, like one reset by the client, is closed without backing off:
+     * the listener is fine.
+     *
+     * @param socket Accepted connection.
+     */
+    private void startSession(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            this.accepted.mark();
+            if (this.tls == null) {
+                new HttpSession(socket).start();
+            } else {
+                new HttpSession(socket, this.tls.createConnection(socket)).start();
+            }
+        } catch (IOException ioe) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+
+            }
+        }
+    }
+
+    // ----------------------------------------------------------------------------- General Methods
+
+    /**
+     * Get the accept rate since the last call and the total accepted connections.
+     *
+     * @return Accept rate statistics line.
+     */
+    public String getAcceptRate() {
+        return this.accepted.report("conn");
+    }
+
+    /**
+     * Accept the connections until the listening socket is closed.
+     */
+    @Override
+    public void run() {
+        while (!this.server.isClosed()) {
+            Socket socket;
+            try {
+                socket = this.server.accept();
+            } catch (IOException ioe) {
+                if (this.server.isClosed() || !backOff()) {
+                    break;
+                }
+                continue;
+            }
+            startSession(socket);
+        }
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Wait after a failed accept, so a persistent error doesn't spin on the accept loop.
+     *
+     * @return False if interrupted while waiting.
+     */
+    public static boolean backOff() {
+        try {
+            Thread.sleep(ACCEPT_BACKOFF);
+            return true;
+        } catch (InterruptedException ie) {
+            return false;
+        }
+    }
+
+    /**
+     * Check if the platform balances the connections between listening sockets with SO_REUSEPORT.
+     * Only Linux balances them, the other platforms accept the option but one socket gets all the
+     * connections.
+     *
+     * @return True if SO_REUSEPORT is supported on Linux.
+     */
+    public static boolean isReusePortSupported() {
+        if (!System.getProperty("os.name", "").toLowerCase().startsWith("linux")) {
+            return false;
+        }
+        try (ServerSocket probe = new ServerSocket()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException ioe) {
+            return false;
+        }
+    }
+
+    /**
+     * Open the listening sockets for the acceptors.
+     * With SO_REUSEPORT open one socket for each acceptor, other ways open a single shared socket.
+     * If a socket can't be bound the sockets already bound are closed.
+     *
+     * @param port    Listening port.
+     * @param count   Number of acceptors.
+     * @param backlog Listening socket backlog.
+     * @return Listening sockets, one per acceptor or a single shared one.
+     * @throws IOException Error while binding the listening sockets.
+     */
+    public static ServerSocket[] openServerSockets(int port, int count, int backlog)
+            throws IOException {
+        boolean reusePort = count > 1 && isReusePortSupported();
+        ServerSocket[] servers = new ServerSocket[reusePort ? count : 1];
+
+        try {
+            for (int i = 0; i < servers.length; i++) {
+                servers[i] = new ServerSocket();
+                servers[i].setReuseAddress(true);
+                if (reusePort) {
+                    servers[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                servers[i].bind(new InetSocketAddress(port), backlog);
+            }
+        } catch (IOException ioe) {
+            for (ServerSocket server : servers) {
+                if (server != null) {
+                    server.close();
+                }
+            }
+            throw ioe;
+        }
+
+        return servers;
+    }
+
+    /**
+     * Open the listening sockets and start the acceptors.
+     * Every acceptor registers its accept rate in the statistics reporter.
+     *
+     * @param port    Listening port.
+     * @param count   Number of acceptors.
+     * @param backlog Listening socket backlog.
+     * @param tls     TLS context, null for plain http.
+     * @return Started acceptors.
+     * @throws IOException Error while binding the listening sockets.
+     */
+    public static Acceptor[] start(int port, int count, int backlog, TlsContext tls)
+            throws IOException {
+        ServerSocket[] servers = openServerSockets(port, count, backlog);
+        Acceptor[] acceptors = new Acceptor[Math.max(count, 1)];
+
+        for (int i = 0; i < acceptors.length; i++) {
+            Acceptor acceptor = new Acceptor(servers[i % servers.length], tls, i);
+            StatsReporter.register("acceptor-" + port + "-" + i, acceptor::getAcceptRate);
+            acceptor.start();
+            acceptors[i] = acceptor;
+        }
+
+        return acceptors;
+    }
+}
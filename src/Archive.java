@@ -0,0 +1,372 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Document root packed in a single memory mapped archive.
+ * The archive, written by the ArchivePacker, has an index of the files followed by the contiguous
+ * file contents and their optional gzip variants. The whole archive is mapped, the responses are
+ * slices of the mapping with prebuilt headers, so a request does no file system lookup.
+ * A new archive atomically renamed over the old one is mapped by the next request after the check
+ * interval, the responses still writing keep the old mapping alive.
+ *
+ * Format, big endian: magic "OWPK", version, files count, then for every file the request path,
+ * the content type (both as unsigned short length and UTF-8 bytes), content offset and length,
+ * gzip offset and length (length 0 without gzip variant); offsets are from the archive start.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-19)
+ */
+public class Archive {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Archive file serving the document root, null serves the document root directory.
+     */
+    public static final String PATH = System.getProperty("openweb.archive");
+
+    /**
+     * Milliseconds between the checks for a new archive.
+     */
+    public static final long CHECK_INTERVAL = Long.getLong("openweb.archive.check", 1000);
+
+    /**
+     * Archive magic number, "OWPK".
+     */
+    public static final int MAGIC = 0x4f57504b;
+
+    /**
+     * Archive format version.
+     */
+    public static final int VERSION = 1;
+
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Archive in use, null if none is configured or it can't be loaded.
+     */
+    private static volatile Archive current;
+
+    /**
+     * Time of the next check for a new archive, in milliseconds.
+     */
+    private static final AtomicLong NEXT_CHECK = new AtomicLong();
+
+    /**
+     * Archives mapped, the first one included.
+     */
+    private static final LongAdder SWAPS = new LongAdder();
+
+    static {
+        if (PATH != null) {
+            current = load(Paths.get(PATH));
+            StatsReporter.register("archive", Archive::report);
+        }
+    }
+
+    /**
+     * Archive files, by request path.
+     */
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    /**
+     * Archive file attributes when mapped.
+     */
+    private final BasicFileAttributes attributes;
+
+    /**
+     * Archive size, in bytes.
+     */
+    private final long size;
+
+    // --------------------------------------------------------------------------- Getters & Setters
+
+    /**
+     * Get the number of files in the archive.
+     *
+     * @return Number of files in the archive.
+     */
+    public int getFiles() {
+        return this.entries.size();
+    }
+
+    /**
+     * Get the archive size.
+     *
+     * @return Archive size, in bytes.
+     */
+    public long getSize() {
+        return this.size;
+    }
+
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * Map an archive and read its index.
+     *
+     * @param file Archive file.
+     * @throws IOException Error while mapping the archive or invalid archive.
+     */
+    public Archive(Path file) throws IOException {
+        this.attributes = Files.readAttributes(file, BasicFileAttributes.class);
+
+        MappedByteBuffer map;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            this.size = channel.size();
+            if (this.size > Integer.MAX_VALUE) {
+                throw new IOException("Archive larger than 2 GB: " + file);
+            }
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, this.size);
+        }
+
+        try {
+            if (map.getInt() != MAGIC || map.getInt() != VERSION) {
+                throw new IOException("Not an archive: " + file);
+            }
+            int count = map.getInt();
+            for (int i = 0; i < count; i++) {
+                String path = readString(map);
+                String contentType = readString(map);
+                ByteBuffer content = slice(map, map.getLong(), map.getInt());
+                long gzipOffset = map.getLong();
+                int gzipLength = map.getInt();
+                ByteBuffer gzip = gzipLength > 0 ? slice(map, gzipOffset, gzipLength) : null;
+                this.entries.put(path, new Entry(contentType, content, gzip));
+                if (EarlyHints.isScanned(contentType)) {
+                    byte[] bytes = new byte[content.remaining()];
+                    content.duplicate().get(bytes);
+                    EarlyHints.scan(Paths.get(HttpSession.DOCUMENT_ROOT + path).normalize(),
+                            "archive-" + this.attributes.lastModifiedTime().toMillis() + "-"
+                                    + this.size, contentType, bytes);
+                }
+            }
+        } catch (RuntimeException re) {
+            throw new IOException("Invalid archive: " + file, re);
+        }
+    }
+
+    // -------------------------------------------------------------------------------- Help Methods
+
+    /**
+     * Read a string of the index.
+     *
+     * @param buffer Buffer positioned on the string.
+     * @return Read string.
+     */
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xffff];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Get a read only slice of the mapping.
+     *
+     * @param map    Archive mapping.
+     * @param offset Slice offset.
+     * @param length Slice length.
+     * @return Read only slice.
+     */
+    private static ByteBuffer slice(ByteBuffer map, long offset, int length) {
+        return map.slice(Math.toIntExact(offset), length).asReadOnlyBuffer();
+    }
+
+    /**
+     * Check if the archive file was replaced since it was mapped.
+     *
+     * @param attributes Current archive file attributes.
+     * @return True if the file was replaced.
+     */
+    private boolean isReplacedBy(BasicFileAttributes attributes) {
+        Object key = attributes.fileKey();
+        return (key != null && !key.equals(this.attributes.fileKey()))
+                || !attributes.lastModifiedTime().equals(this.attributes.lastModifiedTime())
+                || attributes.size() != this.size;
+    }
+
+    // ----------------------------------------------------------------------------- General Methods
+
+    /**
+     * Get a file of the archive.
+     *
+     * @param path Request path, relative to the document root, starting with "/".
+     * @return Archive file, null if not found.
+     */
+    public Entry get(String path) {
+        return this.entries.get(path);
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Load an archive, printing the error if it can't be loaded.
+     *
+     * @param file Archive file.
+     * @return Loaded archive, null on error.
+     */
+    private static Archive load(Path file) {
+        try {
+            Archive archive = new Archive(file);
+            SWAPS.increment();
+            return archive;
+        } catch (IOException ioe) {
+            System.out.println("archive: " + ioe.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Get the archive in use, mapping the new archive if the file was replaced.
+     * At most one request for check interval looks at the archive file.
+     *
+     * @return Archive in use, null if the document root directory is served.
+     */
+    public static Archive getCurrent() {
+        if (PATH == null) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        long next = NEXT_CHECK.get();
+        if (now >= next && NEXT_CHECK.compareAndSet(next, now + CHECK_INTERVAL)) {
+            try {
+                Path file = Paths.get(PATH);
+                Archive archive = current;
+                if (archive == null
+                        || archive.isReplacedBy(Files.readAttributes(file, BasicFileAttributes.class))) {
+                    Archive replacement = load(file);
+                    if (replacement != null) {
+                        current = replacement;
+                    }
+                }
+            } catch (IOException ignored) {
+
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Build the archive statistics.
+     *
+     * @return Files and size of the archive in use, and mapped archives.
+     */
+    public static String report() {
+        Archive archive = current;
+        return "files=" + (archive != null ? archive.getFiles() : 0)
+                + " size=" + (archive != null ? archive.getSize() / 1024 : 0) + "KB"
+                + " mapped=" + SWAPS.sum();
+    }
+
+    /**
+     * File of the archive.
+     */
+    public static class Entry {
+
+        /**
+         * File content type.
+         */
+        private final String contentType;
+
+        /**
+         * File content, slice of the mapping.
+         */
+        private final ByteBuffer content;
+
+        /**
+         * Gzip variant of the file content, slice of the mapping, null if none.
+         */
+        private final ByteBuffer gzip;
+
+        /**
+         * Prebuilt http response header of the content.
+         */
+        private final byte[] header;
+
+        /**
+         * Prebuilt http response header of the gzip variant, null if none.
+         */
+        private final byte[] gzipHeader;
+
+        /**
+         * Create the archive file and prebuild its headers.
+         *
+         * @param contentType File content type.
+         * @param content     File content.
+         * @param gzip        Gzip variant, null if none.
+         */
+        private Entry(String contentType, ByteBuffer content, ByteBuffer gzip) {
+            this.contentType = contentType;
+            this.content = content;
+            this.gzip = gzip;
+            this.header = response(false).getHttpHeader();
+            this.gzipHeader = gzip != null ? response(true).getHttpHeader() : null;
+        }
+
+        /**
+         * Create the response of the content or of the gzip variant.
+         *
+         * @param gzip True for the gzip variant.
+         * @return Http response, without prebuilt header.
+         */
+        private HttpResponse response(boolean gzip) {
+            HttpResponse response = new HttpResponse(HttpStatus.OK, this.contentType,
+                    gzip ? this.gzip : this.content, null);
+            if (gzip) {
+                response.addHeader("Content-Encoding", "gzip");
+            }
+            if (this.gzip != null
+                    || Compressor.isCompressible(this.contentType, this.content.remaining())) {
+                // packed without gzip variant because not smaller: the compressor must not try
+                response.addHeader("Vary", "Accept-Encoding");
+            }
+            return response;
+        }
+
+        /**
+         * Create the 200 response of the file, with the prebuilt header.
+         *
+         * @param acceptsGzip True if the client accepts the gzip content coding.
+         * @return Http response of the file.
+         */
+        public HttpResponse toResponse(boolean acceptsGzip) {
+            boolean gzip = acceptsGzip && this.gzip != null;
+            return response(gzip).withHttpHeader(gzip ? this.gzipHeader : this.header);
+        }
+    }
+}
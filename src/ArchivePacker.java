@@ -0,0 +1,184 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Pack the document root in an archive served by the Archive.
+ * The content type of every file is computed once from the FileRequest kinds, the files that gzip
+ * well get a precompressed variant. The archive is written to a temporary file and atomically
+ * renamed, so a running server maps either the old or the new archive. The templates are not
+ * packed, they are rendered from the document root directory. The files are packed after the
+ * transforms of their content type, as the cache would serve them.
+ * Usage: java ArchivePacker [root] [archive]
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-19)
+ */
+public class ArchivePacker {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Maximum gzip size, as part of the file size, to keep the gzip variant.
+     */
+    public static final double GZIP_RATIO = 0.9;
+
+    /**
+     * Bytes of an index entry, without the strings.
+     */
+    private static final int ENTRY_SIZE = 2 + 2 + 8 + 4 + 8 + 4;
+
+    // ---------------------------------------------------------------------------------- Attributes
+    // --------------------------------------------------------------------------- Getters & Setters
+    // -------------------------------------------------------------------------------- Constructors
+    // -------------------------------------------------------------------------------- Help Methods
+    // ----------------------------------------------------------------------------- General Methods
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Compress a file content with gzip.
+     *
+     * @param content File content.
+     * @return Gzip content.
+     * @throws IOException Error while compressing.
+     */
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream(content.length / 2 + 64);
+        try (OutputStream out = new GZIPOutputStream(gzip)) {
+            out.write(content);
+        }
+        return gzip.toByteArray();
+    }
+
+    /**
+     * Write a string of the index.
+     *
+     * @param out    Archive output.
+     * @param string String to write.
+     * @throws IOException Error while writing.
+     */
+    private static void writeString(DataOutputStream out, byte[] string) throws IOException {
+        out.writeShort(string.length);
+        out.write(string);
+    }
+
+    /**
+     * Pack a document root in an archive.
+     *
+     * @param root    Document root directory.
+     * @param archive Archive file, replaced atomically.
+     * @return Number of packed files.
+     * @throws IOException Error while reading the files or writing the archive.
+     */
+    public static int pack(Path root, Path archive) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(Files::isRegularFile).filter(file -> !TemplateEngine.isTemplate(file))
+                    .sorted().collect(Collectors.toList());
+        }
+
+        List<byte[]> paths = new ArrayList<>();
+        List<byte[]> contentTypes = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+        List<byte[]> gzips = new ArrayList<>();
+        long offset = 12;
+        for (Path file : files) {
+            FileRequest request = new FileRequest(file);
+            if (request.getStatus() != HttpStatus.OK) {
+                continue;
+            }
+            String path = "/" + root.relativize(file).toString().replace('\\', '/');
+            byte[] content = Transforms.apply(request.getContentType(), request.getFile());
+            byte[] gzip = gzip(content);
+
+            paths.add(path.getBytes(StandardCharsets.UTF_8));
+            contentTypes.add(request.getContentType().getBytes(StandardCharsets.UTF_8));
+            contents.add(content);
+            gzips.add(gzip.length <= content.length * GZIP_RATIO ? gzip : null);
+            offset += ENTRY_SIZE + paths.get(paths.size() - 1).length
+                    + contentTypes.get(contentTypes.size() - 1).length;
+        }
+
+        Path temporary = archive.resolveSibling(archive.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temporary), 65536))) {
+            out.writeInt(Archive.MAGIC);
+            out.writeInt(Archive.VERSION);
+            out.writeInt(paths.size());
+            for (int i = 0; i < paths.size(); i++) {
+                writeString(out, paths.get(i));
+                writeString(out, contentTypes.get(i));
+                out.writeLong(offset);
+                out.writeInt(contents.get(i).length);
+                offset += contents.get(i).length;
+                byte[] gzip = gzips.get(i);
+                out.writeLong(gzip != null ? offset : 0);
+                out.writeInt(gzip != null ? gzip.length : 0);
+                offset += gzip != null ? gzip.length : 0;
+            }
+            for (int i = 0; i < paths.size(); i++) {
+                out.write(contents.get(i));
+                if (gzips.get(i) != null) {
+                    out.write(gzips.get(i));
+                }
+            }
+        }
+        Files.move(temporary, archive, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        return paths.size();
+    }
+
+    /**
+     * Pack the document root.
+     *
+     * @param args Document root directory and archive file, default www and www.pack.
+     */
+    public static void main(String[] args) {
+        Path root = Paths.get(args.length > 0 ? args[0] : HttpSession.DOCUMENT_ROOT);
+        Path archive = Paths.get(args.length > 1 ? args[1] : HttpSession.DOCUMENT_ROOT + ".pack");
+        try {
+            long start = System.nanoTime();
+            int count = pack(root, archive);
+            System.out.printf("%d files packed in %s, %d KB in %d ms%n", count, archive,
+                    Files.size(archive) / 1024, (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException ioe) {
+            System.out.println("pack error: " + ioe.getMessage());
+        }
+    }
+}
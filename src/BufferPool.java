@@ -0,0 +1,380 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Slab pool of the socket I/O buffers.
+ * The buffers have a few size classes, every class carves its buffers from slabs of one megabyte,
+ * allocated only while the pool is under its memory cap; over the cap the buffers are plain
+ * allocations not returned to the pool. Every thread keeps a small cache of released buffers for
+ * every class, the cache overflow goes to the shared free lists; a thread flushes its cache to them
+ * before ending, like a session at the end of its connection.
+ * The slabs are heap arrays: the sessions use the socket streams, that write and read arrays, a
+ * direct buffer would cost a copy for every read and write.
+ * In debug mode every acquired buffer remembers where it was acquired, the buffers held longer
+ * than the leak age are printed once, a buffer released twice is printed too.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-21)
+ */
+public class BufferPool {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Buffer size classes.
+     */
+    public static final int[] SIZES = {4096, 16384, 65536};
+
+    /**
+     * Slab size.
+     */
+    public static final int SLAB_SIZE = 1 << 20;
+
+    /**
+     * Maximum memory of the slabs, in bytes.
+     */
+    public static final long MAX_MEMORY = Long.getLong("openweb.buffers.max", 64L << 20);
+
+    /**
+     * Buffers of every size class cached by each thread.
+     */
+    public static final int THREAD_CACHE = Integer.getInteger("openweb.buffers.cache", 8);
+
+    /**
+     * True to track the acquired buffers and print the leaks.
+     */
+    public static final boolean DEBUG = Boolean.getBoolean("openweb.buffers.debug");
+
+    /**
+     * Milliseconds after which a buffer not released is a leak, in debug mode.
+     */
+    public static final long LEAK_AGE = Long.getLong("openweb.buffers.leak", 60_000);
+
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Buffer pool of the sessions.
+     */
+    private static final BufferPool POOL = new BufferPool();
+
+    static {
+        StatsReporter.register("buffers", POOL::report);
+    }
+
+    /**
+     * Shared free buffers of every size class.
+     */
+    private final Queue<ByteBuffer>[] free;
+
+    /**
+     * Free buffers of every size class cached by the current thread.
+     */
+    private final ThreadLocal<ArrayDeque<ByteBuffer>[]> cache;
+
+    /**
+     * Memory of the allocated slabs, in bytes.
+     */
+    private final AtomicLong memory = new AtomicLong();
+
+    /**
+     * Acquires served by the pool.
+     */
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * Acquires that carved a new slab or allocated an unpooled buffer.
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Unpooled buffers, over the cap or larger than the largest class.
+     */
+    private final LongAdder unpooled = new LongAdder();
+
+    /**
+     * Buffers acquired and not yet released.
+     */
+    private final LongAdder outstanding = new LongAdder();
+
+    /**
+     * Acquired buffers with the acquire stack and time, in debug mode.
+     */
+    private final Map<ByteBuffer, Acquire> acquired =
+            Collections.synchronizedMap(new IdentityHashMap<>());
+
+    // --------------------------------------------------------------------------- Getters & Setters
+
+    /**
+     * Get the memory of the allocated slabs, the pool never frees them so it's also the peak.
+     *
+     * @return Memory of the slabs, in bytes.
+     */
+    public long getMemory() {
+        return this.memory.get();
+    }
+
+    /**
+     * Get the part of the acquires served by the pool.
+     *
+     * @return Hit rate, from 0 to 1.
+     */
+    public double getHitRate() {
+        long hits = this.hits.sum();
+        long total = hits + this.misses.sum();
+        return total > 0 ? (double) hits / total : 0;
+    }
+
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * Create the buffer pool.
+     */
+    @SuppressWarnings("unchecked")
+    public BufferPool() {
+        this.free = (Queue<ByteBuffer>[]) new Queue<?>[SIZES.length];
+        for (int i = 0; i < SIZES.length; i++) {
+            this.free[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.cache = ThreadLocal.withInitial(() -> {
+            ArrayDeque<ByteBuffer>[] caches =
+                    (ArrayDeque<ByteBuffer>[]) new ArrayDeque<?>[SIZES.length];
+            for (int i = 0; i < SIZES.length; i++) {
+                caches[i] = new ArrayDeque<>(THREAD_CACHE);
+            }
+            return caches;
+        });
+    }
+
+    // -------------------------------------------------------------------------------- Help Methods
+
+    /**
+     * Get the size class of a buffer size.
+     *
+     * @param size Buffer size.
+     * @return Size class index, -1 if larger than the largest class.
+     */
+    private static int sizeClass(int size) {
+        for (int i = 0; i < SIZES.length; i++) {
+            if (size <= SIZES[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Check if a buffer was carved from a slab.
+     *
+     * @param buffer Buffer to check.
+     * @return True if the buffer belongs to the pool.
+     */
+    private static boolean isPooled(ByteBuffer buffer) {
+        return buffer.hasArray() && buffer.array().length == SLAB_SIZE;
+    }
+
+    /**
+     * Carve a new slab for a size class, if the pool is under its memory cap.
+     * The first buffer of the slab is returned, the others go to the shared free list.
+     *
+     * @param sizeClass Size class index.
+     * @return First buffer of the slab, null if the cap is reached.
+     */
+    private ByteBuffer carve(int sizeClass) {
+        long memory;
+        do {
+            memory = this.memory.get();
+            if (memory + SLAB_SIZE > MAX_MEMORY) {
+                return null;
+            }
+        } while (!this.memory.compareAndSet(memory, memory + SLAB_SIZE));
+
+        ByteBuffer slab = ByteBuffer.allocate(SLAB_SIZE);
+        int size = SIZES[sizeClass];
+        for (int offset = size; offset + size <= SLAB_SIZE; offset += size) {
+            this.free[sizeClass].offer(slab.slice(offset, size));
+        }
+        return slab.slice(0, size);
+    }
+
+    /**
+     * Track an acquired buffer, in debug mode.
+     *
+     * @param buffer Acquired buffer.
+     * @return The buffer.
+     */
+    private ByteBuffer track(ByteBuffer buffer) {
+        this.outstanding.increment();
+        if (DEBUG) {
+            this.acquired.put(buffer, new Acquire());
+        }
+        return buffer;
+    }
+
+    // ----------------------------------------------------------------------------- General Methods
+
+    /**
+     * Acquire a buffer of at least the requested size, cleared.
+     *
+     * @param size Minimum buffer size.
+     * @return Buffer, to be released after use.
+     */
+    public ByteBuffer acquire(int size) {
+        int sizeClass = sizeClass(size);
+        if (sizeClass < 0) {
+            this.misses.increment();
+            this.unpooled.increment();
+            return track(ByteBuffer.allocate(size));
+        }
+
+        ByteBuffer buffer = this.cache.get()[sizeClass].pollFirst();
+        if (buffer == null) {
+            buffer = this.free[sizeClass].poll();
+        }
+        if (buffer != null) {
+            this.hits.increment();
+            return track(buffer);
+        }
+
+        this.misses.increment();
+        buffer = carve(sizeClass);
+        if (buffer == null) {
+            this.unpooled.increment();
+            buffer = ByteBuffer.allocate(SIZES[sizeClass]);
+        }
+        return track(buffer);
+    }
+
+    /**
+     * Release an acquired buffer, the buffer must not be used anymore.
+     *
+     * @param buffer Buffer to release.
+     */
+    public void release(ByteBuffer buffer) {
+        if (DEBUG && this.acquired.remove(buffer) == null) {
+            new IllegalStateException("buffer released twice or not acquired").printStackTrace();
+            return;
+        }
+        this.outstanding.decrement();
+
+        int sizeClass = sizeClass(buffer.capacity());
+        if (sizeClass < 0 || SIZES[sizeClass] != buffer.capacity() || !isPooled(buffer)) {
+            return;
+        }
+        buffer.clear();
+        ArrayDeque<ByteBuffer> cache = this.cache.get()[sizeClass];
+        if (cache.size() < THREAD_CACHE) {
+            cache.addFirst(buffer);
+        } else {
+            this.free[sizeClass].offer(buffer);
+        }
+    }
+
+    /**
+     * Move the buffers cached by the current thread to the shared free lists.
+     * Called by a thread before ending, the buffers of its cache would be lost.
+     */
+    public void flushThreadCache() {
+        ArrayDeque<ByteBuffer>[] caches = this.cache.get();
+        for (int i = 0; i < caches.length; i++) {
+            ByteBuffer buffer;
+            while ((buffer = caches[i].pollFirst()) != null) {
+                this.free[i].offer(buffer);
+            }
+        }
+        this.cache.remove();
+    }
+
+    /**
+     * Print the buffers held longer than the leak age, once, in debug mode.
+     */
+    public void printLeaks() {
+        if (!DEBUG) {
+            return;
+        }
+        long now = System.nanoTime();
+        synchronized (this.acquired) {
+            for (Acquire acquire : this.acquired.values()) {
+                if (!acquire.printed
+                        && now - acquire.time > TimeUnit.MILLISECONDS.toNanos(LEAK_AGE)) {
+                    acquire.printed = true;
+                    acquire.stack.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Build the buffer pool statistics.
+     *
+     * @return Slab memory, hit rate, outstanding and unpooled buffers.
+     */
+    public String report() {
+        printLeaks();
+        return String.format("memory=%dKB hit=%.1f%% outstanding=%d unpooled=%d",
+                getMemory() / 1024, getHitRate() * 100,
+                this.outstanding.sum(), this.unpooled.sum());
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Get the buffer pool of the sessions.
+     *
+     * @return Buffer pool of the sessions.
+     */
+    public static BufferPool getPool() {
+        return POOL;
+    }
+
+    /**
+     * Acquire of a buffer, in debug mode.
+     */
+    private static class Acquire {
+
+        /**
+         * Stack of the acquire.
+         */
+        private final Throwable stack = new Throwable("buffer leak, acquired here");
+
+        /**
+         * Acquire time, in nanoseconds.
+         */
+        private final long time = System.nanoTime();
+
+        /**
+         * True when the leak was printed.
+         */
+        private boolean printed;
+    }
+}
@@ -0,0 +1,407 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Combo endpoint, many assets in one response.
+ * A request as "/combo?files=/a.css,/b.css" gets the files of its host joined in one body: text
+ * files of the same type are concatenated, the other lists are sent as a multipart/mixed
+ * response. The combined body is identified by the versions of its files and kept by file list;
+ * for the check interval a hit is served without looking up the files, then the first request
+ * compares the versions again and builds a new body only if a file changed. The memory cap counts
+ * the bodies and their gzip variants, over it the oldest combos are dropped first.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-03-06)
+ */
+public class Combo {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Path of the combo endpoint.
+     */
+    public static final String PATH = System.getProperty("openweb.combo.path", "/combo");
+
+    /**
+     * Maximum files of a combo.
+     */
+    public static final int MAX_FILES = Integer.getInteger("openweb.combo.files", 32);
+
+    /**
+     * Time a combo is served without checking its files, in milliseconds.
+     */
+    public static final long CHECK = Long.getLong("openweb.combo.check", 1000);
+
+    /**
+     * Maximum size of a combo body, in bytes.
+     */
+    public static final int MAX_BODY = Integer.getInteger("openweb.combo.body",
+            FileCache.MAX_FILE_SIZE);
+
+    /**
+     * Maximum memory of the combos, in bytes.
+     */
+    public static final long MAX_MEMORY = Long.getLong("openweb.combo.max", 8 << 20);
+
+    /**
+     * Request attribute with the file list.
+     */
+    public static final String FILES_ATTRIBUTE = "files";
+
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Combos by host and file list.
+     */
+    private static final Map<String, Entry> COMBOS = new ConcurrentHashMap<>();
+
+    /**
+     * Keys of the combos in the order they were added, the oldest first.
+     */
+    private static final Queue<String> ORDER = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Memory of the combos and their gzip variants, in bytes.
+     */
+    private static final AtomicLong MEMORY = new AtomicLong();
+
+    /**
+     * Combo requests.
+     */
+    private static final LongAdder REQUESTS = new LongAdder();
+
+    /**
+     * Combos served without looking up the files.
+     */
+    private static final LongAdder HITS = new LongAdder();
+
+    /**
+     * Combos checked again and unchanged.
+     */
+    private static final LongAdder CHECKS = new LongAdder();
+
+    /**
+     * Combos built.
+     */
+    private static final LongAdder BUILDS = new LongAdder();
+
+    static {
+        StatsReporter.register("combo", Combo::report);
+    }
+
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * Combo has only static components.
+     */
+    private Combo() {
+
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Split a file list.
+     *
+     * @param files File list, paths separated by commas.
+     * @return File paths, null if empty, too long or with a path not starting with a slash.
+     */
+    public static String[] parse(String files) {
+        if (files == null || files.isEmpty()) {
+            return null;
+        }
+        String[] paths = files.split(",");
+        if (paths.length > MAX_FILES) {
+            return null;
+        }
+        for (String path : paths) {
+            if (!path.startsWith("/") || path.equals(PATH)) {
+                return null;
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Get the combo of a file list, built from the file cache of the host.
+     *
+     * @param paths File paths, from parse.
+     * @param host  Virtual host of the request.
+     * @return Combo, null if a file is not found, outside the document root or a template.
+     * @throws IOException              Error while reading a file.
+     * @throws IllegalArgumentException A mapped file or a combo over the maximum body size.
+     */
+    public static Entry get(String[] paths, VirtualHost host) throws IOException {
+        REQUESTS.increment();
+        String key = host.getName() + " " + String.join(",", paths);
+        Entry combo = COMBOS.get(key);
+        long now = System.currentTimeMillis();
+        if (combo != null && now < combo.checkedAt + CHECK) {
+            HITS.increment();
+            return combo;
+        }
+
+        List<FileCache.Entry> files = new ArrayList<>(paths.length);
+        StringBuilder versions = new StringBuilder();
+        long length = 0;
+        for (String filePath : paths) {
+            Path path = host.resolve(filePath);
+            FileCache.Entry file = path != null && !TemplateEngine.isTemplate(path)
+                    ? host.getCache().get(path, host.isDefault() && host.isDocumentRoot()) : null;
+            if (file == null) {
+                return null;
+            }
+            length += file.getLength();
+            if (file.isMapped() || length > MAX_BODY) {
+                // joined in the heap, at every request if over the memory of the combos
+                throw new IllegalArgumentException("Combo too large: " + filePath);
+            }
+            files.add(file);
+            versions.append(filePath).append('@').append(file.getVersion()).append(',');
+        }
+
+        if (combo != null && combo.versions.equals(versions.toString())) {
+            CHECKS.increment();
+            combo.checkedAt = now;
+            return combo;
+        }
+        Entry built = build(paths, files, versions.toString());
+        built.checkedAt = now;
+        BUILDS.increment();
+        built.count(true);
+        Entry old = COMBOS.put(key, built);
+        if (old != null) {
+            old.count(false);
+        } else {
+            // a rebuilt combo keeps its place
+            ORDER.add(key);
+        }
+        shrink();
+        return built;
+    }
+
+    /**
+     * Drop the oldest combos while over the memory cap, they are rebuilt from the file cache.
+     */
+    private static void shrink() {
+        String oldest;
+        while (MEMORY.get() > MAX_MEMORY && (oldest = ORDER.poll()) != null) {
+            Entry entry = COMBOS.remove(oldest);
+            if (entry != null) {
+                entry.count(false);
+            }
+        }
+    }
+
+    /**
+     * Join the files of a combo.
+     *
+     * @param paths    File paths.
+     * @param files    Cached files, in the same order.
+     * @param versions Versions of the files.
+     * @return Combo of the files.
+     */
+    private static Entry build(String[] paths, List<FileCache.Entry> files, String versions) {
+        String contentType = files.get(0).getContentType();
+        for (FileCache.Entry file : files) {
+            if (!file.getContentType().equals(contentType) || !contentType.startsWith("text/")) {
+                contentType = null;
+                break;
+            }
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if (contentType != null) {
+            // a script without final semicolon or new line must not join the next one
+            byte[] separator = (contentType.equals("text/js") ? "\n;\n" : "\n")
+                    .getBytes(StandardCharsets.ISO_8859_1);
+            for (int i = 0; i < files.size(); i++) {
+                if (i > 0) {
+                    body.write(separator, 0, separator.length);
+                }
+                write(body, files.get(i));
+            }
+            return new Entry(contentType, body.toByteArray(), versions);
+        }
+
+        String boundary = "combo-" + Integer.toHexString(versions.hashCode())
+                + Long.toHexString(System.nanoTime());
+        for (int i = 0; i < files.size(); i++) {
+            byte[] part = ("--" + boundary + HttpResponse.CRLF
+                    + "Content-Type: " + files.get(i).getContentType() + HttpResponse.CRLF
+                    + "Content-Location: " + paths[i] + HttpResponse.CRLF + HttpResponse.CRLF)
+                    .getBytes(StandardCharsets.ISO_8859_1);
+            body.write(part, 0, part.length);
+            write(body, files.get(i));
+            body.write('\r');
+            body.write('\n');
+        }
+        byte[] end = ("--" + boundary + "--" + HttpResponse.CRLF)
+                .getBytes(StandardCharsets.ISO_8859_1);
+        body.write(end, 0, end.length);
+        return new Entry("multipart/mixed; boundary=" + boundary, body.toByteArray(), versions);
+    }
+
+    /**
+     * Write the content of a cached file.
+     *
+     * @param out  Destination.
+     * @param file Cached file.
+     */
+    private static void write(ByteArrayOutputStream out, FileCache.Entry file) {
+        ByteBuffer content = file.toResponse().getBody().duplicate();
+        byte[] bytes = new byte[content.remaining()];
+        content.get(bytes);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Build the combo statistics.
+     *
+     * @return Combos cached, memory, requests, hits without lookups, checks and builds.
+     */
+    private static String report() {
+        return "combos=" + COMBOS.size() + " memory=" + MEMORY.get() / 1024 + "KB requests="
+                + REQUESTS.sum() + " hits=" + HITS.sum() + " checks=" + CHECKS.sum()
+                + " builds=" + BUILDS.sum();
+    }
+
+    /**
+     * Combined files.
+     */
+    public static class Entry {
+
+        /**
+         * Content type, of the files or multipart.
+         */
+        private final String contentType;
+
+        /**
+         * Combined body.
+         */
+        private final byte[] body;
+
+        /**
+         * Paths and versions of the files.
+         */
+        private final String versions;
+
+        /**
+         * Time of the last check of the files, in milliseconds.
+         */
+        private volatile long checkedAt;
+
+        /**
+         * Gzip variant of the body, empty if not compressible or not smaller, null until built.
+         */
+        private volatile byte[] gzip;
+
+        /**
+         * True while the combo is counted in the memory; guarded by the entry.
+         */
+        private boolean counted;
+
+        /**
+         * Create the combo.
+         *
+         * @param contentType Content type.
+         * @param body        Combined body.
+         * @param versions    Paths and versions of the files.
+         */
+        private Entry(String contentType, byte[] body, String versions) {
+            this.contentType = contentType;
+            this.body = body;
+            this.versions = versions;
+        }
+
+        /**
+         * Count the combo, body and gzip variant, in the memory of the combos, or stop counting it.
+         *
+         * @param counted True when the combo is cached, false when it is removed.
+         */
+        private synchronized void count(boolean counted) {
+            if (this.counted != counted) {
+                this.counted = counted;
+                byte[] gzip = this.gzip;
+                long memory = this.body.length + (gzip != null ? gzip.length : 0);
+                MEMORY.addAndGet(counted ? memory : -memory);
+            }
+        }
+
+        /**
+         * Keep the gzip variant, counting it if the combo is cached.
+         *
+         * @param gzip Gzip variant, empty if not compressible or not smaller.
+         * @return True if the variant was counted.
+         */
+        private synchronized boolean setGzip(byte[] gzip) {
+            if (this.gzip != null) {
+                return false;
+            }
+            this.gzip = gzip;
+            if (this.counted) {
+                MEMORY.addAndGet(gzip.length);
+            }
+            return this.counted;
+        }
+
+        /**
+         * Create the 200 response of the combo, the gzip variant if the client accepts it.
+         *
+         * @param acceptsGzip True if the client accepts the gzip content coding.
+         * @return Http response of the combo.
+         */
+        public HttpResponse toResponse(boolean acceptsGzip) {
+            if (acceptsGzip && this.gzip == null) {
+                byte[] gzip = new byte[0];
+                if (Compressor.isCompressible(this.contentType, this.body.length)) {
+                    gzip = Compressor.gzip(ByteBuffer.wrap(this.body), Compressor.LEVEL);
+                }
+                if (setGzip(gzip.length < this.body.length ? gzip : new byte[0])) {
+                    shrink();
+                }
+            }
+            if (acceptsGzip && this.gzip.length > 0) {
+                return new HttpResponse(HttpStatus.OK, this.contentType, this.gzip)
+                        .addHeader("Content-Encoding", "gzip").addHeader("Vary", "Accept-Encoding");
+            }
+            return new HttpResponse(HttpStatus.OK, this.contentType, this.body)
+                    .addHeader("Vary", "Accept-Encoding");
+        }
+    }
+}
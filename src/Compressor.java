@@ -0,0 +1,350 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip compression stage of the responses.
+ * The responses of the clients accepting gzip are compressed if large enough, of a compressible
+ * kind and not already encoded, and sent as is if gzip doesn't make them smaller. The body is fed
+ * to a deflater in chunks and compressed whole in memory, the response keeps its content length;
+ * the deflaters are pooled: they are costly to create and hold native memory. The compression
+ * level drops when the CPU is busy: the configured level under half load, a middle level up to the
+ * high load and the fastest level over it.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-25)
+ */
+public class Compressor {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Compression level when the CPU is not busy.
+     */
+    public static final int LEVEL = Integer.getInteger("openweb.gzip.level", 6);
+
+    /**
+     * Minimum body size to compress, in bytes.
+     */
+    public static final int MIN_SIZE = Integer.getInteger("openweb.gzip.min", 1024);
+
+    /**
+     * Maximum number of pooled deflaters.
+     */
+    public static final int POOL_SIZE = Integer.getInteger("openweb.gzip.pool",
+            Runtime.getRuntime().availableProcessors() * 2);
+
+    /**
+     * CPU load from which the fastest level is used.
+     */
+    public static final double HIGH_LOAD = 0.8;
+
+    /**
+     * Milliseconds between the CPU load samples.
+     */
+    public static final long LOAD_INTERVAL = 1000;
+
+    /**
+     * Bytes deflated for every chunk.
+     */
+    private static final int CHUNK_SIZE = 16384;
+
+    /**
+     * Gzip header: magic, deflate method, no flags, no time, no extra flags, unknown OS.
+     */
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Pooled deflaters, raw deflate without zlib wrapper.
+     */
+    private static final Queue<Deflater> DEFLATERS = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Number of pooled deflaters.
+     */
+    private static final AtomicInteger POOLED = new AtomicInteger();
+
+    /**
+     * Operating system bean, for the CPU load.
+     */
+    private static final OperatingSystemMXBean OS = ManagementFactory.getOperatingSystemMXBean();
+
+    /**
+     * Time of the next CPU load sample, in milliseconds.
+     */
+    private static final AtomicLong NEXT_SAMPLE = new AtomicLong();
+
+    /**
+     * Current compression level.
+     */
+    private static volatile int level = LEVEL;
+
+    /**
+     * Compressed responses.
+     */
+    private static final LongAdder COMPRESSED = new LongAdder();
+
+    /**
+     * Bytes before the compression.
+     */
+    private static final LongAdder BYTES_IN = new LongAdder();
+
+    /**
+     * Bytes after the compression.
+     */
+    private static final LongAdder BYTES_OUT = new LongAdder();
+
+    /**
+     * Deflaters created.
+     */
+    private static final LongAdder CREATED = new LongAdder();
+
+    static {
+        StatsReporter.register("gzip", Compressor::report);
+    }
+
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * Compressor has only static components.
+     */
+    private Compressor() {
+
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Get the CPU load, the process load if the platform gives it or the load average per core.
+     *
+     * @return CPU load from 0 to 1, negative if unknown.
+     */
+    private static double getCpuLoad() {
+        if (OS instanceof com.sun.management.OperatingSystemMXBean) {
+            double load = ((com.sun.management.OperatingSystemMXBean) OS).getCpuLoad();
+            if (load >= 0) {
+                return load;
+            }
+        }
+        return OS.getSystemLoadAverage() / OS.getAvailableProcessors();
+    }
+
+    /**
+     * Get the compression level for the current CPU load, sampled at most once per interval.
+     *
+     * @return Compression level.
+     */
+    public static int getLevel() {
+        long now = System.currentTimeMillis();
+        long next = NEXT_SAMPLE.get();
+        if (now >= next && NEXT_SAMPLE.compareAndSet(next, now + LOAD_INTERVAL)) {
+            double load = getCpuLoad();
+            if (load >= HIGH_LOAD) {
+                level = Deflater.BEST_SPEED;
+            } else if (load >= HIGH_LOAD / 2) {
+                level = Math.max((LEVEL + Deflater.BEST_SPEED) / 2, Deflater.BEST_SPEED);
+            } else {
+                level = LEVEL;
+            }
+        }
+        return level;
+    }
+
+    /**
+     * Take a deflater from the pool, or create it.
+     *
+     * @param level Compression level.
+     * @return Deflater ready to use.
+     */
+    private static Deflater acquire(int level) {
+        Deflater deflater = DEFLATERS.poll();
+        if (deflater != null) {
+            POOLED.decrementAndGet();
+        } else {
+            deflater = new Deflater(LEVEL, true);
+            CREATED.increment();
+        }
+        deflater.setLevel(level);
+        return deflater;
+    }
+
+    /**
+     * Return a deflater to the pool, or free it if the pool is full.
+     *
+     * @param deflater Used deflater.
+     */
+    private static void release(Deflater deflater) {
+        deflater.reset();
+        if (POOLED.incrementAndGet() <= POOL_SIZE) {
+            DEFLATERS.offer(deflater);
+        } else {
+            POOLED.decrementAndGet();
+            deflater.end();
+        }
+    }
+
+    /**
+     * Check if a body should be compressed.
+     *
+     * @param contentType Body content type.
+     * @param length      Body length.
+     * @return True for text, json, xml and javascript bodies not smaller than the minimum size.
+     */
+    public static boolean isCompressible(String contentType, int length) {
+        return length >= MIN_SIZE && contentType != null
+                && (contentType.startsWith("text/") || contentType.contains("json")
+                || contentType.contains("xml") || contentType.contains("javascript"));
+    }
+
+    /**
+     * Compress a body with gzip, streaming it through a pooled deflater.
+     *
+     * @param body  Body to compress, from the position to the limit.
+     * @param level Compression level.
+     * @return Gzip bytes.
+     */
+    public static byte[] gzip(ByteBuffer body, int level) {
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        int length = body.remaining();
+
+        byte[] out = Arrays.copyOf(GZIP_HEADER, Math.max(length / 3, 64) + GZIP_HEADER.length + 8);
+        int count = GZIP_HEADER.length;
+        Deflater deflater = acquire(level);
+        try {
+            ByteBuffer input = body.duplicate();
+            while (!deflater.finished()) {
+                if (deflater.needsInput()) {
+                    if (input.hasRemaining()) {
+                        ByteBuffer chunk = input.slice();
+                        chunk.limit(Math.min(chunk.remaining(), CHUNK_SIZE));
+                        input.position(input.position() + chunk.remaining());
+                        deflater.setInput(chunk);
+                    } else {
+                        deflater.finish();
+                    }
+                }
+                if (count == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                count += deflater.deflate(out, count, out.length - count);
+            }
+        } finally {
+            release(deflater);
+        }
+
+        if (count + 8 > out.length) {
+            out = Arrays.copyOf(out, count + 8);
+        }
+        long value = crc.getValue();
+        for (int i = 0; i < 4; i++) {
+            out[count++] = (byte) (value >>> (i * 8));
+        }
+        for (int i = 0; i < 4; i++) {
+            out[count++] = (byte) (length >>> (i * 8));
+        }
+
+        BYTES_IN.add(length);
+        BYTES_OUT.add(count);
+        return Arrays.copyOf(out, count);
+    }
+
+    /**
+     * Check if the Vary header of a response lists a request header.
+     *
+     * @param response Http response.
+     * @param name     Request header name.
+     * @return True if the response varies on the request header.
+     */
+    public static boolean isVaryingOn(HttpResponse response, String name) {
+        String vary = response.getHeader("Vary");
+        if (vary != null) {
+            for (String header : vary.split(",")) {
+                if (header.trim().equalsIgnoreCase(name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compress a response if the client accepts gzip and the body is worth compressing.
+     * A response already varying on Accept-Encoding is left alone, its encoding is chosen.
+     *
+     * @param request  Http request.
+     * @param response Http response.
+     * @return Compressed response, or the response itself if not compressed or not smaller.
+     */
+    public static HttpResponse apply(HttpRequest request, HttpResponse response) {
+        if (response.getStatus() != HttpStatus.OK
+                || !isCompressible(response.getContentType(), response.getContentLength())
+                || response.getHeader("Content-Encoding") != null
+                || isVaryingOn(response, "Accept-Encoding")
+                || !request.acceptsEncoding("gzip")) {
+            return response;
+        }
+
+        byte[] gzip = gzip(response.getBody(), getLevel());
+        if (gzip.length >= response.getContentLength()) {
+            return response;
+        }
+        COMPRESSED.increment();
+        HttpResponse compressed = new HttpResponse(response.getStatus(), response.getContentType(),
+                gzip);
+        String vary = "Accept-Encoding";
+        for (String[] header : response.getHeaders()) {
+            if (header[0].equalsIgnoreCase("Vary")) {
+                vary = header[1] + ", " + vary;
+            } else {
+                compressed.addHeader(header[0], header[1]);
+            }
+        }
+        return compressed.addHeader("Content-Encoding", "gzip").addHeader("Vary", vary);
+    }
+
+    /**
+     * Build the compression statistics.
+     *
+     * @return Compressed responses, ratio, current level and deflaters.
+     */
+    public static String report() {
+        long in = BYTES_IN.sum();
+        return String.format("compressed=%d ratio=%.1f%% level=%d deflaters=%d pooled=%d",
+                COMPRESSED.sum(), in > 0 ? BYTES_OUT.sum() * 100.0 / in : 0.0, level,
+                CREATED.sum(), POOLED.get());
+    }
+}
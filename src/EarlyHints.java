@@ -0,0 +1,358 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 103 early hints of the html pages.
+ * An html file is scanned once for each version, when it is read or mapped from the archive: the
+ * stylesheets, the scripts and the images it links from the same origin become the Link preload
+ * headers of a prebuilt 103 message, kept by file path until the file changes, also for the files
+ * not cached. The 103 message is looked up by path and sent to the http/1.1 clients before the
+ * page is read or rendered, so the browser starts loading the assets while the server works.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-03-04)
+ */
+public class EarlyHints {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * True to send the early hints of the html pages.
+     */
+    public static final boolean ENABLED = Boolean.parseBoolean(
+            System.getProperty("openweb.earlyhints", "true"));
+
+    /**
+     * Maximum preload links of a page.
+     */
+    public static final int MAX_LINKS = Integer.getInteger("openweb.earlyhints.max", 8);
+
+    /**
+     * Content type of the scanned files.
+     */
+    private static final String HTML = "text/html";
+
+    /**
+     * Preloaded tags: tag name, url attribute and preload destination.
+     */
+    private static final String[][] TAGS = {
+            {"link", "href", "style"},                  // stylesheet
+            {"script", "src", "script"},                // script
+            {"img", "src", "image"}                     // image
+    };
+
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Early hints of the scanned pages, by normalized file path.
+     */
+    private static final Map<Path, Hints> HINTS = new ConcurrentHashMap<>();
+
+    /**
+     * Scanned pages.
+     */
+    private static final LongAdder PAGES = new LongAdder();
+
+    /**
+     * Preload links found.
+     */
+    private static final LongAdder LINKS = new LongAdder();
+
+    /**
+     * Early hints messages sent.
+     */
+    private static final LongAdder SENT = new LongAdder();
+
+    static {
+        StatsReporter.register("early-hints", EarlyHints::report);
+    }
+
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * EarlyHints has only static components.
+     */
+    private EarlyHints() {
+
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Check if the files of a content type are scanned.
+     *
+     * @param contentType File content type.
+     * @return True for html with the early hints enabled.
+     */
+    public static boolean isScanned(String contentType) {
+        return ENABLED && HTML.equals(contentType);
+    }
+
+    /**
+     * Scan an html file for the assets to preload.
+     *
+     * @param contentType File content type.
+     * @param content     File content.
+     * @return Prebuilt 103 early hints message, null if not html or without assets.
+     */
+    private static byte[] scan(String contentType, byte[] content) {
+        if (!isScanned(contentType)) {
+            return null;
+        }
+
+        String source = new String(content, StandardCharsets.ISO_8859_1);
+        String lower = source.toLowerCase(Locale.ROOT);
+        Set<String> links = new LinkedHashSet<>();
+        int i = lower.indexOf('<');
+        while (i >= 0 && links.size() < MAX_LINKS) {
+            if (lower.startsWith("<!--", i)) {
+                int end = lower.indexOf("-->", i + 4);
+                i = end < 0 ? -1 : lower.indexOf('<', end + 3);
+                continue;
+            }
+            int end = lower.indexOf('>', i);
+            if (end < 0) {
+                break;
+            }
+            String link = preload(source, lower, i + 1, end);
+            if (link != null) {
+                links.add(link);
+            }
+            i = lower.indexOf('<', end);
+        }
+
+        PAGES.increment();
+        LINKS.add(links.size());
+        return links.isEmpty() ? null
+                : HttpResponse.getEarlyHintsHeader(links.toArray(new String[0]));
+    }
+
+    /**
+     * Scan a version of an html file for the assets to preload, once: the scan of the same version
+     * is reused.
+     *
+     * @param path        Normalized path of the file.
+     * @param version     File version, as modification time and size.
+     * @param contentType File content type.
+     * @param content     File content.
+     */
+    public static void scan(Path path, String version, String contentType, byte[] content) {
+        if (!isScanned(contentType)) {
+            return;
+        }
+        Hints hints = HINTS.get(path);
+        if (hints == null || !hints.version.equals(version)) {
+            HINTS.put(path, new Hints(version, scan(contentType, content)));
+        }
+    }
+
+    /**
+     * Forget the early hints of a deleted file.
+     *
+     * @param path Normalized path of the file.
+     */
+    public static void remove(Path path) {
+        HINTS.remove(path);
+    }
+
+    /**
+     * Get the preload link of a tag.
+     *
+     * @param source Html source.
+     * @param lower  Html source in lower case.
+     * @param start  Start of the tag, after the '<'.
+     * @param end    End of the tag, the '>'.
+     * @return Link header value, null if the tag doesn't link an asset.
+     */
+    private static String preload(String source, String lower, int start, int end) {
+        for (String[] tag : TAGS) {
+            int nameEnd = start + tag[0].length();
+            if (lower.startsWith(tag[0], start) && nameEnd < end
+                    && Character.isWhitespace(lower.charAt(nameEnd))) {
+                Map<String, String> attributes = attributes(source, lower, nameEnd, end);
+                String rel = (" " + attributes.get("rel") + " ").toLowerCase(Locale.ROOT);
+                if (tag[0].equals("link") && !rel.contains(" stylesheet ")) {
+                    return null;
+                }
+                String url = url(attributes.get(tag[1]));
+                return url != null ? "<" + url + ">; rel=preload; as=" + tag[2] : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parse the attributes of a tag.
+     *
+     * @param source Html source.
+     * @param lower  Html source in lower case.
+     * @param start  Start of the attributes.
+     * @param end    End of the tag, the '>'.
+     * @return Attribute values by lower case name, empty for the attributes without value.
+     */
+    private static Map<String, String> attributes(String source, String lower, int start, int end) {
+        Map<String, String> attributes = new HashMap<>();
+        int i = start;
+        while (i < end) {
+            char c = lower.charAt(i);
+            if (Character.isWhitespace(c) || c == '/') {
+                i++;
+                continue;
+            }
+            int nameStart = i;
+            while (i < end && !Character.isWhitespace(lower.charAt(i)) && lower.charAt(i) != '='
+                    && lower.charAt(i) != '/') {
+                i++;
+            }
+            String name = lower.substring(nameStart, i);
+            while (i < end && Character.isWhitespace(lower.charAt(i))) {
+                i++;
+            }
+            String value = "";
+            if (i < end && lower.charAt(i) == '=') {
+                i++;
+                while (i < end && Character.isWhitespace(lower.charAt(i))) {
+                    i++;
+                }
+                if (i < end && (lower.charAt(i) == '"' || lower.charAt(i) == '\'')) {
+                    int close = lower.indexOf(lower.charAt(i), i + 1);
+                    close = close < 0 || close > end ? end : close;
+                    value = source.substring(i + 1, close);
+                    i = close + 1;
+                } else {
+                    int valueStart = i;
+                    while (i < end && !Character.isWhitespace(lower.charAt(i))) {
+                        i++;
+                    }
+                    value = source.substring(valueStart, i);
+                }
+            }
+            attributes.putIfAbsent(name, value);
+        }
+        return attributes;
+    }
+
+    /**
+     * Check an asset url for the Link header.
+     *
+     * @param value Attribute value.
+     * @return Url of the same origin, null for another origin, a data url or invalid chars.
+     */
+    private static String url(String value) {
+        if (value == null) {
+            return null;
+        }
+        String url = value.trim().replace("&amp;", "&");
+        if (url.isEmpty() || url.startsWith("//")) {
+            return null;
+        }
+        for (int i = 0; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c == ':') {
+                // a scheme, another origin or a data url
+                return null;
+            }
+            if (c == '/' || c == '?' || c == '#') {
+                break;
+            }
+        }
+        for (int i = 0; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c <= ' ' || c > '~' || c == '<' || c == '>' || c == '"') {
+                return null;
+            }
+        }
+        return url;
+    }
+
+    /**
+     * Get the early hints of the requested page, to send before reading or rendering it, to the
+     * http/1.1 GET requests only.
+     *
+     * @param request Http request, not rendered yet.
+     * @param path    Normalized path of the requested page.
+     * @return Prebuilt 103 early hints message, null if none.
+     */
+    public static byte[] get(HttpRequest request, Path path) {
+        if (HINTS.isEmpty() || path == null || !HttpSession.GET.equals(request.getMethod())
+                || !"HTTP/1.1".equals(request.getVersion())) {
+            return null;
+        }
+        Hints hints = HINTS.get(path);
+        return hints != null ? hints.message : null;
+    }
+
+    /**
+     * Count an early hints message sent.
+     */
+    public static void sent() {
+        SENT.increment();
+    }
+
+    /**
+     * Build the early hints statistics.
+     *
+     * @return Scanned pages, links found and messages sent.
+     */
+    private static String report() {
+        return "pages=" + PAGES.sum() + " links=" + LINKS.sum() + " sent=" + SENT.sum();
+    }
+
+    /**
+     * Early hints of a version of a page.
+     */
+    private static class Hints {
+
+        /**
+         * Scanned file version.
+         */
+        private final String version;
+
+        /**
+         * Prebuilt 103 early hints message, null if the page links no asset.
+         */
+        private final byte[] message;
+
+        /**
+         * Create the early hints of a page version.
+         *
+         * @param version Scanned file version.
+         * @param message Prebuilt 103 early hints message, null if none.
+         */
+        private Hints(String version, byte[] message) {
+            this.version = version;
+            this.message = message;
+        }
+    }
+}
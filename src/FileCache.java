@@ -0,0 +1,636 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In memory cache of the document root files.
+ * Every cached file keeps its content type, its content and the prebuilt http response header, a
+ * hit only checks the file modification time and size to find changed files. When the cache is
+ * full the least recently used files are evicted, the deleted files leave the cache at their next
+ * request. The files larger than the maximum file size are never cached nor read in the heap: they
+ * are mapped and written slice by slice from the mapped region.
+ * Every entry counts its hits, the most requested files are the hot set saved for the warm-up.
+ * In peer mode a missing file owned by another instance is fetched from it instead of the disk.
+ * The files read from the disk go through the transforms of their content type, like the
+ * minifiers, once when entering the cache and again when changed; the files larger than the whole
+ * cache would be transformed again on every request, they are served as they are.
+ * The concurrent misses of a file share a single read, and the gzip variant of a compressible
+ * file is built once by the first client accepting it, the others share it, also when the file is
+ * not cached. The size cap counts the files and their gzip variants, kept only when smaller.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-18)
+ */
+public class FileCache {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Maximum size of the cached files, in bytes.
+     */
+    public static final long MAX_SIZE = Long.getLong("openweb.cache.size", 64L << 20);
+
+    /**
+     * Maximum size of a single cached file, in bytes.
+     */
+    public static final int MAX_FILE_SIZE = Integer.getInteger("openweb.cache.file", 1 << 20);
+
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Gzip compression of the files, by path and version, shared by the concurrent requests of a
+     * file.
+     */
+    private static final SingleFlight<String, byte[]> COMPRESSIONS =
+            new SingleFlight<>("file-gzip", SingleFlight.TIMEOUT);
+
+    /**
+     * Cached files, by normalized path.
+     */
+    private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Maximum size of the cached files, in bytes.
+     */
+    private final long maxSize;
+
+    /**
+     * Maximum size of a single cached file, in bytes.
+     */
+    private final int maxFileSize;
+
+    /**
+     * Size of the cached files, in bytes.
+     */
+    private final AtomicLong size = new AtomicLong();
+
+    /**
+     * Requests served from the cache.
+     */
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * Requests not served from the cache.
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Files read from the disk.
+     */
+    private final LongAdder diskReads = new LongAdder();
+
+    /**
+     * Files fetched from a peer instead of the disk.
+     */
+    private final LongAdder peerReads = new LongAdder();
+
+    /**
+     * Large files mapped instead of read.
+     */
+    private final LongAdder mappedReads = new LongAdder();
+
+    /**
+     * Files evicted to make room for other files.
+     */
+    private final LongAdder evicted = new LongAdder();
+
+    /**
+     * Reads of the missing files, shared by the concurrent misses of a file.
+     */
+    private final SingleFlight<Path, Entry> loads;
+
+    // --------------------------------------------------------------------------- Getters & Setters
+
+    /**
+     * Get the number of cached files.
+     *
+     * @return Number of cached files.
+     */
+    public int getFiles() {
+        return this.entries.size();
+    }
+
+    /**
+     * Get the size of the cached files.
+     *
+     * @return Size of the cached files, in bytes.
+     */
+    public long getSize() {
+        return this.size.get();
+    }
+
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * Create the file cache and register its statistics.
+     *
+     * @param name        Statistics name.
+     * @param maxSize     Maximum size of the cached files, in bytes.
+     * @param maxFileSize Maximum size of a single cached file, in bytes.
+     */
+    public FileCache(String name, long maxSize, int maxFileSize) {
+        this.maxSize = maxSize;
+        this.maxFileSize = maxFileSize;
+        this.loads = new SingleFlight<>(name + "-loads", SingleFlight.TIMEOUT);
+        StatsReporter.register(name, this::report);
+    }
+
+    // -------------------------------------------------------------------------------- Help Methods
+
+    /**
+     * Remove a cached file, if still cached with the entry.
+     *
+     * @param path  Normalized path of the file.
+     * @param entry Cache entry of the file.
+     * @return True if removed.
+     */
+    private boolean remove(Path path, Entry entry) {
+        if (this.entries.remove(path, entry)) {
+            synchronized (entry) {
+                entry.cache = null;
+                this.size.addAndGet(-entry.getMemory());
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Evict the least recently used files while the cache is full.
+     * The cache is brought to 7/8 of its size at once, so the sort of the entries is paid once
+     * every many misses instead of on each one.
+     */
+    private synchronized void evict() {
+        if (this.size.get() <= this.maxSize) {
+            return;
+        }
+        List<Map.Entry<Path, Entry>> sorted = new ArrayList<>(this.entries.entrySet());
+        sorted.sort(Comparator.comparingLong(e -> e.getValue().lastUsed));
+        long target = this.maxSize - this.maxSize / 8;
+        for (int i = 0; i < sorted.size() && this.size.get() > target; i++) {
+            if (remove(sorted.get(i).getKey(), sorted.get(i).getValue())) {
+                this.evicted.increment();
+            }
+        }
+    }
+
+    /**
+     * Fetch a file from its owner peer.
+     *
+     * @param path       Normalized path of the file.
+     * @param attributes File attributes.
+     * @return Cache entry, null if the file is owned by this instance or the fetch failed.
+     */
+    private Entry fetch(Path path, BasicFileAttributes attributes) {
+        PeerCache peers = PeerCache.getInstance();
+        if (peers == null || attributes.isDirectory() || attributes.size() > this.maxFileSize) {
+            return null;
+        }
+
+        HttpResponse response = peers.fetch(path);
+        if (response == null || response.getContentLength() != attributes.size()
+                && !Transforms.isTransformed(response.getContentType())) {
+            // the owner sends the file already transformed
+            return null;
+        }
+        byte[] body = new byte[response.getContentLength()];
+        response.getBody().get(body);
+        this.peerReads.increment();
+        return new Entry(path, response.getContentType(), body, attributes);
+    }
+
+    /**
+     * Map a file larger than the maximum file size, the entry is not cached.
+     *
+     * @param path       Normalized path of the file.
+     * @param attributes File attributes.
+     * @return Entry of the mapped file, null if the file is not found or over 2 GB.
+     * @throws IOException File system error while mapping the file.
+     */
+    private Entry map(Path path, BasicFileAttributes attributes) throws IOException {
+        if (!attributes.isRegularFile() || !Files.isReadable(path)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                return null;
+            }
+            this.mappedReads.increment();
+            return new Entry(path, FileRequest.getContentType(path.toString()),
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, length), attributes);
+        }
+    }
+
+    /**
+     * Read a file, from the owner peer or from the disk, and cache it if it fits.
+     *
+     * @param path       Normalized path of the file.
+     * @param attributes File attributes.
+     * @param peers      True to fetch the file from its owner peer, false for a peer request.
+     * @return Cache entry, cached or not, null if the file is not found.
+     * @throws IOException File system error while reading the file.
+     */
+    private Entry load(Path path, BasicFileAttributes attributes, boolean peers)
+            throws IOException {
+        if (attributes.size() > this.maxFileSize) {
+            return map(path, attributes);
+        }
+        Entry entry = peers ? fetch(path, attributes) : null;
+        if (entry == null) {
+            FileRequest file = new FileRequest(path);
+            if (file.getStatus() != HttpStatus.OK) {
+                return null;
+            }
+            this.diskReads.increment();
+            // a file larger than the cache is not transformed again on each request
+            entry = new Entry(path, file.getContentType(), attributes.size() <= this.maxSize
+                    ? Transforms.apply(file.getContentType(), file.getFile()) : file.getFile(),
+                    attributes);
+        }
+
+        Entry old = this.entries.get(path);
+        if (old != null) {
+            remove(path, old);
+            entry.hits.add(old.hits.sum());
+        }
+        if (entry.body.length <= this.maxFileSize && entry.body.length <= this.maxSize) {
+            synchronized (entry) {
+                entry.cache = this;
+                this.size.addAndGet(entry.getMemory());
+            }
+            this.entries.put(path, entry);
+            evict();
+        }
+        return entry;
+    }
+
+    // ----------------------------------------------------------------------------- General Methods
+
+    /**
+     * Get a file from the cache, reading it if not cached or changed.
+     *
+     * @param path Normalized path of the file.
+     * @return Cache entry, null if the file is not found.
+     * @throws IOException File system error while reading the file.
+     */
+    public Entry get(Path path) throws IOException {
+        return get(path, true);
+    }
+
+    /**
+     * Get a file from the cache, reading it if not cached or changed.
+     * The concurrent misses of a file wait for the first one to read it.
+     *
+     * @param path  Normalized path of the file.
+     * @param peers True to fetch a missing file from its owner peer, false for a peer request.
+     * @return Cache entry, null if the file is not found.
+     * @throws IOException File system error while reading the file, or timeout while waiting for
+     *                     the read of a concurrent miss.
+     */
+    public Entry get(Path path, boolean peers) throws IOException {
+        BasicFileAttributes attributes;
+        Entry entry = this.entries.get(path);
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException ioe) {
+            // deleted file
+            if (entry != null) {
+                remove(path, entry);
+            }
+            EarlyHints.remove(path);
+            return null;
+        }
+
+        if (entry != null && entry.isFresh(attributes)) {
+            this.hits.increment();
+            entry.lastUsed = System.nanoTime();
+        } else {
+            this.misses.increment();
+            entry = this.loads.run(path, () -> load(path, attributes, peers));
+        }
+        if (entry != null) {
+            entry.hits.increment();
+        }
+        return entry;
+    }
+
+    /**
+     * Get the most requested cached files.
+     *
+     * @param count Maximum number of files.
+     * @return Paths of the most requested files, most requested first.
+     */
+    public List<Path> getHotSet(int count) {
+        List<Map.Entry<Path, Entry>> sorted = new ArrayList<>(this.entries.entrySet());
+        sorted.sort(Comparator.comparingLong(e -> -e.getValue().hits.sum()));
+
+        List<Path> hotSet = new ArrayList<>();
+        for (int i = 0; i < sorted.size() && i < count; i++) {
+            hotSet.add(sorted.get(i).getKey());
+        }
+        return hotSet;
+    }
+
+    /**
+     * Build the file cache statistics.
+     *
+     * @return Cached files, size, hits, reads from the disk and from the peers and evictions.
+     */
+    public String report() {
+        return "files=" + getFiles() + " size=" + getSize() / 1024 + "KB hits=" + this.hits.sum()
+                + " misses=" + this.misses.sum() + " disk-reads=" + this.diskReads.sum()
+                + " peer-reads=" + this.peerReads.sum() + " mapped-reads=" + this.mappedReads.sum()
+                + " evicted=" + this.evicted.sum();
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Get the document root files cache, the cache of the default virtual host.
+     *
+     * @return Document root files cache.
+     */
+    public static FileCache getDocumentRootCache() {
+        return VirtualHost.getDefault().getCache();
+    }
+
+    /**
+     * Cached file.
+     */
+    public static class Entry {
+
+        /**
+         * Normalized path of the file.
+         */
+        private final Path path;
+
+        /**
+         * File content type.
+         */
+        private final String contentType;
+
+        /**
+         * File content, transformed, null for a mapped file.
+         */
+        private final byte[] body;
+
+        /**
+         * Mapped file content of a large file, null for a file in the heap.
+         */
+        private final ByteBuffer mapped;
+
+        /**
+         * Prebuilt http response header.
+         */
+        private final byte[] header;
+
+        /**
+         * File modification time, in milliseconds.
+         */
+        private final long lastModified;
+
+        /**
+         * File size, in bytes.
+         */
+        private final long fileSize;
+
+        /**
+         * Requests of the file.
+         */
+        private final LongAdder hits = new LongAdder();
+
+        /**
+         * Time of the last request served from the cache, in nanoseconds.
+         */
+        private volatile long lastUsed = System.nanoTime();
+
+        /**
+         * Gzip variant of the file, empty if not smaller than the file, null until built.
+         */
+        private volatile byte[] gzip;
+
+        /**
+         * Cache holding the entry, counting its memory, null if not cached; guarded by the entry.
+         */
+        private FileCache cache;
+
+        /**
+         * Create the cache entry of a file.
+         * An html file is scanned for its early hints, once for each version.
+         *
+         * @param path        Normalized path of the file.
+         * @param contentType File content type.
+         * @param body        File content.
+         * @param attributes  File attributes at read time.
+         */
+        private Entry(Path path, String contentType, byte[] body, BasicFileAttributes attributes) {
+            this.path = path;
+            this.contentType = contentType;
+            this.body = body;
+            this.mapped = null;
+            this.header = new HttpResponse(HttpStatus.OK, this.contentType, this.body)
+                    .getHttpHeader();
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+            this.fileSize = attributes.size();
+            EarlyHints.scan(path, getVersion(), this.contentType, this.body);
+        }
+
+        /**
+         * Create the entry of a large mapped file, not transformed, compressed nor scanned.
+         *
+         * @param path        Normalized path of the file.
+         * @param contentType File content type.
+         * @param mapped      Mapped file content.
+         * @param attributes  File attributes at map time.
+         */
+        private Entry(Path path, String contentType, ByteBuffer mapped,
+                      BasicFileAttributes attributes) {
+            this.path = path;
+            this.contentType = contentType;
+            this.body = null;
+            this.mapped = mapped;
+            this.header = new HttpResponse(HttpStatus.OK, this.contentType, mapped, null)
+                    .getHttpHeader();
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+            this.fileSize = attributes.size();
+        }
+
+        /**
+         * Check if the file was not changed since it was read.
+         *
+         * @param attributes Current file attributes.
+         * @return True if the entry is still valid.
+         */
+        private boolean isFresh(BasicFileAttributes attributes) {
+            return attributes.lastModifiedTime().toMillis() == this.lastModified
+                    && attributes.size() == this.fileSize;
+        }
+
+        /**
+         * Check if the file is mapped, too large to be read in the heap.
+         *
+         * @return True for a mapped file.
+         */
+        public boolean isMapped() {
+            return this.mapped != null;
+        }
+
+        /**
+         * Get the file size.
+         *
+         * @return File size, in bytes.
+         */
+        public int getLength() {
+            return this.mapped != null ? this.mapped.remaining() : this.body.length;
+        }
+
+        /**
+         * Get the heap memory of the entry, the file and its gzip variant.
+         *
+         * @return Memory of the entry, in bytes.
+         */
+        private long getMemory() {
+            byte[] gzip = this.gzip;
+            return this.body.length + (gzip != null ? gzip.length : 0);
+        }
+
+        /**
+         * Keep the gzip variant, counting it in the cache holding the entry.
+         *
+         * @param compressed Gzip variant, empty if not smaller than the file.
+         * @return Gzip variant of the entry.
+         */
+        private byte[] setGzip(byte[] compressed) {
+            FileCache cache;
+            synchronized (this) {
+                if (this.gzip != null) {
+                    return this.gzip;
+                }
+                this.gzip = compressed;
+                cache = this.cache;
+                if (cache != null) {
+                    // counted before an eviction can uncount it
+                    cache.size.addAndGet(compressed.length);
+                }
+            }
+            if (cache != null) {
+                cache.evict();
+            }
+            return compressed;
+        }
+
+        /**
+         * Get the file content type.
+         *
+         * @return File content type.
+         */
+        public String getContentType() {
+            return this.contentType;
+        }
+
+        /**
+         * Get the file version, changed when the file is modified.
+         *
+         * @return Modification time and size of the file read.
+         */
+        public String getVersion() {
+            return this.lastModified + "-" + this.fileSize;
+        }
+
+        /**
+         * Get the gzip variant of the file, building it once for all the concurrent requests.
+         *
+         * @return Gzip variant, empty if not smaller than the file.
+         * @throws IOException Timeout while waiting for a concurrent compression.
+         */
+        private byte[] getGzip() throws IOException {
+            byte[] gzip = this.gzip;
+            if (gzip == null) {
+                // keyed by the file version: the requests of a file not cached share it too
+                gzip = setGzip(COMPRESSIONS.run(this.path + " " + getVersion(), () -> {
+                    byte[] compressed = Compressor.gzip(ByteBuffer.wrap(this.body),
+                            Compressor.LEVEL);
+                    return compressed.length < this.body.length ? compressed : new byte[0];
+                }));
+            }
+            return gzip;
+        }
+
+        /**
+         * Create the 200 response of the file, with the prebuilt header.
+         *
+         * @return Http response of the file.
+         */
+        public HttpResponse toResponse() {
+            if (this.mapped != null) {
+                return new HttpResponse(HttpStatus.OK, this.contentType, this.mapped.duplicate(),
+                        this.header);
+            }
+            return new HttpResponse(HttpStatus.OK, this.contentType, this.body, this.header);
+        }
+
+        /**
+         * Create the 200 response of the file, the gzip variant if the client accepts it and the
+         * file is compressible.
+         *
+         * @param acceptsGzip True if the client accepts the gzip content coding.
+         * @return Http response of the file.
+         * @throws IOException Timeout while waiting for a concurrent compression.
+         */
+        public HttpResponse toResponse(boolean acceptsGzip) throws IOException {
+            if (this.mapped != null) {
+                // compressing a large file would bring it in the heap
+                return Compressor.isCompressible(this.contentType, getLength())
+                        ? toResponse().addHeader("Vary", "Accept-Encoding") : toResponse();
+            }
+            if (this.fileSize != this.body.length) {
+                Transforms.served(this.contentType, this.fileSize - this.body.length);
+            }
+            if (!acceptsGzip || !Compressor.isCompressible(this.contentType, this.body.length)) {
+                return toResponse();
+            }
+            byte[] gzip = getGzip();
+            if (gzip.length == 0) {
+                // the encoding is chosen, the compressor must not try again
+                return toResponse().addHeader("Vary", "Accept-Encoding");
+            }
+            return new HttpResponse(HttpStatus.OK, this.contentType, gzip)
+                    .addHeader("Content-Encoding", "gzip").addHeader("Vary", "Accept-Encoding");
+        }
+    }
+}
@@ -126,6 +126,16 @@ public class FileRequest {
         return this.fileKind;
     }
 
+    /**
+     * Get the file content type, composed by the file kind and the file extension.
+     * Example: text/html.
+     *
+     * @return File content type.
+     */
+    public String getContentType() {
+        return this.fileKind + "/" + this.fileExtension;
+    }
+
     /**
      * Get the file lenght.
      *
@@ -162,10 +172,11 @@ public class FileRequest {
      * Check the file path.
      *
      * @param path Path to check.
-     * @return True if the path exists and is readable.
+     * @return True if the path exists, is readable and is not a directory.
      */
     private boolean checkFile(Path path) {
-        return Files.exists(path) && !Files.notExists(path) && Files.isReadable(path);
+        return Files.exists(path) && !Files.notExists(path) && Files.isReadable(path)
+                && !Files.isDirectory(path);
     }
 
     /**
@@ -176,17 +187,8 @@ public class FileRequest {
      * @param path Path of the file.
      */
     private void setKindExtension(Path path) {
-        String extension = path.toString();
-        extension = extension.substring(extension.lastIndexOf(".") + 1);
-
-        int kind = -1;
-        for (int i = 0; i < FILE_KINDS.length; i++) {
-            if (extension.equals(FILE_KINDS[i][2].toLowerCase())) {
-                kind = i;
-                i = FILE_KINDS.length;
-            }
-        }
-        if (kind > 0) {
+        int kind = getKindIndex(path.toString());
+        if (kind >= 0) {
             this.fileExtension = FILE_KINDS[kind][1];
             this.fileKind = FILE_KINDS[kind][0];
         } else {
@@ -217,4 +219,31 @@ public class FileRequest {
     // ----------------------------------------------------------------------------- General Methods
     // --------------------------------------------------------------------------- Static Components
 
+    /**
+     * Search the extension of a file name in the FILE_KINDS.
+     *
+     * @param fileName File name or path.
+     * @return Index of the file kind, -1 if not supported.
+     */
+    private static int getKindIndex(String fileName) {
+        String extension = fileName.substring(fileName.lastIndexOf(".") + 1);
+        for (int i = 0; i < FILE_KINDS.length; i++) {
+            if (extension.equals(FILE_KINDS[i][2].toLowerCase())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the content type of a file name, text/plain if not supported.
+     *
+     * @param fileName File name or path.
+     * @return File content type, example: text/html.
+     */
+    public static String getContentType(String fileName) {
+        int kind = getKindIndex(fileName);
+        return kind >= 0 ? FILE_KINDS[kind][0] + "/" + FILE_KINDS[kind][1] : "text/plain";
+    }
+
 }
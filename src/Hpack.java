@@ -0,0 +1,726 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * HPACK header compression for http/2 (RFC 7541).
+ * The static table and the Huffman code are shared by all the connections, every connection has
+ * its own decoder and encoder with their dynamic tables. Headers are name and value pairs, the
+ * names are lower case.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-15)
+ */
+public class Hpack {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Default dynamic table size.
+     */
+    public static final int DEFAULT_TABLE_SIZE = 4096;
+
+    /**
+     * Static table, the index 0 is unused.
+     */
+    public static final String[][] STATIC_TABLE = {
+            {"", ""},
+            {":authority", ""},
+            {":method", "GET"},
+            {":method", "POST"},
+            {":path", "/"},
+            {":path", "/index.html"},
+            {":scheme", "http"},
+            {":scheme", "https"},
+            {":status", "200"},
+            {":status", "204"},
+            {":status", "206"},
+            {":status", "304"},
+            {":status", "400"},
+            {":status", "404"},
+            {":status", "500"},
+            {"accept-charset", ""},
+            {"accept-encoding", "gzip, deflate"},
+            {"accept-language", ""},
+            {"accept-ranges", ""},
+            {"accept", ""},
+            {"access-control-allow-origin", ""},
+            {"age", ""},
+            {"allow", ""},
+            {"authorization", ""},
+            {"cache-control", ""},
+            {"content-disposition", ""},
+            {"content-encoding", ""},
+            {"content-language", ""},
+            {"content-length", ""},
+            {"content-location", ""},
+            {"content-range", ""},
+            {"content-type", ""},
+            {"cookie", ""},
+            {"date", ""},
+            {"etag", ""},
+            {"expect", ""},
+            {"expires", ""},
+            {"from", ""},
+            {"host", ""},
+            {"if-match", ""},
+            {"if-modified-since", ""},
+            {"if-none-match", ""},
+            {"if-range", ""},
+            {"if-unmodified-since", ""},
+            {"last-modified", ""},
+            {"link", ""},
+            {"location", ""},
+            {"max-forwards", ""},
+            {"proxy-authenticate", ""},
+            {"proxy-authorization", ""},
+            {"range", ""},
+            {"referer", ""},
+            {"refresh", ""},
+            {"retry-after", ""},
+            {"server", ""},
+            {"set-cookie", ""},
+            {"strict-transport-security", ""},
+            {"transfer-encoding", ""},
+            {"user-agent", ""},
+            {"vary", ""},
+            {"via", ""},
+            {"www-authenticate", ""}
+    };
+
+    /**
+     * Huffman codes of the 256 octets and of the end of string symbol.
+     */
+    private static final int[] HUFFMAN_CODES = {
+            0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+            0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+            0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+            0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+            0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+            0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+            0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+            0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+            0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+            0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+            0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+            0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+            0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+            0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+            0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+            0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+            0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+            0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+            0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+            0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+            0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+            0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+            0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+            0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+            0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+            0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+            0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+            0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+            0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+            0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+            0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+            0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee,
+            0x3fffffff
+    };
+
+    /**
+     * Huffman code lengths in bits of the 256 octets and of the end of string symbol.
+     */
+    private static final byte[] HUFFMAN_LENGTHS = {
+            13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+            28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+            6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+            5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+            13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+            7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+            15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+            6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+            20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+            24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+            22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+            21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+            26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+            19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+            20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+            26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+            30
+    };
+
+    /**
+     * Headers never added to the dynamic table by the encoder, their values rarely repeat.
+     */
+    private static final Set<String> NOT_INDEXED = Set.of(
+            "content-length", "date", "etag", "last-modified", "set-cookie", "retry-after");
+
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Static table index of the header names, the lowest index of each name.
+     */
+    private static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+
+    /**
+     * Static table index of the headers with value.
+     */
+    private static final Map<String, Integer> STATIC_HEADERS = new HashMap<>();
+
+    /**
+     * Huffman decoding tree, for each node the child of the 0 and 1 bits. A negative child is the
+     * leaf of the symbol -child - 1.
+     */
+    private static final int[][] HUFFMAN_TREE = new int[2][512];
+
+    static {
+        for (int i = STATIC_TABLE.length - 1; i > 0; i--) {
+            STATIC_NAMES.put(STATIC_TABLE[i][0], i);
+            if (!STATIC_TABLE[i][1].isEmpty()) {
+                STATIC_HEADERS.put(STATIC_TABLE[i][0] + '\0' + STATIC_TABLE[i][1], i);
+            }
+        }
+
+        int nodes = 1;
+        for (int symbol = 0; symbol < HUFFMAN_CODES.length; symbol++) {
+            int node = 0;
+            for (int bit = HUFFMAN_LENGTHS[symbol] - 1; bit >= 0; bit--) {
+                int branch = (HUFFMAN_CODES[symbol] >>> bit) & 1;
+                if (bit == 0) {
+                    HUFFMAN_TREE[branch][node] = -symbol - 1;
+                } else {
+                    if (HUFFMAN_TREE[branch][node] == 0) {
+                        HUFFMAN_TREE[branch][node] = nodes++;
+                    }
+                    node = HUFFMAN_TREE[branch][node];
+                }
+            }
+        }
+    }
+
+    // --------------------------------------------------------------------------- Getters & Setters
+    // -------------------------------------------------------------------------------- Constructors
+    // -------------------------------------------------------------------------------- Help Methods
+    // ----------------------------------------------------------------------------- General Methods
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Decode a Huffman encoded string.
+     *
+     * @param data   Encoded data.
+     * @param offset Start of the string.
+     * @param length Length of the string.
+     * @return Decoded string.
+     * @throws IOException Invalid Huffman code or padding.
+     */
+    static String huffmanDecode(byte[] data, int offset, int length) throws IOException {
+        StringBuilder decoded = new StringBuilder(length * 8 / 5);
+        int node = 0;
+        int depth = 0;
+        boolean ones = true;
+        for (int i = offset; i < offset + length; i++) {
+            for (int bit = 7; bit >= 0; bit--) {
+                int branch = (data[i] >>> bit) & 1;
+                int child = HUFFMAN_TREE[branch][node];
+                if (child < 0) {
+                    if (child == -257) {
+                        throw new IOException("Huffman end of string in string literal");
+                    }
+                    decoded.append((char) (-child - 1));
+                    node = 0;
+                    depth = 0;
+                    ones = true;
+                } else if (child == 0) {
+                    throw new IOException("Invalid Huffman code");
+                } else {
+                    node = child;
+                    depth++;
+                    ones &= branch == 1;
+                }
+            }
+        }
+        if (depth > 7 || !ones) {
+            throw new IOException("Invalid Huffman padding");
+        }
+        return decoded.toString();
+    }
+
+    /**
+     * Get the Huffman encoded length of a string in bytes.
+     *
+     * @param value String to encode, ISO-8859-1 characters.
+     * @return Encoded length in bytes.
+     */
+    static int huffmanLength(String value) {
+        long bits = 0;
+        for (int i = 0; i < value.length(); i++) {
+            bits += HUFFMAN_LENGTHS[value.charAt(i) & 0xff];
+        }
+        return (int) ((bits + 7) / 8);
+    }
+
+    /**
+     * Write a Huffman encoded string, padded with the end of string prefix.
+     *
+     * @param value String to encode, ISO-8859-1 characters.
+     * @param out   Output buffer.
+     */
+    static void huffmanEncode(String value, ByteArrayOutputStream out) {
+        long current = 0;
+        int bits = 0;
+        for (int i = 0; i < value.length(); i++) {
+            int symbol = value.charAt(i) & 0xff;
+            current = (current << HUFFMAN_LENGTHS[symbol]) | HUFFMAN_CODES[symbol];
+            bits += HUFFMAN_LENGTHS[symbol];
+            while (bits >= 8) {
+                bits -= 8;
+                out.write((int) (current >>> bits));
+            }
+        }
+        if (bits > 0) {
+            out.write((int) ((current << (8 - bits)) | (0xff >>> bits)));
+        }
+    }
+
+    /**
+     * Write an integer with an n-bit prefix.
+     *
+     * @param value  Integer value.
+     * @param prefix Prefix length in bits.
+     * @param flags  High bits of the first byte.
+     * @param out    Output buffer.
+     */
+    static void writeInt(int value, int prefix, int flags, ByteArrayOutputStream out) {
+        int max = (1 << prefix) - 1;
+        if (value < max) {
+            out.write(flags | value);
+            return;
+        }
+        out.write(flags | max);
+        value -= max;
+        while (value >= 128) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Write a string literal, Huffman encoded when shorter.
+     *
+     * @param value String to write.
+     * @param out   Output buffer.
+     */
+    static void writeString(String value, ByteArrayOutputStream out) {
+        int huffman = huffmanLength(value);
+        if (huffman < value.length()) {
+            writeInt(huffman, 7, 0x80, out);
+            huffmanEncode(value, out);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+            writeInt(bytes.length, 7, 0, out);
+            out.write(bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Dynamic table of a decoder or an encoder.
+     * The newest entry has the index 62.
+     */
+    static class DynamicTable {
+
+        /**
+         * Entries, the newest first.
+         */
+        private final Deque<String[]> entries = new ArrayDeque<>();
+
+        /**
+         * Current size of the entries, as defined by the specification.
+         */
+        private int size;
+
+        /**
+         * Maximum size.
+         */
+        private int maxSize = DEFAULT_TABLE_SIZE;
+
+        /**
+         * Number of inserted entries since the table creation.
+         */
+        private long inserted;
+
+        /**
+         * Get the entry of an index.
+         *
+         * @param index Index, 1 to 61 for the static table.
+         * @return Entry name and value.
+         * @throws IOException Index out of the tables.
+         */
+        String[] get(int index) throws IOException {
+            if (index > 0 && index < STATIC_TABLE.length) {
+                return STATIC_TABLE[index];
+            }
+            int dynamic = index - STATIC_TABLE.length;
+            if (index <= 0 || dynamic >= this.entries.size()) {
+                throw new IOException("Invalid header index " + index);
+            }
+            int i = 0;
+            for (String[] entry : this.entries) {
+                if (i++ == dynamic) {
+                    return entry;
+                }
+            }
+            throw new IOException("Invalid header index " + index);
+        }
+
+        /**
+         * Add an entry, evicting the oldest ones to stay within the maximum size.
+         *
+         * @param name  Header name.
+         * @param value Header value.
+         * @return Evicted entries.
+         */
+        List<String[]> add(String name, String value) {
+            int entrySize = name.length() + value.length() + 32;
+            List<String[]> evicted = evict(this.maxSize - entrySize);
+            if (entrySize <= this.maxSize) {
+                this.entries.addFirst(new String[]{name, value});
+                this.size += entrySize;
+                this.inserted++;
+            }
+            return evicted;
+        }
+
+        /**
+         * Set the maximum size.
+         *
+         * @param maxSize Maximum size.
+         * @return Evicted entries.
+         */
+        List<String[]> setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            return evict(maxSize);
+        }
+
+        /**
+         * Evict the oldest entries until the size is at most the limit.
+         *
+         * @param limit Size limit.
+         * @return Evicted entries.
+         */
+        private List<String[]> evict(int limit) {
+            List<String[]> evicted = new ArrayList<>();
+            while (this.size > Math.max(limit, 0) && !this.entries.isEmpty()) {
+                String[] entry = this.entries.removeLast();
+                this.size -= entry[0].length() + entry[1].length() + 32;
+                evicted.add(entry);
+            }
+            return evicted;
+        }
+    }
+
+    /**
+     * Header block decoder of a connection.
+     */
+    public static class Decoder {
+
+        /**
+         * Decoder dynamic table.
+         */
+        private final DynamicTable table = new DynamicTable();
+
+        /**
+         * Maximum dynamic table size allowed by the local settings.
+         */
+        private final int maxTableSize;
+
+        /**
+         * Maximum decoded header list size, names and values plus 32 bytes for each header.
+         */
+        private final int maxListSize;
+
+        /**
+         * Current read position in the header block.
+         */
+        private int position;
+
+        /**
+         * Create the decoder.
+         *
+         * @param maxTableSize Maximum dynamic table size announced in the settings.
+         * @param maxListSize  Maximum header list size announced in the settings.
+         */
+        public Decoder(int maxTableSize, int maxListSize) {
+            this.maxTableSize = maxTableSize;
+            this.maxListSize = maxListSize;
+            this.table.setMaxSize(maxTableSize);
+        }
+
+        /**
+         * Decode a complete header block.
+         * A block expanding over the maximum list size is still decoded to keep the dynamic table
+         * in sync, but its headers are dropped.
+         *
+         * @param block  Header block data.
+         * @param length Header block length.
+         * @return Decoded headers, null if over the maximum list size.
+         * @throws IOException Compression error.
+         */
+        public List<String[]> decode(byte[] block, int length) throws IOException {
+            List<String[]> headers = new ArrayList<>();
+            long listSize = 0;
+            this.position = 0;
+            try {
+                while (this.position < length) {
+                    int b = block[this.position] & 0xff;
+                    String[] header = null;
+                    if ((b & 0x80) != 0) {
+                        // indexed header field
+                        header = this.table.get(readInt(block, 7));
+                    } else if ((b & 0x40) != 0) {
+                        // literal with incremental indexing
+                        header = readLiteral(block, 6);
+                        this.table.add(header[0], header[1]);
+                    } else if ((b & 0x20) != 0) {
+                        // dynamic table size update
+                        int size = readInt(block, 5);
+                        if (size > this.maxTableSize) {
+                            throw new IOException("Table size update over the limit");
+                        }
+                        this.table.setMaxSize(size);
+                    } else {
+                        // literal without indexing or never indexed
+                        header = readLiteral(block, 4);
+                    }
+                    if (header != null && listSize <= this.maxListSize) {
+                        listSize += header[0].length() + header[1].length() + 32;
+                        headers.add(header);
+                    }
+                }
+            } catch (ArrayIndexOutOfBoundsException aioobe) {
+                throw new IOException("Truncated header block");
+            }
+            if (this.position != length) {
+                throw new IOException("Truncated header block");
+            }
+            return listSize <= this.maxListSize ? headers : null;
+        }
+
+        /**
+         * Read an integer with an n-bit prefix.
+         *
+         * @param block  Header block data.
+         * @param prefix Prefix length in bits.
+         * @return Integer value.
+         * @throws IOException Integer overflow.
+         */
+        private int readInt(byte[] block, int prefix) throws IOException {
+            int max = (1 << prefix) - 1;
+            int value = block[this.position++] & max;
+            if (value < max) {
+                return value;
+            }
+            int shift = 0;
+            int b;
+            do {
+                b = block[this.position++] & 0xff;
+                value += (b & 0x7f) << shift;
+                shift += 7;
+                if (shift > 28 || value < 0) {
+                    throw new IOException("Header integer overflow");
+                }
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        /**
+         * Read a string literal.
+         *
+         * @param block Header block data.
+         * @return Decoded string.
+         * @throws IOException Invalid string.
+         */
+        private String readString(byte[] block) throws IOException {
+            boolean huffman = (block[this.position] & 0x80) != 0;
+            int length = readInt(block, 7);
+            if (length > block.length - this.position) {
+                throw new IOException("Truncated header string");
+            }
+            String value = huffman
+                    ? huffmanDecode(block, this.position, length)
+                    : new String(block, this.position, length, StandardCharsets.ISO_8859_1);
+            this.position += length;
+            return value;
+        }
+
+        /**
+         * Read a literal header, with indexed or literal name.
+         *
+         * @param block  Header block data.
+         * @param prefix Name index prefix length in bits.
+         * @return Header name and value.
+         * @throws IOException Invalid literal.
+         */
+        private String[] readLiteral(byte[] block, int prefix) throws IOException {
+            int index = readInt(block, prefix);
+            String name = index == 0 ? readString(block) : this.table.get(index)[0];
+            return new String[]{name, readString(block)};
+        }
+    }
+
+    /**
+     * Header block encoder of a connection.
+     */
+    public static class Encoder {
+
+        /**
+         * Encoder dynamic table.
+         */
+        private final DynamicTable table = new DynamicTable();
+
+        /**
+         * Insertion number of the dynamic table headers with value.
+         */
+        private final Map<String, Long> headers = new HashMap<>();
+
+        /**
+         * Insertion number of the dynamic table header names.
+         */
+        private final Map<String, Long> names = new HashMap<>();
+
+        /**
+         * Pending table size update, -1 if none.
+         */
+        private int sizeUpdate = -1;
+
+        /**
+         * Set the maximum dynamic table size, announced by the peer settings.
+         *
+         * @param size Maximum table size, at most the default.
+         */
+        public void setMaxTableSize(int size) {
+            size = Math.min(size, DEFAULT_TABLE_SIZE);
+            if (size != this.table.maxSize) {
+                forget(this.table.setMaxSize(size));
+                this.sizeUpdate = size;
+            }
+        }
+
+        /**
+         * Encode a header block.
+         *
+         * @param headerList Headers to encode.
+         * @return Header block.
+         */
+        public byte[] encode(List<String[]> headerList) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+            if (this.sizeUpdate >= 0) {
+                writeInt(this.sizeUpdate, 5, 0x20, out);
+                this.sizeUpdate = -1;
+            }
+
+            for (String[] header : headerList) {
+                String name = header[0];
+                String value = header[1];
+                String key = name + '\0' + value;
+
+                Integer index = STATIC_HEADERS.get(key);
+                if (index == null) {
+                    index = dynamicIndex(this.headers.get(key));
+                }
+                if (index != null) {
+                    writeInt(index, 7, 0x80, out);
+                    continue;
+                }
+
+                Integer nameIndex = STATIC_NAMES.get(name);
+                if (nameIndex == null) {
+                    nameIndex = dynamicIndex(this.names.get(name));
+                }
+                boolean indexing = !NOT_INDEXED.contains(name);
+                if (indexing) {
+                    writeInt(nameIndex == null ? 0 : nameIndex, 6, 0x40, out);
+                } else {
+                    writeInt(nameIndex == null ? 0 : nameIndex, 4, 0, out);
+                }
+                if (nameIndex == null) {
+                    writeString(name, out);
+                }
+                writeString(value, out);
+
+                if (indexing) {
+                    long inserted = this.table.inserted;
+                    forget(this.table.add(name, value));
+                    if (this.table.inserted != inserted) {
+                        this.headers.put(key, this.table.inserted);
+                        this.names.put(name, this.table.inserted);
+                    }
+                }
+            }
+            return out.toByteArray();
+        }
+
+        /**
+         * Get the current index of a dynamic table entry.
+         *
+         * @param insertion Insertion number of the entry, null if never inserted.
+         * @return Current index, null if not in the table.
+         */
+        private Integer dynamicIndex(Long insertion) {
+            if (insertion == null) {
+                return null;
+            }
+            long age = this.table.inserted - insertion;
+            return age < this.table.entries.size() ? (int) (STATIC_TABLE.length + age) : null;
+        }
+
+        /**
+         * Forget the evicted entries.
+         *
+         * @param evicted Evicted entries.
+         */
+        private void forget(List<String[]> evicted) {
+            for (String[] entry : evicted) {
+                String key = entry[0] + '\0' + entry[1];
+                Long insertion = this.headers.get(key);
+                if (dynamicIndex(insertion) == null) {
+                    this.headers.remove(key);
+                }
+                if (dynamicIndex(this.names.get(entry[0])) == null) {
+                    this.names.remove(entry[0]);
+                }
+            }
+        }
+    }
+}
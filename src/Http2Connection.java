@@ -0,0 +1,1198 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Http/2 connection (RFC 7540).
+ * The session thread reads the frames, every complete request runs on a worker thread through the
+ * session request handling, and a writer thread sends the responses. The writer interleaves the
+ * DATA frames of the streams by weight, with stride scheduling, respecting the stream
+ * dependencies and the connection and stream flow control windows.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-15)
+ */
+public class Http2Connection {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * True to accept http/2 connections, with prior knowledge, upgrade or ALPN.
+     */
+    public static final boolean ENABLED = Boolean.parseBoolean(
+            System.getProperty("openweb.http2", "true"));
+
+    /**
+     * Maximum concurrent streams of a connection.
+     */
+    public static final int MAX_CONCURRENT_STREAMS = Integer.getInteger("openweb.http2.streams", 100);
+
+    /**
+     * Maximum size of a request header block, HEADERS and CONTINUATION frames together.
+     */
+    public static final int MAX_HEADER_BLOCK = Integer.getInteger("openweb.http2.headers", 65_536);
+
+    /**
+     * Maximum size of a decoded request header list, names and values plus 32 bytes a header.
+     */
+    public static final int MAX_HEADER_LIST = Integer.getInteger("openweb.http2.headerlist",
+            65_536);
+
+    /**
+     * Worker threads running the stream requests of all the connections.
+     */
+    public static final int WORKER_THREADS = Integer.getInteger("openweb.http2.workers",
+            Runtime.getRuntime().availableProcessors() * 8);
+
+    /**
+     * Stream requests waiting for a worker, of all the connections; over it the streams are
+     * refused.
+     */
+    public static final int WORKER_QUEUE = Integer.getInteger("openweb.http2.queue",
+            WORKER_THREADS * 4);
+
+    /**
+     * Client connection preface.
+     */
+    public static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n"
+            .getBytes(StandardCharsets.ISO_8859_1);
+
+    /**
+     * Length of the preface part parsed as http/1 request head: "PRI * HTTP/2.0\r\n\r\n".
+     */
+    public static final int PREFACE_HEAD_LENGTH = 18;
+
+    /**
+     * DATA frame type.
+     */
+    private static final int DATA = 0x0;
+
+    /**
+     * HEADERS frame type.
+     */
+    private static final int HEADERS = 0x1;
+
+    /**
+     * PRIORITY frame type.
+     */
+    private static final int PRIORITY = 0x2;
+
+    /**
+     * RST_STREAM frame type.
+     */
+    private static final int RST_STREAM = 0x3;
+
+    /**
+     * SETTINGS frame type.
+     */
+    private static final int SETTINGS = 0x4;
+
+    /**
+     * PUSH_PROMISE frame type.
+     */
+    private static final int PUSH_PROMISE = 0x5;
+
+    /**
+     * PING frame type.
+     */
+    private static final int PING = 0x6;
+
+    /**
+     * GOAWAY frame type.
+     */
+    private static final int GOAWAY = 0x7;
+
+    /**
+     * WINDOW_UPDATE frame type.
+     */
+    private static final int WINDOW_UPDATE = 0x8;
+
+    /**
+     * CONTINUATION frame type.
+     */
+    private static final int CONTINUATION = 0x9;
+
+    /**
+     * END_STREAM flag, ACK flag for SETTINGS and PING.
+     */
+    private static final int END_STREAM = 0x1;
+
+    /**
+     * END_HEADERS flag.
+     */
+    private static final int END_HEADERS = 0x4;
+
+    /**
+     * PADDED flag.
+     */
+    private static final int PADDED = 0x8;
+
+    /**
+     * PRIORITY flag.
+     */
+    private static final int PRIORITY_FLAG = 0x20;
+
+    /**
+     * No error code.
+     */
+    private static final int NO_ERROR = 0x0;
+
+    /**
+     * Protocol error code.
+     */
+    private static final int PROTOCOL_ERROR = 0x1;
+
+    /**
+     * Flow control error code.
+     */
+    private static final int FLOW_CONTROL_ERROR = 0x3;
+
+    /**
+     * Frame size error code.
+     */
+    private static final int FRAME_SIZE_ERROR = 0x6;
+
+    /**
+     * Refused stream error code.
+     */
+    private static final int REFUSED_STREAM = 0x7;
+
+    /**
+     * Compression error code.
+     */
+    private static final int COMPRESSION_ERROR = 0x9;
+
+    /**
+     * Enhance your calm error code, the client is sending too much.
+     */
+    private static final int ENHANCE_YOUR_CALM = 0xb;
+
+    /**
+     * Default flow control window.
+     */
+    private static final int DEFAULT_WINDOW = 65_535;
+
+    /**
+     * Maximum frame size accepted from the client, the default one.
+     */
+    private static final int MAX_FRAME_SIZE = 16_384;
+
+    /**
+     * Default stream weight.
+     */
+    private static final int DEFAULT_WEIGHT = 16;
+
+    /**
+     * Bytes sent in a single write batch by the writer.
+     */
+    private static final int WRITE_BATCH = 64 * 1024;
+
+    /**
+     * Headers never sent in http/2 responses, they are connection specific.
+     */
+    private static final List<String> CONNECTION_HEADERS = List.of(
+            "connection", "keep-alive", "transfer-encoding", "upgrade");
+
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Worker threads running the stream requests, with a bounded queue shared by the connections.
+     */
+    private static final ExecutorService WORKERS = new ThreadPoolExecutor(WORKER_THREADS,
+            WORKER_THREADS, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(WORKER_QUEUE),
+            task -> {
+                Thread thread = new Thread(task, "http2-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * Number of http/2 connections.
+     */
+    private static final LongAdder CONNECTIONS = new LongAdder();
+
+    /**
+     * Number of http/2 streams.
+     */
+    private static final LongAdder STREAMS = new LongAdder();
+
+    /**
+     * Streams refused because the workers queue is full.
+     */
+    private static final LongAdder REFUSED = new LongAdder();
+
+    static {
+        StatsReporter.register("http2", () -> "connections=" + CONNECTIONS.sum()
+                + " streams=" + STREAMS.sum() + " refused=" + REFUSED.sum());
+    }
+
+    /**
+     * Http session of the connection.
+     */
+    private final HttpSession session;
+
+    /**
+     * Client input.
+     */
+    private final DataInputStream in;
+
+    /**
+     * Client output.
+     */
+    private final OutputStream out;
+
+    /**
+     * Header block decoder, used by the reader.
+     */
+    private final Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE,
+            MAX_HEADER_LIST);
+
+    /**
+     * Header block encoder, used by the writer.
+     */
+    private final Hpack.Encoder encoder = new Hpack.Encoder();
+
+    /**
+     * Open streams by id.
+     */
+    private final Map<Integer, Stream> streams = new ConcurrentHashMap<>();
+
+    /**
+     * Streams reset by the client while their request is queued or running, guarded by this.
+     * They count as open until the worker is done, so resets don't bypass the streams limit.
+     */
+    private int resetRunning;
+
+    /**
+     * Control frames waiting to be sent, guarded by this.
+     */
+    private final Deque<byte[]> control = new ArrayDeque<>();
+
+    /**
+     * Connection send window, guarded by this.
+     */
+    private long sendWindow = DEFAULT_WINDOW;
+
+    /**
+     * Initial stream send window from the client settings, guarded by this.
+     */
+    private int initialWindow = DEFAULT_WINDOW;
+
+    /**
+     * Maximum frame size from the client settings, guarded by this.
+     */
+    private int maxFrameSize = MAX_FRAME_SIZE;
+
+    /**
+     * Highest stream id opened by the client.
+     */
+    private int lastStreamId;
+
+    /**
+     * True when the connection is closing: no more streams, send the pending responses.
+     */
+    private boolean closing;
+
+    /**
+     * True when the connection is closed: stop writing.
+     */
+    private boolean closed;
+
+    // --------------------------------------------------------------------------- Getters & Setters
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * Create the http/2 connection.
+     *
+     * @param session Http session of the connection.
+     * @param in      Client input.
+     * @param out     Client output.
+     */
+    public Http2Connection(HttpSession session, InputStream in, OutputStream out) {
+        this.session = session;
+        this.in = new DataInputStream(in);
+        this.out = out;
+        CONNECTIONS.increment();
+    }
+
+    // -------------------------------------------------------------------------------- Help Methods
+
+    /**
+     * Build a frame.
+     *
+     * @param type     Frame type.
+     * @param flags    Frame flags.
+     * @param streamId Stream id.
+     * @param payload  Frame payload.
+     * @param offset   Payload offset.
+     * @param length   Payload length.
+     * @return Frame bytes.
+     */
+    private static byte[] frame(int type, int flags, int streamId, byte[] payload, int offset,
+                                int length) {
+        return frame(type, flags, streamId, ByteBuffer.wrap(payload), offset, length);
+    }
+
+    /**
+     * Build a frame with a payload read from a buffer, like a response body.
+     *
+     * @param type     Frame type.
+     * @param flags    Frame flags.
+     * @param streamId Stream id.
+     * @param payload  Payload buffer.
+     * @param offset   Payload offset in the buffer.
+     * @param length   Payload length.
+     * @return Frame bytes.
+     */
+    private static byte[] frame(int type, int flags, int streamId, ByteBuffer payload, int offset,
+                                int length) {
+        byte[] frame = new byte[9 + length];
+        frame[0] = (byte) (length >>> 16);
+        frame[1] = (byte) (length >>> 8);
+        frame[2] = (byte) length;
+        frame[3] = (byte) type;
+        frame[4] = (byte) flags;
+        frame[5] = (byte) (streamId >>> 24);
+        frame[6] = (byte) (streamId >>> 16);
+        frame[7] = (byte) (streamId >>> 8);
+        frame[8] = (byte) streamId;
+        payload.get(offset, frame, 9, length);
+        return frame;
+    }
+
+    /**
+     * Build a frame with a payload of 32 bit integers.
+     *
+     * @param type     Frame type.
+     * @param streamId Stream id.
+     * @param values   Payload integers.
+     * @return Frame bytes.
+     */
+    private static byte[] intFrame(int type, int streamId, int... values) {
+        byte[] payload = new byte[values.length * 4];
+        for (int i = 0; i < values.length; i++) {
+            payload[i * 4] = (byte) (values[i] >>> 24);
+            payload[i * 4 + 1] = (byte) (values[i] >>> 16);
+            payload[i * 4 + 2] = (byte) (values[i] >>> 8);
+            payload[i * 4 + 3] = (byte) values[i];
+        }
+        return frame(type, 0, streamId, payload, 0, payload.length);
+    }
+
+    /**
+     * Read a 32 bit integer from a payload.
+     *
+     * @param payload Frame payload.
+     * @param offset  Integer offset.
+     * @return Integer value.
+     */
+    private static int readInt(byte[] payload, int offset) {
+        return ((payload[offset] & 0xff) << 24) | ((payload[offset + 1] & 0xff) << 16)
+                | ((payload[offset + 2] & 0xff) << 8) | (payload[offset + 3] & 0xff);
+    }
+
+    /**
+     * Queue a control frame and wake up the writer.
+     *
+     * @param frame Control frame.
+     */
+    private synchronized void sendControl(byte[] frame) {
+        this.control.add(frame);
+        notifyAll();
+    }
+
+    /**
+     * Queue the server settings: maximum concurrent streams and maximum header list size.
+     */
+    private void sendSettings() {
+        byte[] payload = {0, 3, (byte) (MAX_CONCURRENT_STREAMS >>> 24),
+                (byte) (MAX_CONCURRENT_STREAMS >>> 16), (byte) (MAX_CONCURRENT_STREAMS >>> 8),
+                (byte) MAX_CONCURRENT_STREAMS, 0, 6, (byte) (MAX_HEADER_LIST >>> 24),
+                (byte) (MAX_HEADER_LIST >>> 16), (byte) (MAX_HEADER_LIST >>> 8),
+                (byte) MAX_HEADER_LIST};
+        sendControl(frame(SETTINGS, 0, 0, payload, 0, payload.length));
+    }
+
+    /**
+     * Apply the client settings.
+     *
+     * @param payload Settings payload.
+     * @param length  Settings payload length.
+     * @throws Http2Exception Invalid setting.
+     */
+    private synchronized void applySettings(byte[] payload, int length) throws Http2Exception {
+        if (length % 6 != 0) {
+            throw new Http2Exception(FRAME_SIZE_ERROR, "Invalid settings length");
+        }
+        for (int i = 0; i < length; i += 6) {
+            int id = ((payload[i] & 0xff) << 8) | (payload[i + 1] & 0xff);
+            int value = readInt(payload, i + 2);
+            if (id == 1) {
+                this.encoder.setMaxTableSize(value);
+            } else if (id == 4) {
+                if (value < 0) {
+                    throw new Http2Exception(FLOW_CONTROL_ERROR, "Initial window too large");
+                }
+                int delta = value - this.initialWindow;
+                for (Stream stream : this.streams.values()) {
+                    if (stream.sendWindow + delta > Integer.MAX_VALUE) {
+                        throw new Http2Exception(FLOW_CONTROL_ERROR, "Stream window too large");
+                    }
+                }
+                for (Stream stream : this.streams.values()) {
+                    stream.sendWindow += delta;
+                }
+                this.initialWindow = value;
+            } else if (id == 5) {
+                if (value < MAX_FRAME_SIZE || value > 16_777_215) {
+                    throw new Http2Exception(PROTOCOL_ERROR, "Invalid max frame size");
+                }
+                this.maxFrameSize = value;
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Open a stream for a complete request head.
+     *
+     * @param streamId Stream id.
+     * @param block    Header block.
+     * @param length   Header block length.
+     * @param weight   Stream weight.
+     * @param parent   Parent stream id.
+     * @return Opened stream, null if refused.
+     * @throws Http2Exception Compression or protocol error.
+     */
+    private Stream openStream(int streamId, byte[] block, int length, int weight, int parent)
+            throws Http2Exception {
+        List<String[]> headers;
+        try {
+            headers = this.decoder.decode(block, length);
+        } catch (IOException ioe) {
+            throw new Http2Exception(COMPRESSION_ERROR, ioe.getMessage());
+        }
+        if (headers == null) {
+            // over the header list size
+            sendControl(intFrame(RST_STREAM, streamId, ENHANCE_YOUR_CALM));
+            return null;
+        }
+
+        synchronized (this) {
+            if (this.streams.size() + this.resetRunning >= MAX_CONCURRENT_STREAMS
+                    || this.closing) {
+                sendControl(intFrame(RST_STREAM, streamId, REFUSED_STREAM));
+                return null;
+            }
+        }
+
+        String method = null;
+        String path = null;
+        for (String[] header : headers) {
+            if (header[0].equals(":method")) {
+                method = header[1];
+            } else if (header[0].equals(":path")) {
+                path = header[1];
+            }
+        }
+        HttpRequest request = null;
+        if (method != null && path != null && path.startsWith("/")) {
+            try {
+                request = new HttpRequest(method, path, headers);
+            } catch (IllegalArgumentException iae) {
+                // method not a token or path with spaces
+            }
+        }
+        if (request == null) {
+            sendControl(intFrame(RST_STREAM, streamId, PROTOCOL_ERROR));
+            return null;
+        }
+
+        Stream stream = new Stream(streamId, request, weight, parent);
+        synchronized (this) {
+            stream.sendWindow = this.initialWindow;
+            this.streams.put(streamId, stream);
+        }
+        STREAMS.increment();
+        return stream;
+    }
+
+    /**
+     * Run the request of a stream on a worker and queue its response.
+     * The stream is refused when the workers queue is full.
+     *
+     * @param stream Stream with the complete request.
+     */
+    private void dispatch(Stream stream) {
+        try {
+            WORKERS.execute(() -> run(stream));
+        } catch (RejectedExecutionException ree) {
+            REFUSED.increment();
+            synchronized (this) {
+                this.streams.remove(stream.id);
+            }
+            sendControl(intFrame(RST_STREAM, stream.id, REFUSED_STREAM));
+        }
+    }
+
+    /**
+     * Run the request of a stream, on a worker, and queue its response.
+     * A stream reset meanwhile is only uncounted.
+     *
+     * @param stream Dispatched stream.
+     */
+    private void run(Stream stream) {
+        HttpResponse response = null;
+        RequestEvent trace = null;
+        if (!isReset(stream)) {
+            trace = RequestEvent.start();
+            trace.parsed(stream.request);
+            try {
+                response = this.session.handle(stream.request);
+            } catch (IOException | RuntimeException e) {
+                response = this.session.errorResponse(HttpStatus.INTERNAL_SERVER_ERROR);
+            }
+            trace.handled(response);
+        }
+        synchronized (this) {
+            if (stream.reset) {
+                this.resetRunning--;
+                return;
+            }
+            stream.trace = trace;
+            stream.response = response;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Check if the client reset a stream.
+     *
+     * @param stream Http/2 stream.
+     * @return True if the stream was reset.
+     */
+    private synchronized boolean isReset(Stream stream) {
+        return stream.reset;
+    }
+
+    /**
+     * Get the response headers of a stream.
+     *
+     * @param response Http response.
+     * @return Response headers, with lower case names.
+     */
+    private static List<String[]> responseHeaders(HttpResponse response) {
+        List<String[]> headers = new ArrayList<>();
+        headers.add(new String[]{":status", String.valueOf(response.getStatus().getCode())});
+        headers.add(new String[]{"content-type", response.getContentType()});
+        headers.add(new String[]{"content-length", String.valueOf(response.getContentLength())});
+        headers.add(new String[]{"server", HttpResponse.SERVER});
+        for (String[] header : response.getHeaders()) {
+            String name = header[0].toLowerCase();
+            if (!CONNECTION_HEADERS.contains(name)) {
+                headers.add(new String[]{name, header[1]});
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * Pick the next stream to write.
+     * The ready stream with the lowest pass wins; a stream waits for its parent to be sent,
+     * unless the parent is blocked by flow control.
+     *
+     * @return Stream to write, null if none is ready.
+     */
+    private Stream nextStream() {
+        Stream next = null;
+        for (Stream stream : this.streams.values()) {
+            if (!stream.isReady(this.sendWindow)) {
+                continue;
+            }
+            Stream parent = this.streams.get(stream.parent);
+            if (parent != null && parent.isReady(this.sendWindow)) {
+                continue;
+            }
+            if (next == null || stream.pass < next.pass) {
+                next = stream;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Append the next frames of a stream to the write batch.
+     *
+     * @param stream Stream to write.
+     * @param batch  Write batch.
+     */
+    private void writeStream(Stream stream, ByteArrayOutputStream batch) {
+        ByteBuffer body = stream.response.getBody();
+        int bodyLength = stream.getBodyLength();
+        if (!stream.headersSent) {
+            byte[] block = this.encoder.encode(responseHeaders(stream.response));
+            int flags = bodyLength == 0 ? END_STREAM : 0;
+            int offset = 0;
+            int type = HEADERS;
+            do {
+                int length = Math.min(block.length - offset, this.maxFrameSize);
+                int last = offset + length == block.length ? END_HEADERS : 0;
+                batch.writeBytes(frame(type, (type == HEADERS ? flags : 0) | last, stream.id,
+                        block, offset, length));
+                offset += length;
+                type = CONTINUATION;
+            } while (offset < block.length);
+            stream.headersSent = true;
+        } else {
+            int length = (int) Math.min(Math.min(bodyLength - stream.sent, this.maxFrameSize),
+                    Math.min(stream.sendWindow, this.sendWindow));
+            boolean end = stream.sent + length == bodyLength;
+            batch.writeBytes(frame(DATA, end ? END_STREAM : 0, stream.id, body,
+                    body.position() + stream.sent, length));
+            stream.sent += length;
+            stream.sendWindow -= length;
+            this.sendWindow -= length;
+            stream.pass += (long) length * 256 / stream.weight;
+        }
+
+        if (stream.headersSent && stream.sent == bodyLength) {
+            this.streams.remove(stream.id);
+            stream.trace.written();
+        }
+    }
+
+    /**
+     * Write the control frames and the stream frames until the connection is closed.
+     */
+    private void writeLoop() {
+        ByteArrayOutputStream batch = new ByteArrayOutputStream(WRITE_BATCH + MAX_FRAME_SIZE);
+        try {
+            while (true) {
+                synchronized (this) {
+                    Stream stream;
+                    while (this.control.isEmpty() && (stream = nextStream()) == null) {
+                        if (this.closed || (this.closing && this.streams.isEmpty())) {
+                            return;
+                        }
+                        wait();
+                    }
+                    while (!this.control.isEmpty()) {
+                        batch.writeBytes(this.control.poll());
+                    }
+                    while (batch.size() < WRITE_BATCH && (stream = nextStream()) != null) {
+                        writeStream(stream, batch);
+                    }
+                }
+
+                batch.writeTo(this.out);
+                this.out.flush();
+                batch.reset();
+            }
+        } catch (IOException | InterruptedException ignored) {
+
+        } finally {
+            synchronized (this) {
+                this.closed = true;
+                notifyAll();
+            }
+            // the writer thread ends with the connection
+            BufferPool.getPool().flushThreadCache();
+        }
+    }
+
+    /**
+     * Read a frame payload, removing the padding.
+     *
+     * @param flags   Frame flags.
+     * @param payload Frame payload.
+     * @param length  Frame payload length.
+     * @return Data start and end in the payload.
+     * @throws Http2Exception Invalid padding.
+     */
+    private static int[] unpad(int flags, byte[] payload, int length) throws Http2Exception {
+        int start = 0;
+        int end = length;
+        if ((flags & PADDED) != 0) {
+            if (length < 1) {
+                throw new Http2Exception(PROTOCOL_ERROR, "Invalid padding");
+            }
+            start = 1;
+            end = length - (payload[0] & 0xff);
+        }
+        if (end < start) {
+            throw new Http2Exception(PROTOCOL_ERROR, "Invalid padding");
+        }
+        return new int[]{start, end};
+    }
+
+    /**
+     * Read and handle the frames until the client closes the connection.
+     *
+     * @throws IOException    Error while reading from the client.
+     * @throws Http2Exception Connection error.
+     */
+    private void readLoop() throws IOException, Http2Exception {
+        byte[] payload = new byte[MAX_FRAME_SIZE];
+        ByteArrayOutputStream headerBlock = new ByteArrayOutputStream();
+        int headersStream = 0;
+        int headersFlags = 0;
+        int[] headersPriority = null;
+
+        while (true) {
+            boolean idle = this.streams.isEmpty();
+            if (idle) {
+                this.session.arm(TimeoutKind.IDLE);
+            }
+            int length;
+            try {
+                length = this.in.readUnsignedShort() << 8 | this.in.readUnsignedByte();
+            } catch (EOFException eofe) {
+                return;
+            }
+            if (idle && !this.session.disarm()) {
+                return;
+            }
+            int type = this.in.readUnsignedByte();
+            int flags = this.in.readUnsignedByte();
+            int streamId = this.in.readInt() & 0x7fffffff;
+            if (length > MAX_FRAME_SIZE) {
+                throw new Http2Exception(FRAME_SIZE_ERROR, "Frame too large");
+            }
+            this.in.readFully(payload, 0, length);
+
+            if (headersStream != 0 && (type != CONTINUATION || streamId != headersStream)) {
+                throw new Http2Exception(PROTOCOL_ERROR, "Expected CONTINUATION");
+            }
+
+            switch (type) {
+                case HEADERS: {
+                    if (streamId == 0 || streamId % 2 == 0) {
+                        throw new Http2Exception(PROTOCOL_ERROR, "Invalid stream id");
+                    }
+                    int[] data = unpad(flags, payload, length);
+                    headersPriority = null;
+                    if ((flags & PRIORITY_FLAG) != 0) {
+                        if (data[1] - data[0] < 5) {
+                            throw new Http2Exception(FRAME_SIZE_ERROR, "Invalid HEADERS length");
+                        }
+                        headersPriority = new int[]{readInt(payload, data[0]) & 0x7fffffff,
+                                (payload[data[0] + 4] & 0xff) + 1};
+                        data[0] += 5;
+                    }
+                    headerBlock.reset();
+                    headerBlock.write(payload, data[0], Math.max(data[1] - data[0], 0));
+                    headersStream = streamId;
+                    headersFlags = flags;
+                    break;
+                }
+                case CONTINUATION:
+                    if (headersStream == 0) {
+                        throw new Http2Exception(PROTOCOL_ERROR, "Unexpected CONTINUATION");
+                    }
+                    if (headerBlock.size() + length > MAX_HEADER_BLOCK) {
+                        throw new Http2Exception(ENHANCE_YOUR_CALM, "Header block too large");
+                    }
+                    headerBlock.write(payload, 0, length);
+                    headersFlags |= flags & END_HEADERS;
+                    break;
+                case DATA: {
+                    if (streamId == 0 || streamId > this.lastStreamId) {
+                        throw new Http2Exception(PROTOCOL_ERROR, "DATA on an idle stream");
+                    }
+                    unpad(flags, payload, length);
+                    Stream stream = this.streams.get(streamId);
+                    if (length > 0) {
+                        // the body is discarded: give back the window at once
+                        sendControl(intFrame(WINDOW_UPDATE, 0, length));
+                        if (stream != null && (flags & END_STREAM) == 0) {
+                            sendControl(intFrame(WINDOW_UPDATE, streamId, length));
+                        }
+                    }
+                    if (stream != null && !stream.dispatched && (flags & END_STREAM) != 0) {
+                        stream.dispatched = true;
+                        dispatch(stream);
+                    }
+                    break;
+                }
+                case PRIORITY: {
+                    if (length != 5) {
+                        throw new Http2Exception(FRAME_SIZE_ERROR, "Invalid PRIORITY length");
+                    }
+                    Stream stream = this.streams.get(streamId);
+                    if (stream != null) {
+                        synchronized (this) {
+                            stream.parent = readInt(payload, 0) & 0x7fffffff;
+                            stream.weight = (payload[4] & 0xff) + 1;
+                        }
+                    }
+                    break;
+                }
+                case RST_STREAM:
+                    synchronized (this) {
+                        Stream stream = this.streams.remove(streamId);
+                        if (stream != null && stream.dispatched && stream.response == null) {
+                            // counted until its worker is done
+                            stream.reset = true;
+                            this.resetRunning++;
+                        }
+                    }
+                    break;
+                case SETTINGS:
+                    if (streamId != 0) {
+                        throw new Http2Exception(PROTOCOL_ERROR, "SETTINGS on a stream");
+                    }
+                    if ((flags & END_STREAM) != 0 && length != 0) {
+                        throw new Http2Exception(FRAME_SIZE_ERROR, "SETTINGS ack with payload");
+                    }
+                    if ((flags & END_STREAM) == 0) {
+                        applySettings(payload, length);
+                        sendControl(frame(SETTINGS, END_STREAM, 0, payload, 0, 0));
+                    }
+                    break;
+                case PING:
+                    if (streamId != 0) {
+                        throw new Http2Exception(PROTOCOL_ERROR, "PING on a stream");
+                    }
+                    if (length != 8) {
+                        throw new Http2Exception(FRAME_SIZE_ERROR, "Invalid PING length");
+                    }
+                    if ((flags & END_STREAM) == 0) {
+                        sendControl(frame(PING, END_STREAM, 0, payload, 0, length));
+                    }
+                    break;
+                case GOAWAY:
+                    return;
+                case WINDOW_UPDATE: {
+                    if (length != 4) {
+                        throw new Http2Exception(FRAME_SIZE_ERROR, "Invalid WINDOW_UPDATE length");
+                    }
+                    int increment = readInt(payload, 0) & 0x7fffffff;
+                    if (increment == 0) {
+                        // a stream error too, handled as connection error
+                        throw new Http2Exception(PROTOCOL_ERROR, "Window increment 0");
+                    }
+                    synchronized (this) {
+                        if (streamId == 0) {
+                            if (this.sendWindow + increment > Integer.MAX_VALUE) {
+                                throw new Http2Exception(FLOW_CONTROL_ERROR, "Window too large");
+                            }
+                            this.sendWindow += increment;
+                        } else {
+                            Stream stream = this.streams.get(streamId);
+                            if (stream != null) {
+                                if (stream.sendWindow + increment > Integer.MAX_VALUE) {
+                                    throw new Http2Exception(FLOW_CONTROL_ERROR,
+                                            "Stream window too large");
+                                }
+                                stream.sendWindow += increment;
+                            }
+                        }
+                        notifyAll();
+                    }
+                    break;
+                }
+                case PUSH_PROMISE:
+                    throw new Http2Exception(PROTOCOL_ERROR, "Client PUSH_PROMISE");
+                default:
+                    // unknown frame types are ignored
+                    break;
+            }
+
+            if (headersStream != 0 && (headersFlags & END_HEADERS) != 0) {
+                byte[] block = headerBlock.toByteArray();
+                if (headersStream <= this.lastStreamId) {
+                    // trailers of an open stream: decode to keep the table in sync
+                    try {
+                        this.decoder.decode(block, block.length);
+                    } catch (IOException ioe) {
+                        throw new Http2Exception(COMPRESSION_ERROR, ioe.getMessage());
+                    }
+                } else {
+                    this.lastStreamId = headersStream;
+                    int weight = headersPriority != null ? headersPriority[1] : DEFAULT_WEIGHT;
+                    int parent = headersPriority != null ? headersPriority[0] : 0;
+                    Stream stream = openStream(headersStream, block, block.length, weight, parent);
+                    if (stream != null && (headersFlags & END_STREAM) != 0) {
+                        stream.dispatched = true;
+                        dispatch(stream);
+                    }
+                }
+                headersStream = 0;
+            }
+        }
+    }
+
+    // ----------------------------------------------------------------------------- General Methods
+
+    /**
+     * Serve a connection started with the preface.
+     *
+     * @param prefaceRead Bytes of the preface already read.
+     * @throws IOException Error while reading the preface.
+     */
+    public void serve(int prefaceRead) throws IOException {
+        serve(prefaceRead, null);
+    }
+
+    /**
+     * Serve a connection upgraded from http/1.1, the upgrade request is the stream 1.
+     * The 101 response is already sent.
+     *
+     * @param request  Upgrade request.
+     * @param settings Base64url client settings of the HTTP2-Settings header.
+     * @throws IOException Error while reading the preface.
+     */
+    public void serveUpgrade(HttpRequest request, String settings) throws IOException {
+        try {
+            byte[] payload = Base64.getUrlDecoder().decode(settings.trim());
+            applySettings(payload, payload.length);
+        } catch (IllegalArgumentException | Http2Exception e) {
+            return;
+        }
+        Stream stream = new Stream(1, request, DEFAULT_WEIGHT, 0);
+        stream.sendWindow = this.initialWindow;
+        this.streams.put(1, stream);
+        this.lastStreamId = 1;
+        STREAMS.increment();
+        serve(0, stream);
+    }
+
+    /**
+     * Read the rest of the preface and serve the connection.
+     *
+     * @param prefaceRead Bytes of the preface already read.
+     * @param upgrade     Upgrade stream to dispatch, null if none.
+     * @throws IOException Error while reading the preface.
+     */
+    private void serve(int prefaceRead, Stream upgrade) throws IOException {
+        Thread writer = new Thread(this::writeLoop, "http2-writer");
+        writer.setDaemon(true);
+        sendSettings();
+        writer.start();
+        if (upgrade != null) {
+            upgrade.dispatched = true;
+            dispatch(upgrade);
+        }
+
+        try {
+            byte[] preface = new byte[PREFACE.length - prefaceRead];
+            this.in.readFully(preface);
+            for (int i = 0; i < preface.length; i++) {
+                if (preface[i] != PREFACE[prefaceRead + i]) {
+                    throw new Http2Exception(PROTOCOL_ERROR, "Invalid preface");
+                }
+            }
+
+            readLoop();
+            synchronized (this) {
+                this.closing = true;
+                notifyAll();
+            }
+        } catch (Http2Exception h2e) {
+            sendControl(intFrame(GOAWAY, 0, this.lastStreamId, h2e.getErrorCode()));
+            synchronized (this) {
+                this.closing = true;
+                this.streams.clear();
+                notifyAll();
+            }
+        } catch (IOException ioe) {
+            synchronized (this) {
+                this.closed = true;
+                notifyAll();
+            }
+        }
+
+        try {
+            writer.join();
+        } catch (InterruptedException ignored) {
+
+        }
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Http/2 connection error, closes the connection with a GOAWAY frame.
+     */
+    public static class Http2Exception extends Exception {
+
+        /**
+         * Serialization version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Http/2 error code.
+         */
+        private final int errorCode;
+
+        /**
+         * Create the connection error.
+         *
+         * @param errorCode Http/2 error code.
+         * @param message   Error message.
+         */
+        public Http2Exception(int errorCode, String message) {
+            super(message);
+            this.errorCode = errorCode;
+        }
+
+        /**
+         * Get the http/2 error code.
+         *
+         * @return Http/2 error code.
+         */
+        public int getErrorCode() {
+            return this.errorCode;
+        }
+    }
+
+    /**
+     * Http/2 stream, from the request head to the end of the response.
+     */
+    private static class Stream {
+
+        /**
+         * Stream id.
+         */
+        private final int id;
+
+        /**
+         * Stream request.
+         */
+        private final HttpRequest request;
+
+        /**
+         * Stream weight, 1 to 256.
+         */
+        private int weight;
+
+        /**
+         * Parent stream id, 0 for the root.
+         */
+        private int parent;
+
+        /**
+         * True when the request is running.
+         */
+        private boolean dispatched;
+
+        /**
+         * True when the client reset the stream before its response, guarded by the connection.
+         */
+        private boolean reset;
+
+        /**
+         * Stream response, null until the request is handled.
+         */
+        private HttpResponse response;
+
+        /**
+         * Flight recorder event of the stream request, set with the response.
+         */
+        private RequestEvent trace;
+
+        /**
+         * True when the response headers are sent.
+         */
+        private boolean headersSent;
+
+        /**
+         * Body bytes sent.
+         */
+        private int sent;
+
+        /**
+         * Stream send window.
+         */
+        private long sendWindow;
+
+        /**
+         * Stride scheduling pass, grows with the bytes sent divided by the weight.
+         */
+        private long pass;
+
+        /**
+         * Create the stream.
+         *
+         * @param id      Stream id.
+         * @param request Stream request.
+         * @param weight  Stream weight.
+         * @param parent  Parent stream id.
+         */
+        private Stream(int id, HttpRequest request, int weight, int parent) {
+            this.id = id;
+            this.request = request;
+            this.weight = weight;
+            this.parent = parent;
+        }
+
+        /**
+         * Check if the stream can send a frame.
+         *
+         * @param connectionWindow Connection send window.
+         * @return True if the headers or some data can be sent.
+         */
+        private boolean isReady(long connectionWindow) {
+            if (this.response == null) {
+                return false;
+            }
+            if (!this.headersSent) {
+                return true;
+            }
+            return this.sent < getBodyLength() && this.sendWindow > 0 && connectionWindow > 0;
+        }
+
+        /**
+         * Get the length of the body to send, none for a HEAD request: its headers end the
+         * stream, with the content length of the GET response.
+         *
+         * @return Body bytes to send in DATA frames.
+         */
+        private int getBodyLength() {
+            return HttpRequest.HEAD_METHOD.equals(this.request.getMethod())
+                    ? 0 : this.response.getContentLength();
+        }
+    }
+}
@@ -28,6 +28,9 @@ import java.net.HttpCookie;
 import java.net.Socket;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Http request object.
@@ -48,6 +51,21 @@ public class HttpRequest {
      */
     public static final String POST_METHOD = "POST";
 
+    /**
+     * Http request head method, a get without body in the response.
+     */
+    public static final String HEAD_METHOD = "HEAD";
+
+    /**
+     * Http/2 connection preface method.
+     */
+    public static final String PRI_METHOD = "PRI";
+
+    /**
+     * Http/2 version.
+     */
+    public static final String HTTP2_VERSION = "HTTP/2.0";
+
     // ---------------------------------------------------------------------------------- Attributes
 
     /**
@@ -56,11 +74,15 @@ public class HttpRequest {
     private Socket socket;
 
     /**
-     * Request method.
-     * Get or post.
+     * Request method, any token: the supported ones are get, head and post.
      */
     private String method;
 
+    /**
+     * Request http version.
+     */
+    private String version;
+
     /**
      * Http request attributes.
      */
@@ -117,10 +139,30 @@ public class HttpRequest {
      */
     private String encoding;
 
+    /**
+     * Http request content length, 0 if the request has no body, -1 if invalid.
+     */
+    private long contentLength;
+
     /**
      * Other http request values.
      */
-    private String other;
+    private final StringBuilder other = new StringBuilder();
+
+    /**
+     * All the http request headers, by lower case name.
+     */
+    private Map<String, String> headers = new HashMap<>();
+
+    /**
+     * Server side session of the client, null until loaded.
+     */
+    private SessionStore.Session session;
+
+    /**
+     * True if the session cookie was already looked up in the session store.
+     */
+    private boolean sessionLoaded;
 
     // --------------------------------------------------------------------------- Getters & Setters
 
@@ -142,6 +184,15 @@ public class HttpRequest {
         return this.method;
     }
 
+    /**
+     * Get the request http version.
+     *
+     * @return Request http version, like "HTTP/1.1".
+     */
+    public String getVersion() {
+        return this.version;
+    }
+
     /**
      * Get the http request attributes.
      *
@@ -241,62 +292,164 @@ public class HttpRequest {
         return this.encoding;
     }
 
+    /**
+     * Get the http request content length.
+     *
+     * @return Http request content length, 0 if the request has no body, -1 if invalid.
+     */
+    public long getContentLength() {
+        return this.contentLength;
+    }
+
+    /**
+     * Get an http request header.
+     *
+     * @param name Header name, in any case.
+     * @return Header value, null if the request doesn't have the header.
+     */
+    public String getHeader(String name) {
+        return this.headers.get(name.toLowerCase());
+    }
+
     // -------------------------------------------------------------------------------- Constructors
 
     /**
      * Create the http request from the buffered reader on the input incoming from the client.
+     * Read the request line and the headers until the empty line that ends the request head, the
+     * body is left in the reader. If the client closes the connection before sending a request
+     * the method is null.
      *
      * @param client Client input buffered reader.
-     */
-    public HttpRequest(BufferedReader client) {
-        try {
-            String line;
-            this.other = "";
-            // check for all lines content
-            while ((line = client.readLine()) != null) {
-                if (line.startsWith(GET_METHOD)) {
-                    // initialize with get http method.
-                    initGet(line);
-                } else if (line.startsWith(POST_METHOD)) {
-
-                } else if (line.startsWith("Host:")) {
-                    initHost(line);
-                } else if (line.startsWith("Cookie:")) {
-                    initCookie(line);
-                } else if (line.startsWith("Connection:")) {
-                    initConnection(line);
-                } else if (line.startsWith("Upgrade-Insecure-Requests")) {
-                    initUir(line);
-                } else if (line.startsWith("Accept:")) {
-                    initAccpet(line);
-                } else if (line.startsWith("User-Agent:")) {
-                    initUserAgent(line);
-                } else if (line.startsWith("Referer:")) {
-                    initRefer(line);
-                } else if (line.startsWith("Accept-Language:")) {
-                    initLanguage(line);
-                } else if (line.startsWith("Accept-Encoding:")) {
-                    initEncoding(line);
-                } else {
-                    this.other += line + "\n";
-                }
+     * @throws IOException              Error while reading from the client.
+     * @throws IllegalArgumentException Malformed request line.
+     */
+    public HttpRequest(BufferedReader client) throws IOException {
+        String line;
+        // check all lines content until the end of the request head
+        while ((line = client.readLine()) != null && !(line.isEmpty() && this.method != null)) {
+            if (!line.isEmpty()) {
+                // skip empty lines before the request line
+                initLine(line);
             }
-        } catch (IOException ignored) {
+        }
+    }
 
+    /**
+     * Create the http request from the decoded headers of an http/2 stream.
+     * The pseudo headers give the request line and the host, the other headers are initialized
+     * as http/1 header lines.
+     *
+     * @param method  Request method.
+     * @param target  Request target, path and attributes.
+     * @param headers Request headers, name and value with lower case name.
+     * @throws IllegalArgumentException Method not a token or target with spaces.
+     */
+    public HttpRequest(String method, String target, List<String[]> headers) {
+        initLine(method + " " + target + " " + HTTP2_VERSION);
+        for (String[] header : headers) {
+            if (header[0].equals(":authority")) {
+                initLine("Host: " + header[1]);
+            } else if (!header[0].startsWith(":")) {
+                initLine(header[0] + ": " + header[1]);
+            }
         }
     }
 
     // -------------------------------------------------------------------------------- Help Methods
 
     /**
-     * Initialize the get request.
-     * Initialize the method, the file path and the attributes.
+     * Initialize a line of the request head, the request line or a header line.
      *
-     * @param line Get Http request line.
+     * @param line Request head line.
      */
-    private void initGet(String line) {
-        // set the method
-        this.method = GET_METHOD;
+    private void initLine(String line) {
+        if (this.method == null) {
+            // the first line is the request line, any method
+            initRequestLine(line);
+        } else {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                this.headers.put(line.substring(0, colon).trim().toLowerCase(),
+                        line.substring(colon + 1).trim());
+            }
+
+            if (isHeader(line, "Host:")) {
+                initHost(line);
+            } else if (isHeader(line, "Cookie:")) {
+                initCookie(line);
+            } else if (isHeader(line, "Connection:")) {
+                initConnection(line);
+            } else if (isHeader(line, "Upgrade-Insecure-Requests")) {
+                initUir(line);
+            } else if (isHeader(line, "Accept:")) {
+                initAccpet(line);
+            } else if (isHeader(line, "User-Agent:")) {
+                initUserAgent(line);
+            } else if (isHeader(line, "Referer:")) {
+                initRefer(line);
+            } else if (isHeader(line, "Accept-Language:")) {
+                initLanguage(line);
+            } else if (isHeader(line, "Accept-Encoding:")) {
+                initEncoding(line);
+            } else if (isHeader(line, "Content-Length:")) {
+                initContentLength(line);
+            } else {
+                this.other.append(line).append('\n');
+            }
+        }
+    }
+
+    /**
+     * Check if the line is the header, ignoring the case of the header name.
+     *
+     * @param line   Request head line.
+     * @param header Header name with the colon.
+     * @return True if the line is the header.
+     */
+    private boolean isHeader(String line, String header) {
+        return line.regionMatches(true, 0, header, 0, header.length());
+    }
+
+    /**
+     * Initialize the request line: the method, the file path and the attributes.
+     * The method is any token, the http/2 connection preface has the pri method.
+     *
+     * @param line Http request line.
+     * @throws IllegalArgumentException The line is not method, target and http version.
+     */
+    private void initRequestLine(String line) {
+        String[] parts = line.split(" ");
+        if (parts.length != 3 || !isToken(parts[0]) || parts[1].isEmpty()
+                || !parts[2].startsWith("HTTP/")) {
+            throw new IllegalArgumentException("Malformed request line: " + line);
+        }
+        this.method = parts[0];
+        initPathAttributes(line);
+    }
+
+    /**
+     * Check if a string is an http token, as a method name.
+     *
+     * @param value String to check.
+     * @return True if not empty and made only of token chars.
+     */
+    private boolean isToken(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c <= ' ' || c >= 127 || "\"(),/:;<=>?@[\\]{}".indexOf(c) >= 0) {
+                return false;
+            }
+        }
+        return !value.isEmpty();
+    }
+
+    /**
+     * Initialize the file path, the attributes and the version from the request line.
+     *
+     * @param line Http request line.
+     */
+    private void initPathAttributes(String line) {
+        this.version = line.substring(line.lastIndexOf(' ') + 1);
         if (line.contains(HttpRequestAttribute.ATTRIBUTE_DIVIDER)) {
             // if request contains attributes setup the file path from the first space to the "?"
             this.filePath = Paths.get(line.substring(
@@ -306,7 +459,7 @@ public class HttpRequest {
             // set up the request attributes
             String attributes = line.substring(
                     line.indexOf(HttpRequestAttribute.ATTRIBUTE_DIVIDER) + 1,
-                    line.indexOf(' ')
+                    line.lastIndexOf(' ')
             );
             this.attributes = HttpRequestAttribute.getAttribute(attributes);
         } else {
@@ -314,6 +467,7 @@ public class HttpRequest {
             // last space
             this.filePath = Paths.get(
                     line.substring(line.indexOf(' ') + 1, line.lastIndexOf(' ')));
+            this.attributes = new HttpRequestAttribute[0];
         }
     }
 
@@ -333,19 +487,21 @@ public class HttpRequest {
      */
     private void initCookie(String line) {
         // remove line title
-        String cookie = line.substring(line.indexOf(' '));
+        String cookie = getFromSpace(line);
         // split cookies in strings
-        String[] cookies = line.split(";");
+        String[] cookies = cookie.split(";");
 
         // initialize cookies array with number of cookies
         this.cookies = new HttpCookie[cookies.length];
 
         for (int i = 0; i < this.cookies.length; i++) {
             // for each cookie crete a new HttpCookie, use as name from the first char to the first
-            // - and as value from the first - to the end of the string.
+            // = and as value from the first = to the end of the string.
+            String value = cookies[i].trim();
+            int assign = value.indexOf('=');
             this.cookies[i] = new HttpCookie(
-                    cookies[i].substring(0, cookies[i].indexOf("-")),
-                    cookies[i].substring(cookies[i].indexOf("-"))
+                    assign > 0 ? value.substring(0, assign) : "_",
+                    assign > 0 ? value.substring(assign + 1) : value
             );
         }
     }
@@ -414,16 +570,161 @@ public class HttpRequest {
     }
 
     /**
-     * Get the string after the first space.
+     * Initialize the http request content length.
+     *
+     * @param line Http request content length line.
+     */
+    private void initContentLength(String line) {
+        try {
+            long length = Long.parseLong(getFromSpace(line));
+            // a second different length makes the body ambiguous
+            this.contentLength = length < 0 || this.contentLength != 0
+                    && this.contentLength != length ? -1 : length;
+        } catch (NumberFormatException nfe) {
+            this.contentLength = -1;
+        }
+    }
+
+    /**
+     * Get the string after the first space, without surrounding spaces.
      *
      * @param value String to substring.
      * @return Substringed string.
      */
     private String getFromSpace(String value) {
-        return value.substring(value.indexOf(' '));
+        return value.substring(value.indexOf(' ') + 1).trim();
     }
 
     // ----------------------------------------------------------------------------- General Methods
+
+    /**
+     * Get the value of a request attribute.
+     *
+     * @param name Attribute name.
+     * @return Value of the first attribute with the name, null if not found.
+     */
+    public String getAttribute(String name) {
+        for (HttpRequestAttribute attribute : this.attributes) {
+            if (attribute.getName().equals(name)) {
+                return attribute.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the value of a request cookie.
+     *
+     * @param name Cookie name.
+     * @return Value of the first cookie with the name, null if not found.
+     */
+    public String getCookie(String name) {
+        if (this.cookies != null) {
+            for (HttpCookie cookie : this.cookies) {
+                if (cookie.getName().equals(name)) {
+                    return cookie.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the server side session of the client, loaded from the session store by the session
+     * cookie on the first call.
+     *
+     * @param create True to create a new session if the client has none.
+     * @return Session, null if the client has none and create is false.
+     */
+    public SessionStore.Session getSession(boolean create) {
+        if (!this.sessionLoaded) {
+            String id = getCookie(SessionStore.COOKIE);
+            if (id != null) {
+                this.session = SessionStore.getStore().get(id);
+            }
+            this.sessionLoaded = true;
+        }
+        if (this.session == null && create) {
+            this.session = SessionStore.getStore().create();
+        }
+        return this.session;
+    }
+
+    /**
+     * Get the session loaded by the request, without loading it.
+     *
+     * @return Session, null if not loaded.
+     */
+    public SessionStore.Session getCurrentSession() {
+        return this.session;
+    }
+
+    /**
+     * Check if the method is served: get, head and post, and the http/2 preface.
+     *
+     * @return True if the method is supported.
+     */
+    public boolean isSupportedMethod() {
+        return GET_METHOD.equals(this.method) || HEAD_METHOD.equals(this.method)
+                || POST_METHOD.equals(this.method) || PRI_METHOD.equals(this.method);
+    }
+
+    /**
+     * Check if the request has a body in chunked transfer coding.
+     *
+     * @return True if the Transfer-Encoding header is present.
+     */
+    public boolean hasTransferEncoding() {
+        return getHeader("Transfer-Encoding") != null;
+    }
+
+    /**
+     * Check if the client keeps the connection open after the response.
+     * An http/1.1 client keeps it unless it sends Connection: close, an http/1.0 client only if
+     * it sends Connection: keep-alive.
+     *
+     * @return True to wait for the next request after the response.
+     */
+    public boolean isKeepAlive() {
+        boolean close = false;
+        boolean keepAlive = false;
+        String connection = getHeader("Connection");
+        if (connection != null) {
+            for (String option : connection.split(",")) {
+                close |= option.trim().equalsIgnoreCase("close");
+                keepAlive |= option.trim().equalsIgnoreCase("keep-alive");
+            }
+        }
+        return !close && (keepAlive || !"HTTP/1.0".equals(this.version));
+    }
+
+    /**
+     * Check if the client accepts a content coding, from the Accept-Encoding header.
+     * A coding with q=0 is not accepted.
+     *
+     * @param coding Content coding, example: gzip.
+     * @return True if the client accepts the content coding.
+     */
+    public boolean acceptsEncoding(String coding) {
+        String accept = getHeader("Accept-Encoding");
+        if (accept == null) {
+            return false;
+        }
+        for (String element : accept.split(",")) {
+            String[] parameters = element.split(";");
+            String name = parameters[0].trim();
+            if (name.equalsIgnoreCase(coding) || name.equals("*")) {
+                for (int i = 1; i < parameters.length; i++) {
+                    String parameter = parameters[i].replace(" ", "");
+                    if (parameter.matches("q=0(\\.0*)?")) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
     // --------------------------------------------------------------------------- Static Components
 
 }
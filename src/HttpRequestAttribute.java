@@ -32,8 +32,19 @@
 public class HttpRequestAttribute {
     // ------------------------------------------------------------------------------------ Costants
 
+    /**
+     * Divider between the path and the attributes in the request URL.
+     */
     public static final String ATTRIBUTE_DIVIDER = "?";
 
+    /**
+     * Separator between two attributes in the request URL.
+     */
+    public static final String ATTRIBUTE_SEPARATOR = "&";
+
+    /**
+     * Assigner between the name and the value of an attribute.
+     */
     public static final String ATTRIBUTE_ASSIGNRE = "=";
 
     // ---------------------------------------------------------------------------------- Attributes
@@ -88,11 +99,9 @@ public class HttpRequestAttribute {
      * @param httpValue Attribute string.
      */
     public HttpRequestAttribute(String httpValue) {
-        String[] httpValues = httpValue.split(ATTRIBUTE_ASSIGNRE);
-        if (httpValue.length() > 1) {
-            this.name = httpValues[0];
-            this.value = httpValues[1];
-        }
+        String[] httpValues = httpValue.split(ATTRIBUTE_ASSIGNRE, 2);
+        this.name = httpValues[0];
+        this.value = httpValues.length > 1 ? httpValues[1] : "";
     }
 
     // -------------------------------------------------------------------------------- Help Methods
@@ -124,7 +133,7 @@ public class HttpRequestAttribute {
      * @return Array of http request attribute generated by the string.
      */
     public static HttpRequestAttribute[] getAttribute(String httpAttributes) {
-        return getAttribute(httpAttributes.split(ATTRIBUTE_DIVIDER));
+        return getAttribute(httpAttributes.split(ATTRIBUTE_SEPARATOR));
     }
 
 }
@@ -0,0 +1,399 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Http response object.
+ * Contains the status, the headers and the body of the response sent to the client.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-11)
+ */
+public class HttpResponse {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Http response version.
+     */
+    public static final String VERSION = "HTTP/1.1";
+
+    /**
+     * Http response server name.
+     */
+    public static final String SERVER = "HMJ Basic HTTP Server";
+
+    /**
+     * Http header line end.
+     */
+    public static final String CRLF = "\r\n";
+
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Http response status.
+     */
+    private HttpStatus status;
+
+    /**
+     * Http response content type.
+     */
+    private String contentType;
+
+    /**
+     * Http response body, from the position to the limit.
+     */
+    private ByteBuffer body;
+
+    /**
+     * Additional http response headers, each one as name and value.
+     */
+    private List<String[]> headers = new ArrayList<>();
+
+    /**
+     * Prebuilt http response header, null to build it.
+     */
+    private byte[] httpHeader;
+
+    /**
+     * Prebuilt http response message, the header followed by the body, null to write them apart.
+     */
+    private byte[] message;
+
+    /**
+     * Value of the Connection header, keep-alive or close, null to send none.
+     */
+    private String connection;
+
+    // --------------------------------------------------------------------------- Getters & Setters
+
+    /**
+     * Get the http response status.
+     *
+     * @return Http response status.
+     */
+    public HttpStatus getStatus() {
+        return this.status;
+    }
+
+    /**
+     * Get the http response content type.
+     *
+     * @return Http response content type.
+     */
+    public String getContentType() {
+        return this.contentType;
+    }
+
+    /**
+     * Get the http response body.
+     * The returned buffer is a view of the body, its position and limit can be changed.
+     *
+     * @return Http response body, from the position to the limit.
+     */
+    public ByteBuffer getBody() {
+        return this.body.duplicate();
+    }
+
+    /**
+     * Get the http response body length.
+     *
+     * @return Http response body length.
+     */
+    public int getContentLength() {
+        return this.body.remaining();
+    }
+
+    /**
+     * Get the additional http response headers.
+     *
+     * @return Additional http response headers, each one as name and value.
+     */
+    public List<String[]> getHeaders() {
+        return this.headers;
+    }
+
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * Create the http response.
+     *
+     * @param status      Http response status.
+     * @param contentType Http response content type.
+     * @param body        Http response body.
+     */
+    public HttpResponse(HttpStatus status, String contentType, byte[] body) {
+        this(status, contentType, ByteBuffer.wrap(body), null);
+    }
+
+    /**
+     * Create the http response with a prebuilt header.
+     *
+     * @param status      Http response status.
+     * @param contentType Http response content type.
+     * @param body        Http response body.
+     * @param httpHeader  Prebuilt http response header, as built by getHttpHeader.
+     */
+    public HttpResponse(HttpStatus status, String contentType, byte[] body, byte[] httpHeader) {
+        this(status, contentType, ByteBuffer.wrap(body), httpHeader);
+    }
+
+    /**
+     * Create the http response of a buffer, like a slice of a mapped file, with a prebuilt header.
+     *
+     * @param status      Http response status.
+     * @param contentType Http response content type.
+     * @param body        Http response body, from the position to the limit.
+     * @param httpHeader  Prebuilt http response header, null to build it.
+     */
+    public HttpResponse(HttpStatus status, String contentType, ByteBuffer body, byte[] httpHeader) {
+        this.status = status;
+        this.contentType = contentType;
+        this.body = body;
+        this.httpHeader = httpHeader;
+    }
+
+    // -------------------------------------------------------------------------------- Help Methods
+    // ----------------------------------------------------------------------------- General Methods
+
+    /**
+     * Add an http response header.
+     *
+     * @param name  Header name.
+     * @param value Header value.
+     * @return This http response.
+     */
+    public HttpResponse addHeader(String name, String value) {
+        this.headers.add(new String[]{name, value});
+        this.httpHeader = null;
+        this.message = null;
+        return this;
+    }
+
+    /**
+     * Get the value of an additional http response header.
+     *
+     * @param name Header name, case insensitive.
+     * @return Value of the first header with the name, null if not found.
+     */
+    public String getHeader(String name) {
+        for (String[] header : this.headers) {
+            if (header[0].equalsIgnoreCase(name)) {
+                return header[1];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Set the prebuilt http response header, it must match the response as it is.
+     * Adding a header discards it.
+     *
+     * @param httpHeader Prebuilt http response header, as built by getHttpHeader.
+     * @return This http response.
+     */
+    public HttpResponse withHttpHeader(byte[] httpHeader) {
+        this.httpHeader = httpHeader;
+        return this;
+    }
+
+    /**
+     * Set the prebuilt http response message, written with a single write.
+     * It must match the response as it is, adding a header discards it.
+     *
+     * @param message Prebuilt http response message, the header followed by the body.
+     * @return This http response.
+     */
+    public HttpResponse withMessage(byte[] message) {
+        this.message = message;
+        return this;
+    }
+
+    /**
+     * Get the prebuilt http response message.
+     *
+     * @return Header followed by the body, null if not prebuilt.
+     */
+    public byte[] getMessage() {
+        return this.message;
+    }
+
+    /**
+     * Set the Connection header, appended to the header when written.
+     * The prebuilt header and message are kept, they are shared by the responses of a file.
+     *
+     * @param connection Connection header value, keep-alive or close.
+     * @return This http response.
+     */
+    public HttpResponse withConnection(String connection) {
+        this.connection = connection;
+        return this;
+    }
+
+    /**
+     * Get the Connection header value.
+     *
+     * @return Connection header value, null if none is sent.
+     */
+    public String getConnection() {
+        return this.connection;
+    }
+
+    /**
+     * Get the http response header.
+     * The prebuilt header is returned if set.
+     *
+     * @return Http response header in bytes.
+     */
+    public byte[] getHttpHeader() {
+        if (this.httpHeader != null) {
+            return this.httpHeader;
+        }
+
+        StringBuilder header = new StringBuilder(256)
+                .append(VERSION).append(' ').append(this.status.getCode()).append(' ')
+                .append(this.status.getDescription()).append(CRLF)
+                .append("Allow: GET, HEAD, POST").append(CRLF)
+                .append("MIME-Version: 1.0").append(CRLF)
+                .append("Server: ").append(SERVER).append(CRLF)
+                .append("Content-Type: ").append(this.contentType).append(CRLF)
+                .append("Content-Length: ").append(getContentLength()).append(CRLF);
+
+        for (String[] h : this.headers) {
+            header.append(h[0]).append(": ").append(h[1]).append(CRLF);
+        }
+        header.append(CRLF);
+
+        return header.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Write the http response header, with the Connection header if set.
+     *
+     * @param out Client output stream.
+     * @throws IOException Error while writing to the client.
+     */
+    public void writeHeader(OutputStream out) throws IOException {
+        byte[] header = getHttpHeader();
+        if (this.connection == null) {
+            out.write(header);
+        } else {
+            // the header ends with an empty line, the Connection header goes before it
+            out.write(header, 0, header.length - CRLF.length());
+            out.write(("Connection: " + this.connection + CRLF + CRLF)
+                    .getBytes(StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    /**
+     * Write a part of the http response body.
+     *
+     * @param out    Client output stream.
+     * @param offset Offset of the part in the body.
+     * @param length Length of the part.
+     * @throws IOException Error while writing to the client.
+     */
+    public void writeBody(OutputStream out, int offset, int length) throws IOException {
+        int start = this.body.position() + offset;
+        if (this.body.hasArray()) {
+            out.write(this.body.array(), this.body.arrayOffset() + start, length);
+        } else {
+            // a mapped body is copied through a pooled buffer, not a new array at each write
+            ByteBuffer chunk = BufferPool.getPool().acquire(Math.min(length, 16384));
+            try {
+                byte[] array = chunk.array();
+                for (int i = start; i < start + length; i += chunk.capacity()) {
+                    int chunkLength = Math.min(chunk.capacity(), start + length - i);
+                    this.body.get(i, array, chunk.arrayOffset(), chunkLength);
+                    out.write(array, chunk.arrayOffset(), chunkLength);
+                }
+            } finally {
+                BufferPool.getPool().release(chunk);
+            }
+        }
+    }
+
+    /**
+     * Write the http response header and body.
+     *
+     * @param out Client output stream.
+     * @throws IOException Error while writing to the client.
+     */
+    public void write(OutputStream out) throws IOException {
+        if (this.message != null && this.connection == null) {
+            out.write(this.message);
+        } else {
+            writeHeader(out);
+            writeBody(out, 0, getContentLength());
+        }
+        out.flush();
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Get the 101 switching protocols response header.
+     *
+     * @param protocol Protocol of the Upgrade header.
+     * @param headers  Additional headers, name and value pairs.
+     * @return Http response header in bytes.
+     */
+    public static byte[] getSwitchingProtocolsHeader(String protocol, String... headers) {
+        StringBuilder header = new StringBuilder(128)
+                .append("HTTP/1.1 ").append(HttpStatus.SWITCHING_PROTOCOLS.getCode()).append(' ')
+                .append(HttpStatus.SWITCHING_PROTOCOLS.getDescription()).append(CRLF)
+                .append("Connection: Upgrade").append(CRLF)
+                .append("Upgrade: ").append(protocol).append(CRLF);
+        for (int i = 0; i + 1 < headers.length; i += 2) {
+            header.append(headers[i]).append(": ").append(headers[i + 1]).append(CRLF);
+        }
+        header.append(CRLF);
+
+        return header.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Get the 103 early hints message.
+     *
+     * @param links Values of the Link headers.
+     * @return Http early hints message in bytes.
+     */
+    public static byte[] getEarlyHintsHeader(String... links) {
+        StringBuilder header = new StringBuilder(128)
+                .append("HTTP/1.1 ").append(HttpStatus.EARLY_HINTS.getCode()).append(' ')
+                .append(HttpStatus.EARLY_HINTS.getDescription()).append(CRLF);
+        for (String link : links) {
+            header.append("Link: ").append(link).append(CRLF);
+        }
+        header.append(CRLF);
+
+        return header.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+}
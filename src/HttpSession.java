@@ -24,9 +24,15 @@
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author giuliobosco
@@ -45,13 +51,88 @@ public class HttpSession extends Thread {
      */
     public static final String POST = "POST";
 
+    /**
+     * Document root directory.
+     */
+    public static final String DOCUMENT_ROOT = "www";
+
+    /**
+     * Error pages directory.
+     */
+    public static final String ERROR_ROOT = "error";
+
+    /**
+     * Path of the server statistics page, served only to the local clients, empty to disable it.
+     */
+    public static final String STATS_PATH = System.getProperty("openweb.stats.path", "/server-stats");
+
+    /**
+     * Chars buffered by the request reader, the bytes are buffered by the pooled reader.
+     */
+    public static final int LINE_BUFFER_SIZE = 512;
+
+    /**
+     * Client address of the unix domain socket connections, they are not rate limited.
+     */
+    public static final String UNIX_CLIENT = "unix";
+
+    /**
+     * Timing wheel of the connection timeouts, shared by all the sessions.
+     */
+    public static final TimingWheel TIMEOUTS = new TimingWheel("timeouts", 100, TimeUnit.MILLISECONDS, 512);
+
+    static {
+        TIMEOUTS.start();
+        StatsReporter.register("timeouts", TimeoutKind::report);
+    }
+
     // ---------------------------------------------------------------------------------- Attributes
 
+    /**
+     * Error pages loaded from the error directory, by status code.
+     */
+    private static final Map<Integer, byte[]> ERROR_PAGES = new ConcurrentHashMap<>();
+
     /**
      * Session socket.
      */
     private Socket socket;
 
+    /**
+     * Session channel of a unix domain socket connection, null for tcp connections.
+     */
+    private SocketChannel channel;
+
+    /**
+     * TLS connection of the socket, null for plain http.
+     */
+    private TlsConnection tls;
+
+    /**
+     * Client input buffered reader.
+     */
+    private BufferedReader client;
+
+    /**
+     * Client output stream.
+     */
+    private OutputStream out;
+
+    /**
+     * Timeout of the current connection phase.
+     */
+    private volatile TimingWheel.Timeout timeout;
+
+    /**
+     * Expired request timeout to answer with a 408 response, null if none expired.
+     */
+    private volatile TimeoutKind expired;
+
+    /**
+     * Flight recorder event of the current request, the first one starts at the accept.
+     */
+    private RequestEvent trace = RequestEvent.start();
+
     // --------------------------------------------------------------------------- Getters & Setters
     // -------------------------------------------------------------------------------- Constructors
 
@@ -64,111 +145,745 @@ public class HttpSession extends Thread {
         this.socket = socket;
     }
 
+    /**
+     * Create https session with the session socket and its TLS connection.
+     *
+     * @param socket Session socket.
+     * @param tls    TLS connection of the socket.
+     */
+    public HttpSession(Socket socket, TlsConnection tls) {
+        this.socket = socket;
+        this.tls = tls;
+    }
+
+    /**
+     * Create http session with the session channel of a unix domain socket connection.
+     *
+     * @param channel Session channel, in blocking mode.
+     */
+    public HttpSession(SocketChannel channel) {
+        this.channel = channel;
+    }
+
     // -------------------------------------------------------------------------------- Help Methods
 
     /**
-     * Read a file from the file system.
+     * Read a file of the virtual host from the archive, if configured, or from the file system.
+     * Templates are rendered from the file system, the archive and the peers serve only the
+     * default host. The combo path joins the files it lists.
+     * The early hints of a page are sent once the page is known to exist, before reading it.
      *
      * @param filePath Path of the file to read.
-     * @return File as bytes array.
-     * @throws IOException Error while reading from the file system.
+     * @param request  Http request of the file.
+     * @param host     Virtual host of the request.
+     * @param hints    True to send the early hints of the page, only on an http/1.1 connection.
+     * @return Http response with the file or the 404 error page.
+     * @throws IOException Error while reading from the file system or writing the early hints.
      */
-    private byte[] fileRender(String filePath) throws IOException {
+    private HttpResponse fileRender(String filePath, HttpRequest request, VirtualHost host,
+                                    boolean hints) throws IOException {
+        if (filePath.equals(Combo.PATH)) {
+            return comboRender(request, host);
+        }
         if (filePath.equals("/")) {
             filePath += "index.html";
         }
-        filePath = "www" + filePath;
 
-        Path path = Paths.get(filePath);
-        Path p = Paths.get(".");
+        Path path = host.resolve(filePath);
+        if (path == null) {
+            return errorResponse(HttpStatus.FORBIDDEN);
+        }
+
+        if (TemplateEngine.isTemplate(path)) {
+            try {
+                HttpResponse response = TemplateEngine.render(path, request);
+                return response != null ? response : errorResponse(HttpStatus.NOT_FOUND);
+            } catch (IOException ioe) {
+                System.out.println(ioe.getMessage());
+                return errorResponse(HttpStatus.INTERNAL_SERVER_ERROR);
+            }
+        }
+
+        byte[] earlyHints = hints ? EarlyHints.get(request, path) : null;
+        Archive archive = host.isDocumentRoot() ? Archive.getCurrent() : null;
+        if (archive != null) {
+            String archivePath = "/" + host.getRoot().relativize(path).toString()
+                    .replace('\\', '/');
+            Archive.Entry entry = archive.get(archivePath);
+            if (entry != null && earlyHints != null) {
+                sendEarlyHints(earlyHints);
+            }
+            return entry != null
+                    ? entry.toResponse(request.acceptsEncoding("gzip"))
+                    : errorResponse(HttpStatus.NOT_FOUND);
+        }
 
-        if (Files.exists(path) && !Files.notExists(path)) {
-            return Files.readAllBytes(path);
-        } else {
-            Path error404 = Paths.get("error", "404.html");
-            if (Files.exists(error404) && !Files.notExists(error404)) {
-                return Files.readAllBytes(error404);
+        boolean fromPeer = request.getHeader(PeerCache.PEER_HEADER) != null;
+        if (fromPeer && PeerCache.getInstance() != null && GET.equals(request.getMethod())) {
+            // the HEAD requests of a peer are its probes
+            PeerCache.getInstance().served();
+        }
+        if (earlyHints != null && Files.isRegularFile(path)) {
+            sendEarlyHints(earlyHints);
+        }
+        try {
+            FileCache.Entry file = host.getCache().get(path,
+                    !fromPeer && host.isDefault() && host.isDocumentRoot());
+            if (file != null) {
+                return file.toResponse(!fromPeer && request.acceptsEncoding("gzip"));
             } else {
-                throw new IOException("404 error page not found!");
+                return errorResponse(HttpStatus.NOT_FOUND);
             }
+        } catch (InterruptedIOException iioe) {
+            // timeout while waiting for the read of a concurrent request
+            return errorResponse(HttpStatus.SERVICE_UNAVAILABLE).addHeader("Retry-After", "1");
+        }
+    }
+
+    /**
+     * Join the files listed by a combo request.
+     *
+     * @param request Http request of the combo.
+     * @param host    Virtual host of the request.
+     * @return Http response with the combo, 400 for an invalid or too large list or 404 for a
+     *         missing file.
+     * @throws IOException Error while reading from the file system.
+     */
+    private HttpResponse comboRender(HttpRequest request, VirtualHost host) throws IOException {
+        String[] paths = Combo.parse(request.getAttribute(Combo.FILES_ATTRIBUTE));
+        if (paths == null) {
+            return errorResponse(HttpStatus.BAD_REQUEST);
         }
+        try {
+            Combo.Entry combo = Combo.get(paths, host);
+            return combo != null ? combo.toResponse(request.acceptsEncoding("gzip"))
+                    : errorResponse(HttpStatus.NOT_FOUND);
+        } catch (IllegalArgumentException iae) {
+            // a mapped file or over the maximum combo size
+            return errorResponse(HttpStatus.BAD_REQUEST);
+        } catch (InterruptedIOException iioe) {
+            // timeout while waiting for the read of a concurrent request
+            return errorResponse(HttpStatus.SERVICE_UNAVAILABLE).addHeader("Retry-After", "1");
+        }
+    }
+
+    /**
+     * Get the error response of the status.
+     * The body is the error page of the status, loaded once from the error directory.
+     *
+     * @param status Error status.
+     * @return Error http response.
+     */
+    public HttpResponse errorResponse(HttpStatus status) {
+        byte[] page = ERROR_PAGES.computeIfAbsent(status.getCode(), code -> {
+            try {
+                return Files.readAllBytes(Paths.get(ERROR_ROOT, code + ".html"));
+            } catch (IOException ioe) {
+                return (code + " " + status.getDescription()).getBytes(StandardCharsets.ISO_8859_1);
+            }
+        });
+        return new HttpResponse(status, "text/html", page);
+    }
+
+    /**
+     * Handle the request and build the response, without early hints: the http/2 streams.
+     *
+     * @param request Http request.
+     * @return Http response.
+     * @throws IOException Error while reading from the file system.
+     */
+    public HttpResponse handle(HttpRequest request) throws IOException {
+        return handle(request, false);
     }
 
     /**
-     * Get the http header.
+     * Handle the request and build the response.
+     * The early hints are sent only to the requests passing the rate limiter, for an existing page.
+     * The unix domain socket clients are not rate limited.
      *
-     * @param contentType Content of the file.
-     * @param fileLength File length.
-     * @return Http header in bytes
+     * @param request Http request.
+     * @param hints   True to send the early hints of the page, only on an http/1.1 connection.
+     * @return Http response.
+     * @throws IOException Error while reading from the file system or writing the early hints.
      */
-    private byte[] getHttpHeader(String contentType, int fileLength) {
-        String header = "HTTP/1.0 200 OK\n" +
-                "Allow: GET\n" +
-                "MIME-Version: 1.0\n" +
-                "Server : HMJ Basic HTTP Server\n" +
-                "Content-Type: " + contentType + "\n" +
-                "Content-Length: " + fileLength +
-                "\n\n";
+    private HttpResponse handle(HttpRequest request, boolean hints) throws IOException {
+        if (!request.isSupportedMethod()) {
+            return errorResponse(HttpStatus.NOT_IMPLEMENTED);
+        }
+        String filePath = request.getFilePath().toString();
+
+        // the unix socket clients are all the local proxy, it limits its own clients: one shared
+        // bucket would throttle every user behind it
+        long wait = this.channel != null ? 0 : RateLimiter.check(getClientAddress(), filePath);
+        if (wait > 0) {
+            long retryAfter = (wait + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1);
+            return errorResponse(HttpStatus.TOO_MANY_REQUESTS)
+                    .addHeader("Retry-After", String.valueOf(retryAfter));
+        }
+
+        System.out.println(request.getMethod() + " " + filePath);
 
-        byte[] bytes = new byte[header.length()];
-        for (int i = 0; i < bytes.length; i++) {
-            bytes[i] = (byte) header.charAt(i);
+        if (filePath.equals(STATS_PATH) && isLocalClient()) {
+            byte[] stats = StatsReporter.report().getBytes(StandardCharsets.ISO_8859_1);
+            return Compressor.apply(request, new HttpResponse(HttpStatus.OK, "text/plain", stats));
         }
 
-        return bytes;
+        VirtualHost host = VirtualHost.of(request);
+        String key = ResponseCache.key(request, host);
+        HttpResponse response = key != null ? ResponseCache.get(key, request) : null;
+        if (response == null) {
+            response = fileRender(filePath, request, host, hints);
+            SessionStore.getStore().commit(request, response);
+            response = Compressor.apply(request, response);
+            if (key != null) {
+                ResponseCache.put(key, request, response);
+            }
+        }
+        host.served(response);
+        return response;
+    }
+
+    /**
+     * Start the timeout of a connection phase.
+     *
+     * @param kind Timeout kind of the phase.
+     */
+    public void arm(TimeoutKind kind) {
+        this.timeout = TIMEOUTS.schedule(() -> expire(kind), kind.getMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the timeout of the current connection phase.
+     *
+     * @return False if the timeout is already expired and the connection is closed.
+     */
+    public boolean disarm() {
+        TimingWheel.Timeout current = this.timeout;
+        return current == null || current.cancel() || !current.isExpired();
+    }
+
+    /**
+     * Expire the connection, called by the timing wheel.
+     * While reading the request the client gets a 408 response: the wheel only shuts down the
+     * input, waking the session thread from its read, and the session writes the response under
+     * a write timeout. A write to a client not reading would block the wheel shared by all the
+     * sessions. Any other timeout, or a TLS connection expired during the handshake, is closed
+     * without response.
+     *
+     * @param kind Expired timeout kind.
+     */
+    private void expire(TimeoutKind kind) {
+        kind.expire();
+        if (kind.isRequestTimeout() && (this.tls == null || this.tls.isHandshakeComplete())) {
+            this.expired = kind;
+            try {
+                if (this.channel != null) {
+                    this.channel.shutdownInput();
+                } else {
+                    this.socket.shutdownInput();
+                }
+                return;
+            } catch (IOException ignored) {
+
+            }
+        }
+        close();
+    }
+
+    /**
+     * Write the 408 response of an expired request timeout, from the session thread.
+     */
+    private void respondExpired() {
+        if (this.expired == null || this.out == null) {
+            return;
+        }
+        arm(TimeoutKind.WRITE);
+        try {
+            errorResponse(HttpStatus.REQUEST_TIMEOUT).withConnection("close").write(this.out);
+        } catch (IOException ignored) {
+
+        }
+        disarm();
+    }
+
+    /**
+     * Send a 103 early hints message under a write timeout.
+     *
+     * @param message Prebuilt 103 early hints message.
+     * @throws IOException Error while writing to the client or write timeout.
+     */
+    private void sendEarlyHints(byte[] message) throws IOException {
+        arm(TimeoutKind.WRITE);
+        this.out.write(message);
+        this.out.flush();
+        if (!disarm()) {
+            throw new IOException("Early hints write timeout");
+        }
+        EarlyHints.sent();
+    }
+
+    /**
+     * Skip the request body.
+     *
+     * @param length Body length.
+     * @throws IOException Error while reading from the client.
+     */
+    private void skipBody(long length) throws IOException {
+        while (length > 0) {
+            long skipped = this.client.skip(length);
+            if (skipped <= 0) {
+                throw new EOFException("Request body truncated");
+            }
+            length -= skipped;
+        }
+    }
+
+    /**
+     * Skip the request body in chunked transfer coding, the chunks and the trailer.
+     *
+     * @throws IOException Error while reading from the client or invalid chunk.
+     */
+    private void skipChunkedBody() throws IOException {
+        long size;
+        do {
+            String line = readBodyLine();
+            int end = line.indexOf(';');
+            String hex = (end >= 0 ? line.substring(0, end) : line).trim();
+            if (!hex.matches("[0-9a-fA-F]{1,15}")) {
+                throw new IOException("Invalid chunk size: " + line);
+            }
+            size = Long.parseLong(hex, 16);
+            if (size > 0) {
+                skipBody(size);
+                if (!readBodyLine().isEmpty()) {
+                    throw new IOException("Chunk longer than its size");
+                }
+            }
+        } while (size > 0);
+
+        // trailer fields until the empty line
+        while (!readBodyLine().isEmpty()) {
+            continue;
+        }
+    }
+
+    /**
+     * Read a line of the request body.
+     *
+     * @return Line without the line end.
+     * @throws IOException Error while reading from the client, or body truncated.
+     */
+    private String readBodyLine() throws IOException {
+        String line = this.client.readLine();
+        if (line == null) {
+            throw new EOFException("Request body truncated");
+        }
+        return line;
+    }
+
+    /**
+     * Check if the request asks the upgrade to http/2 over clear text.
+     *
+     * @param request Http request.
+     * @return True if the request can be upgraded to h2c.
+     */
+    private boolean isHttp2Upgrade(HttpRequest request) {
+        String upgrade = request.getHeader("Upgrade");
+        return Http2Connection.ENABLED && this.tls == null && upgrade != null
+                && upgrade.equalsIgnoreCase("h2c") && request.getHeader("HTTP2-Settings") != null
+                && request.getContentLength() == 0 && "HTTP/1.1".equals(request.getVersion());
+    }
+
+    /**
+     * Get the client address, the local clients of a unix domain socket share the same address.
+     *
+     * @return Client address.
+     */
+    public String getClientAddress() {
+        return this.socket != null ? this.socket.getInetAddress().getHostAddress() : UNIX_CLIENT;
+    }
+
+    /**
+     * Check if the client is local: a loopback address or a unix domain socket.
+     * The statistics show the server internals, they are not published to the remote clients.
+     *
+     * @return True for a local client.
+     */
+    private boolean isLocalClient() {
+        return this.socket == null || this.socket.getInetAddress().isLoopbackAddress();
+    }
+
+    /**
+     * Close the session socket.
+     */
+    private void close() {
+        try {
+            if (this.tls != null) {
+                this.tls.close();
+            }
+            if (this.channel != null) {
+                this.channel.close();
+            } else {
+                this.socket.close();
+            }
+        } catch (IOException ignored) {
+
+        }
+    }
+
+    /**
+     * Return the buffers of the client reader and output to the buffer pool.
+     */
+    private void releaseBuffers() {
+        try {
+            if (this.client != null) {
+                this.client.close();
+            }
+            if (this.out != null) {
+                this.out.close();
+            }
+        } catch (IOException ignored) {
+
+        }
+        BufferPool.getPool().flushThreadCache();
     }
 
     // ----------------------------------------------------------------------------- General Methods
 
     /**
      * Run the http session.
+     * Every phase of the connection runs under a timeout: reading the request head, reading the
+     * request body, writing the response and waiting for the next request.
      */
     @Override
     public void run() {
         try {
-            InputStreamReader input = new InputStreamReader(socket.getInputStream());
-            BufferedReader client = new BufferedReader(input);
-            OutputStream out = socket.getOutputStream();
-
-            String line;
-            while ((line = client.readLine()) != null) {
-                System.out.println(line);
-                if (line.contains(GET) || line.contains(POST)) {
-                    String filePath;
-                    String[] attributes;
-                    if (line.contains("?")) {
-                        filePath = line.substring(line.indexOf(' ') + 1, line.indexOf('?'));
-                        String attributesLine = line.substring(line.indexOf('?') + 1, line.lastIndexOf(' '));
-                        attributes = attributesLine.split("&");
-                    } else {
-                        filePath = line.substring(line.indexOf(' ') + 1, line.lastIndexOf(' '));
-                        attributes = new String[0];
+            InputStream in;
+            OutputStream os;
+            if (this.channel != null) {
+                in = new ChannelInputStream(this.channel);
+                os = new ChannelOutputStream(this.channel);
+            } else {
+                in = this.tls != null ? this.tls.getInputStream() : socket.getInputStream();
+                os = this.tls != null ? this.tls.getOutputStream() : socket.getOutputStream();
+            }
+            this.out = new PooledOutputStream(os);
+            this.trace.accepted();
+
+            if (this.tls != null && Http2Connection.ENABLED) {
+                // the negotiated application protocol is known after the handshake
+                arm(TimeoutKind.HEADER_READ);
+                this.tls.handshake();
+                if (!disarm()) {
+                    return;
+                }
+                if (this.tls.getApplicationProtocol().equals("h2")) {
+                    new Http2Connection(this, in, this.out).serve(0);
+                    return;
+                }
+            }
+
+            this.client = new BufferedReader(new PooledReader(in), LINE_BUFFER_SIZE);
+
+            boolean idle = false;
+            while (true) {
+                if (idle) {
+                    // wait for the first byte of the next request, the reader may skip the line
+                    // feed left by the previous request head before it, so the mark spans two
+                    arm(TimeoutKind.IDLE);
+                    this.client.mark(2);
+                    if (this.client.read() < 0 || !disarm()) {
+                        break;
                     }
+                    this.client.reset();
+                    this.trace = RequestEvent.start();
+                }
+
+                arm(TimeoutKind.HEADER_READ);
+                HttpRequest request;
+                try {
+                    request = new HttpRequest(this.client);
+                } catch (RuntimeException re) {
+                    if (disarm()) {
+                        errorResponse(HttpStatus.BAD_REQUEST).withConnection("close")
+                                .write(this.out);
+                    }
+                    break;
+                }
+                if (!disarm() || request.getMethod() == null) {
+                    break;
+                }
+                this.trace.parsed(request);
 
-                    byte[] rederedFile = fileRender(filePath);
-                    byte[] header = getHttpHeader("text/html", rederedFile.length);
+                if (Http2Connection.ENABLED && request.getMethod().equals(HttpRequest.PRI_METHOD)) {
+                    // http/2 with prior knowledge, the request head was the preface start
+                    new Http2Connection(this, new ReaderInputStream(this.client), this.out)
+                            .serve(Http2Connection.PREFACE_HEAD_LENGTH);
+                    break;
+                }
 
-                    for (byte b : header) {
-                        out.write(b);
+                if (request.hasTransferEncoding()) {
+                    // with a content length too the body end is ambiguous, the request could
+                    // smuggle another one, only the chunked coding is decoded
+                    HttpStatus status = request.getContentLength() != 0 ? HttpStatus.BAD_REQUEST
+                            : !request.getHeader("Transfer-Encoding").trim()
+                            .equalsIgnoreCase("chunked") ? HttpStatus.NOT_IMPLEMENTED : null;
+                    if (status != null) {
+                        errorResponse(status).withConnection("close").write(this.out);
+                        break;
+                    }
+                    arm(TimeoutKind.BODY_READ);
+                    skipChunkedBody();
+                    if (!disarm()) {
+                        break;
+                    }
+                } else if (request.getContentLength() < 0) {
+                    errorResponse(HttpStatus.BAD_REQUEST).withConnection("close").write(this.out);
+                    break;
+                } else if (request.getContentLength() > 0) {
+                    arm(TimeoutKind.BODY_READ);
+                    skipBody(request.getContentLength());
+                    if (!disarm()) {
+                        break;
                     }
+                }
+
+                if (isHttp2Upgrade(request)) {
+                    this.out.write(HttpResponse.getSwitchingProtocolsHeader("h2c"));
+                    this.out.flush();
+                    new Http2Connection(this, new ReaderInputStream(this.client), this.out)
+                            .serveUpgrade(request, request.getHeader("HTTP2-Settings"));
+                    break;
+                }
 
-                    for (byte b : rederedFile) {
-                        out.write(b);
+                if (WebSocket.isUpgrade(request)) {
+                    if (!WebSocket.isValidHandshake(request)) {
+                        errorResponse(HttpStatus.BAD_REQUEST).withConnection("close")
+                                .write(this.out);
+                        break;
                     }
+                    this.out.write(HttpResponse.getSwitchingProtocolsHeader("websocket",
+                            "Sec-WebSocket-Accept",
+                            WebSocket.acceptKey(request.getHeader("Sec-WebSocket-Key"))));
+                    this.out.flush();
+                    new WebSocket(request.getFilePath().toString(),
+                            new ReaderInputStream(this.client), this.out, this::close).run();
+                    break;
+                }
 
+                HttpResponse response = handle(request, EarlyHints.ENABLED);
+                this.trace.handled(response);
+
+                // an http/1.1 connection is persistent by default, http/1.0 only if asked
+                boolean keepAlive = request.isKeepAlive();
+                if (!keepAlive) {
+                    response.withConnection("close");
+                } else if (!"HTTP/1.1".equals(request.getVersion())) {
+                    response.withConnection("keep-alive");
                 }
-            }
 
-            out.close();
-            client.close();
-            input.close();
-            socket.close();
-        } catch (IOException ioe) {
+                if (request.getMethod().equals(HttpRequest.HEAD_METHOD)) {
+                    arm(TimeoutKind.WRITE);
+                    response.writeHeader(this.out);
+                    this.out.flush();
+                    if (!disarm()) {
+                        break;
+                    }
+                } else if (!Lane.of(request.getFilePath().toString(), response)
+                        .write(response, this.out, this)) {
+                    break;
+                }
+                this.trace.written();
+                if (!keepAlive) {
+                    break;
+                }
+                idle = true;
+            }
+        } catch (IOException ignored) {
 
+        } finally {
+            disarm();
+            respondExpired();
+            close();
+            releaseBuffers();
         }
     }
 
 
     // --------------------------------------------------------------------------- Static Components
 
+    /**
+     * Input stream over the client reader.
+     * The reader decodes ISO-8859-1, so every character is one byte: the stream gives back the
+     * bytes buffered by the reader and the following ones.
+     */
+    private static class ReaderInputStream extends InputStream {
+
+        /**
+         * Client reader.
+         */
+        private final Reader reader;
+
+        /**
+         * Characters buffer.
+         */
+        private char[] chars = new char[8192];
+
+        /**
+         * Create the input stream over the reader.
+         *
+         * @param reader Client reader, decoding ISO-8859-1.
+         */
+        private ReaderInputStream(Reader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * Read a byte.
+         *
+         * @return Byte read, -1 at the end of the stream.
+         * @throws IOException Error while reading.
+         */
+        @Override
+        public int read() throws IOException {
+            return this.reader.read();
+        }
+
+        /**
+         * Read bytes.
+         *
+         * @param b   Destination array.
+         * @param off Destination offset.
+         * @param len Maximum bytes to read.
+         * @return Bytes read, -1 at the end of the stream.
+         * @throws IOException Error while reading.
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = this.reader.read(this.chars, 0, Math.min(len, this.chars.length));
+            for (int i = 0; i < read; i++) {
+                b[off + i] = (byte) this.chars[i];
+            }
+            return read;
+        }
+    }
+
+    /**
+     * Input stream over a blocking socket channel.
+     * The streams of the channels utility lock the channel for every read and write, so a reader
+     * waiting for the client would block the writers, here reads and writes go straight to the
+     * channel, that allows one concurrent reader and writer.
+     */
+    private static class ChannelInputStream extends InputStream {
+
+        /**
+         * Session channel.
+         */
+        private final SocketChannel channel;
+
+        /**
+         * Create the input stream over the channel.
+         *
+         * @param channel Session channel, in blocking mode.
+         */
+        private ChannelInputStream(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Read a byte.
+         *
+         * @return Byte read, -1 at the end of the stream.
+         * @throws IOException Error while reading.
+         */
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        /**
+         * Read bytes.
+         *
+         * @param b   Destination array.
+         * @param off Destination offset.
+         * @param len Maximum bytes to read.
+         * @return Bytes read, -1 at the end of the stream.
+         * @throws IOException Error while reading.
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            return this.channel.read(ByteBuffer.wrap(b, off, len));
+        }
+
+        /**
+         * Close the channel.
+         *
+         * @throws IOException Error while closing.
+         */
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+    }
+
+    /**
+     * Output stream over a blocking socket channel.
+     */
+    private static class ChannelOutputStream extends OutputStream {
+
+        /**
+         * Session channel.
+         */
+        private final SocketChannel channel;
+
+        /**
+         * Create the output stream over the channel.
+         *
+         * @param channel Session channel, in blocking mode.
+         */
+        private ChannelOutputStream(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Write a byte.
+         *
+         * @param b Byte to write.
+         * @throws IOException Error while writing.
+         */
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        /**
+         * Write bytes, a blocking channel writes all of them.
+         *
+         * @param b   Source array.
+         * @param off Source offset.
+         * @param len Bytes to write.
+         * @throws IOException Error while writing.
+         */
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                this.channel.write(buffer);
+            }
+        }
+
+        /**
+         * Close the channel.
+         *
+         * @throws IOException Error while closing.
+         */
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+    }
 }
@@ -83,6 +83,11 @@ public class HttpStatus {
      */
     public static final HttpStatus SWITCHING_PROTOCOLS = new HttpStatus(101, "Switching Protocols", INFORMATIONAL);
 
+    /**
+     * Early hints status.
+     */
+    public static final HttpStatus EARLY_HINTS = new HttpStatus(103, "Early Hints", INFORMATIONAL);
+
     /**
      * OK status.
      */
@@ -118,11 +123,21 @@ public class HttpStatus {
      */
     public static final HttpStatus NOT_FOUND = new HttpStatus(404, "Not Found", CLIENT_ERROR);
 
+    /**
+     * Request timeout status.
+     */
+    public static final HttpStatus REQUEST_TIMEOUT = new HttpStatus(408, "Request Timeout", CLIENT_ERROR);
+
     /**
      * Conflict status.
      */
     public static final HttpStatus CONFLICT = new HttpStatus(409, "Conflict", CLIENT_ERROR);
 
+    /**
+     * Too many requests status.
+     */
+    public static final HttpStatus TOO_MANY_REQUESTS = new HttpStatus(429, "Too Many Requests", CLIENT_ERROR);
+
     /**
      * Internal server error status.
      */
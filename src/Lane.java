@@ -0,0 +1,295 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Scheduling lane of the response writes.
+ * Every response is classified by its expected cost: the small responses go in the small lane,
+ * the responses larger than the large size, the audio and video files and the routes assigned to
+ * the large lane go in the large lane. Every lane limits its concurrent writers with a fair
+ * semaphore. The large responses are written in chunks, taking the permit again for every chunk,
+ * so the large transfers take turns and never hold back the small lane. The paced responses are
+ * written in slices, waiting for their pace before taking the permit.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-23)
+ */
+public class Lane {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Response size from which a response goes in the large lane, in bytes.
+     */
+    public static final int LARGE_SIZE = Integer.getInteger("openweb.lanes.large.size", 1 << 20);
+
+    /**
+     * Bytes written by a large response for every turn.
+     */
+    public static final int CHUNK_SIZE = Integer.getInteger("openweb.lanes.chunk", 256 * 1024);
+
+    /**
+     * Routes assigned to a lane, as "prefix=small|large" separated by commas.
+     */
+    public static final String ROUTES = System.getProperty("openweb.lanes.routes", "");
+
+    /**
+     * Lane of the small responses.
+     */
+    public static final Lane SMALL = new Lane("small",
+            Integer.getInteger("openweb.lanes.small.concurrency", 1024), Integer.MAX_VALUE,
+            TimeoutKind.WRITE);
+
+    /**
+     * Lane of the large responses.
+     */
+    public static final Lane LARGE = new Lane("large",
+            Integer.getInteger("openweb.lanes.large.concurrency",
+                    Math.max(Runtime.getRuntime().availableProcessors() / 2, 2)), CHUNK_SIZE,
+            TimeoutKind.CHUNK_WRITE);
+
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Routes assigned to a lane, in declaration order.
+     */
+    private static final Map<String, Lane> ROUTE_LANES = parseRoutes(ROUTES);
+
+    /**
+     * Lane name.
+     */
+    private final String name;
+
+    /**
+     * Concurrent writers permits.
+     */
+    private final Semaphore writers;
+
+    /**
+     * Bytes written for every turn.
+     */
+    private final int chunkSize;
+
+    /**
+     * Timeout of a chunk write, a slow client must not hold a turn for long.
+     */
+    private final TimeoutKind chunkTimeout;
+
+    /**
+     * Responses written in the lane.
+     */
+    private final LongAdder responses = new LongAdder();
+
+    /**
+     * Total time waiting for the turns, in nanoseconds.
+     */
+    private final LongAdder queueTime = new LongAdder();
+
+    /**
+     * Longest wait for a turn since the last report, in nanoseconds.
+     */
+    private final AtomicLong maxQueueTime = new AtomicLong();
+
+    /**
+     * Writers waiting for their turn.
+     */
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    // --------------------------------------------------------------------------- Getters & Setters
+
+    /**
+     * Get the lane name.
+     *
+     * @return Lane name.
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * Create the lane and register its statistics.
+     *
+     * @param name         Lane name.
+     * @param concurrency  Maximum concurrent writers.
+     * @param chunkSize    Bytes written for every turn.
+     * @param chunkTimeout Timeout of a chunk write.
+     */
+    public Lane(String name, int concurrency, int chunkSize, TimeoutKind chunkTimeout) {
+        this.name = name;
+        this.writers = new Semaphore(Math.max(concurrency, 1), true);
+        this.chunkSize = chunkSize;
+        this.chunkTimeout = chunkTimeout;
+        StatsReporter.register("lane-" + name, this::report);
+    }
+
+    // -------------------------------------------------------------------------------- Help Methods
+
+    /**
+     * Wait for a turn to write.
+     *
+     * @throws IOException Interrupted while waiting.
+     */
+    private void acquire() throws IOException {
+        long start = System.nanoTime();
+        this.waiting.incrementAndGet();
+        try {
+            this.writers.acquire();
+        } catch (InterruptedException ie) {
+            throw new IOException("interrupted waiting for the " + this.name + " lane", ie);
+        } finally {
+            this.waiting.decrementAndGet();
+        }
+        long time = System.nanoTime() - start;
+        this.queueTime.add(time);
+        this.maxQueueTime.accumulateAndGet(time, Math::max);
+    }
+
+    // ----------------------------------------------------------------------------- General Methods
+
+    /**
+     * Write a response in the lane, the write timeout runs only while writing, not while waiting.
+     * Every chunk has its own timeout: in the large lane it's short, a client too slow to take a
+     * chunk in time is closed and its turn goes to the next writer.
+     *
+     * @param response Http response.
+     * @param out      Client output stream.
+     * @param session  Session of the client, for the write timeout.
+     * @return False if the write timeout expired and the connection is closed.
+     * @throws IOException Error while writing to the client.
+     */
+    public boolean write(HttpResponse response, OutputStream out, HttpSession session)
+            throws IOException {
+        this.responses.increment();
+        int length = response.getContentLength();
+        int offset = 0;
+        boolean header = true;
+        Pacer.Transfer transfer = Pacer.start(response);
+        int chunkSize = transfer != null ? Math.min(this.chunkSize, transfer.getSlice())
+                : this.chunkSize;
+        try {
+            do {
+                int chunk = Math.min(length - offset, chunkSize);
+                if (transfer != null) {
+                    // wait for the pace without holding the lane
+                    transfer.pace(chunk);
+                }
+                acquire();
+                try {
+                    session.arm(this.chunkTimeout);
+                    if (header && chunk == length && response.getMessage() != null
+                            && response.getConnection() == null) {
+                        // prebuilt message in a single chunk, header and body at once
+                        out.write(response.getMessage());
+                    } else {
+                        if (header) {
+                            response.writeHeader(out);
+                        }
+                        response.writeBody(out, offset, chunk);
+                    }
+                    header = false;
+                    out.flush();
+                    if (!session.disarm()) {
+                        return false;
+                    }
+                } finally {
+                    this.writers.release();
+                }
+                if (transfer != null) {
+                    transfer.sent(chunk);
+                } else {
+                    Pacer.sent(chunk);
+                }
+                offset += chunk;
+            } while (offset < length);
+        } finally {
+            if (transfer != null) {
+                transfer.finish();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Build the lane statistics, the longest wait is reset.
+     *
+     * @return Responses, waiting writers, mean wait of a response and longest wait of a turn.
+     */
+    public String report() {
+        long responses = this.responses.sum();
+        return String.format("responses=%d waiting=%d queue-mean=%.3fms queue-max=%.3fms",
+                responses, this.waiting.get(),
+                responses > 0 ? this.queueTime.sum() / 1e6 / responses : 0.0,
+                this.maxQueueTime.getAndSet(0) / 1e6);
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Parse the routes assigned to a lane.
+     *
+     * @param routes Routes, as "prefix=small|large" separated by commas.
+     * @return Lanes by path prefix, in declaration order.
+     */
+    private static Map<String, Lane> parseRoutes(String routes) {
+        Map<String, Lane> lanes = new LinkedHashMap<>();
+        for (String route : routes.split(",")) {
+            String[] parts = route.trim().split("=");
+            if (parts.length == 2) {
+                lanes.put(parts[0].trim(), parts[1].trim().equals(LARGE.name) ? LARGE : SMALL);
+            }
+        }
+        return lanes;
+    }
+
+    /**
+     * Classify a response by its expected cost.
+     *
+     * @param path     Request path.
+     * @param response Http response of the request.
+     * @return Lane of the response.
+     */
+    public static Lane of(String path, HttpResponse response) {
+        for (Map.Entry<String, Lane> route : ROUTE_LANES.entrySet()) {
+            if (path.startsWith(route.getKey())) {
+                return route.getValue();
+            }
+        }
+        String contentType = response.getContentType();
+        if (response.getContentLength() >= LARGE_SIZE || contentType.startsWith("video/")
+                || contentType.startsWith("audio/")) {
+            return LARGE;
+        }
+        return SMALL;
+    }
+}
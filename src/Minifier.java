@@ -0,0 +1,460 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minifiers of the text assets: html, css and javascript.
+ * They are conservative: they drop the comments and the redundant whitespace, never rename or
+ * reorder anything. Strings, quoted attributes and the content of pre and textarea are kept as
+ * they are; the style and script elements of html are minified as css and javascript. The
+ * javascript keeps its line breaks, the automatic semicolon insertion depends on them. A slash
+ * after a parenthesis or a brace, a division or a regular expression, is copied as it is, and a
+ * script where that copy could change its meaning is not minified at all.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-03-03)
+ */
+public class Minifier {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Html minifier.
+     */
+    public static final Transform HTML = Minifier::html;
+
+    /**
+     * Css minifier.
+     */
+    public static final Transform CSS = Minifier::css;
+
+    /**
+     * Javascript minifier.
+     */
+    public static final Transform JS = Minifier::js;
+
+    /**
+     * Chars after which a slash starts a regular expression, not a division.
+     */
+    private static final String REGEX_PREFIX = "(,=:[!&|?{;+-*%<>~^";
+
+    /**
+     * Chars after which a slash is either a division or a regular expression.
+     */
+    private static final String REGEX_AMBIGUOUS = ")}";
+
+    /**
+     * Javascript chars that never end a statement, no semicolon is inserted after them.
+     */
+    private static final String JS_OPEN = "{;,(=:[?&|!<>*%^~";
+
+    /**
+     * Javascript chars that never start a statement, no semicolon is inserted before them.
+     */
+    private static final String JS_CLOSE = "})];,.:?=&|";
+
+    /**
+     * Keywords after which a slash starts a regular expression.
+     */
+    private static final String[] REGEX_KEYWORDS = {"return", "typeof", "case", "do", "else",
+            "in", "of", "void", "yield", "delete", "throw", "new", "instanceof"};
+
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * Minifier has only static components.
+     */
+    private Minifier() {
+
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Check if a char is a whitespace.
+     *
+     * @param c Char to check.
+     * @return True for space, tab, line feed, carriage return and form feed.
+     */
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    /**
+     * Check if a space is needed between two javascript chars, so the tokens don't join.
+     *
+     * @param last Last char written.
+     * @param next Next char to write.
+     * @return True for two word chars, like "var a" or "1 .toString", for "+ +", "- -", "/ /"
+     * and "< !", that would open an html comment.
+     */
+    private static boolean needsSpace(char last, char next) {
+        boolean lastWord = Character.isLetterOrDigit(last) || last == '_' || last == '$'
+                || last == '\\' || last == '.' || last > 127;
+        boolean nextWord = Character.isLetterOrDigit(next) || next == '_' || next == '$'
+                || next == '\\' || next == '.' || next > 127;
+        return lastWord && nextWord || (last == '+' || last == '-') && (next == '+' || next == '-')
+                || last == '/' && (next == '/' || next == '*') || last == '<' && next == '!';
+    }
+
+    /**
+     * Check if a new line is needed between two javascript chars, for the automatic semicolon
+     * insertion.
+     *
+     * @param last Last char written.
+     * @param next Next char to write.
+     * @return False when the last char can't end a statement or the next char can't start one.
+     */
+    private static boolean needsNewline(char last, char next) {
+        return JS_OPEN.indexOf(last) < 0 && JS_CLOSE.indexOf(next) < 0;
+    }
+
+    /**
+     * Find the end of a quoted string, skipping the escaped chars.
+     *
+     * @param source Source text.
+     * @param start  Index of the opening quote.
+     * @return Index after the closing quote, the source length if not closed.
+     */
+    private static int skipString(String source, int start) {
+        char quote = source.charAt(start);
+        for (int i = start + 1; i < source.length(); i++) {
+            char c = source.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == quote) {
+                return i + 1;
+            }
+        }
+        return source.length();
+    }
+
+    /**
+     * Find the index of a string ignoring the case.
+     *
+     * @param source Source text.
+     * @param string String to find, lower case.
+     * @param from   Index to start from.
+     * @return Index of the string, -1 if not found.
+     */
+    private static int indexOfIgnoreCase(String source, String string, int from) {
+        for (int i = from; i <= source.length() - string.length(); i++) {
+            if (source.regionMatches(true, i, string, 0, string.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Minify html: drop the comments, except the conditional ones, and collapse the whitespace.
+     *
+     * @param content Html content, one char for every byte.
+     * @return Minified html.
+     */
+    public static byte[] html(byte[] content) {
+        String source = new String(content, StandardCharsets.ISO_8859_1);
+        StringBuilder out = new StringBuilder(source.length());
+        int i = 0;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            if (source.startsWith("<!--", i) && !source.startsWith("<!--[if", i)) {
+                int end = source.indexOf("-->", i + 4);
+                i = end < 0 ? source.length() : end + 3;
+            } else if (c == '<') {
+                // copy the tag, collapsing the whitespace between the attributes
+                int tagStart = out.length();
+                int end = i + 1;
+                boolean space = false;
+                out.append(c);
+                while (end < source.length() && source.charAt(end) != '>') {
+                    char t = source.charAt(end);
+                    if (isSpace(t)) {
+                        space = true;
+                        end++;
+                        continue;
+                    }
+                    char last = out.charAt(out.length() - 1);
+                    if (space && t != '/' && t != '=' && last != '=' && last != '<') {
+                        out.append(' ');
+                    }
+                    space = false;
+                    if (t == '"' || t == '\'') {
+                        int close = skipQuoted(source, end);
+                        out.append(source, end, close);
+                        end = close;
+                    } else {
+                        out.append(t);
+                        end++;
+                    }
+                }
+                out.append('>');
+                i = Math.min(end + 1, source.length());
+
+                String tag = out.substring(tagStart + 1).toLowerCase();
+                for (String raw : new String[]{"pre", "textarea", "script", "style"}) {
+                    if (tag.startsWith(raw)
+                            && !Character.isLetterOrDigit(tag.charAt(raw.length()))) {
+                        int close = indexOfIgnoreCase(source, "</" + raw, i);
+                        close = close < 0 ? source.length() : close;
+                        String body = source.substring(i, close);
+                        if (raw.equals("script")
+                                && (!tag.contains("type=") || tag.contains("javascript"))) {
+                            body = new String(js(body.getBytes(StandardCharsets.ISO_8859_1)),
+                                    StandardCharsets.ISO_8859_1);
+                        } else if (raw.equals("style")) {
+                            body = new String(css(body.getBytes(StandardCharsets.ISO_8859_1)),
+                                    StandardCharsets.ISO_8859_1);
+                        }
+                        out.append(body);
+                        i = close;
+                        break;
+                    }
+                }
+            } else if (isSpace(c)) {
+                while (i < source.length() && isSpace(source.charAt(i))) {
+                    i++;
+                }
+                if (out.length() > 0 && out.charAt(out.length() - 1) != ' '
+                        && i < source.length()) {
+                    out.append(' ');
+                }
+            } else {
+                out.append(c);
+                i++;
+            }
+        }
+        return out.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Find the end of a quoted attribute value, html has no escapes.
+     *
+     * @param source Source text.
+     * @param start  Index of the opening quote.
+     * @return Index after the closing quote, the source length if not closed.
+     */
+    private static int skipQuoted(String source, int start) {
+        int close = source.indexOf(source.charAt(start), start + 1);
+        return close < 0 ? source.length() : close + 1;
+    }
+
+    /**
+     * Minify css: drop the comments, collapse the whitespace and drop it around the braces,
+     * semicolons, commas and after the colons, drop the last semicolon of a block.
+     *
+     * @param content Css content, one char for every byte.
+     * @return Minified css.
+     */
+    public static byte[] css(byte[] content) {
+        String source = new String(content, StandardCharsets.ISO_8859_1);
+        StringBuilder out = new StringBuilder(source.length());
+        boolean space = false;
+        int i = 0;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            if (c == '/' && source.startsWith("/*", i)) {
+                int end = source.indexOf("*/", i + 2);
+                i = end < 0 ? source.length() : end + 2;
+                continue;
+            }
+            if (isSpace(c)) {
+                space = true;
+                i++;
+                continue;
+            }
+
+            char last = out.length() > 0 ? out.charAt(out.length() - 1) : '{';
+            if (c == '}' && last == ';') {
+                out.setLength(out.length() - 1);
+            } else if (space && "{};,".indexOf(c) < 0 && "{};,:".indexOf(last) < 0) {
+                out.append(' ');
+            }
+            space = false;
+
+            if (c == '"' || c == '\'') {
+                int end = skipString(source, i);
+                out.append(source, i, end);
+                i = end;
+            } else {
+                out.append(c);
+                i++;
+            }
+        }
+        return out.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Check if a slash at the current output end starts a regular expression.
+     *
+     * @param out Output so far, trailing spaces excluded.
+     * @return True if the slash starts a regular expression.
+     */
+    private static boolean isRegexStart(StringBuilder out) {
+        int end = out.length();
+        while (end > 0 && isSpace(out.charAt(end - 1))) {
+            end--;
+        }
+        if (end == 0) {
+            return true;
+        }
+        char last = out.charAt(end - 1);
+        if (REGEX_PREFIX.indexOf(last) >= 0) {
+            return true;
+        }
+        for (String keyword : REGEX_KEYWORDS) {
+            int start = end - keyword.length();
+            if (start >= 0 && out.substring(start, end).equals(keyword)
+                    && (start == 0 || !Character.isJavaIdentifierPart(out.charAt(start - 1)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if a slash at the current output end could be a division or a regular expression.
+     *
+     * @param out Output so far, trailing spaces excluded.
+     * @return True if the slash follows a closing parenthesis or brace.
+     */
+    private static boolean isRegexAmbiguous(StringBuilder out) {
+        int end = out.length();
+        while (end > 0 && isSpace(out.charAt(end - 1))) {
+            end--;
+        }
+        return end > 0 && REGEX_AMBIGUOUS.indexOf(out.charAt(end - 1)) >= 0;
+    }
+
+    /**
+     * Check if an ambiguous slash token copied as it is reads the same as a division and as a
+     * regular expression: it is closed on its line, holds no string and isn't followed by a
+     * comment.
+     *
+     * @param source Javascript source.
+     * @param start  Index of the opening slash.
+     * @param end    Index of the closing slash, or of the line end if not closed.
+     * @return True if the token can be copied as it is.
+     */
+    private static boolean isVerbatim(String source, int start, int end) {
+        if (end >= source.length() || source.charAt(end) != '/') {
+            return false;
+        }
+        for (int i = start + 1; i < end; i++) {
+            if ("'\"`".indexOf(source.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+        return end + 1 >= source.length() || "/*".indexOf(source.charAt(end + 1)) < 0;
+    }
+
+    /**
+     * Minify javascript: drop the comments and the whitespace, keeping a space only between the
+     * tokens that would join and a new line only where a semicolon could be inserted. Strings,
+     * template literals and regular expressions are kept as they are.
+     *
+     * @param content Javascript content, one char for every byte.
+     * @return Minified javascript, the content itself if an ambiguous slash can't be kept.
+     */
+    public static byte[] js(byte[] content) {
+        String source = new String(content, StandardCharsets.ISO_8859_1);
+        StringBuilder out = new StringBuilder(source.length());
+        boolean space = false;
+        boolean newline = false;
+        int i = 0;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            if (c == '/' && source.startsWith("/*", i)) {
+                int end = source.indexOf("*/", i + 2);
+                String comment = source.substring(i, end < 0 ? source.length() : end);
+                newline |= comment.indexOf('\n') >= 0;
+                space = true;
+                i = end < 0 ? source.length() : end + 2;
+                continue;
+            }
+            if (c == '/' && source.startsWith("//", i)) {
+                int end = source.indexOf('\n', i);
+                i = end < 0 ? source.length() : end;
+                continue;
+            }
+            if (c == '\n' || c == '\r') {
+                newline = true;
+                i++;
+                continue;
+            }
+            if (isSpace(c)) {
+                space = true;
+                i++;
+                continue;
+            }
+
+            if (out.length() > 0) {
+                char last = out.charAt(out.length() - 1);
+                if (newline && needsNewline(last, c)) {
+                    out.append('\n');
+                } else if ((space || newline) && needsSpace(last, c)) {
+                    out.append(' ');
+                }
+            }
+            boolean ambiguous = c == '/' && isRegexAmbiguous(out);
+            boolean regex = c == '/' && (ambiguous || isRegexStart(out));
+            newline = false;
+            space = false;
+
+            if (c == '"' || c == '\'' || c == '`') {
+                int end = skipString(source, i);
+                out.append(source, i, end);
+                i = end;
+            } else if (regex) {
+                // copy the regular expression, a slash in a class doesn't end it
+                int end = i + 1;
+                boolean inClass = false;
+                while (end < source.length() && source.charAt(end) != '\n') {
+                    char r = source.charAt(end);
+                    if (r == '\\') {
+                        end++;
+                    } else if (r == '[') {
+                        inClass = true;
+                    } else if (r == ']') {
+                        inClass = false;
+                    } else if (r == '/' && !inClass) {
+                        break;
+                    }
+                    end++;
+                }
+                if (ambiguous && !isVerbatim(source, i, end)) {
+                    return content;
+                }
+                end = Math.min(end + 1, source.length());
+                out.append(source, i, end);
+                i = end;
+            } else {
+                out.append(c);
+                i++;
+            }
+        }
+        return out.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
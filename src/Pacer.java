@@ -0,0 +1,316 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bandwidth pacing of the large and media responses.
+ * A response larger than the pacing size, or of a paced file kind, is written in slices at the
+ * pacing rate of its connection. Every slice takes its bytes from the token bucket of the transfer
+ * and from the global egress bucket; the other responses take from the global bucket without
+ * waiting, so the paced transfers use only the bandwidth left under the global cap. A writer that
+ * must wait parks until the shared pacing wheel wakes it up, no timer runs for a connection.
+ * Every paced transfer has its statistics while running, with the current and the target rate.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-03-05)
+ */
+public class Pacer {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Pacing rate of a connection, in bytes per second, 0 disables the pacing.
+     */
+    public static final long RATE = Long.getLong("openweb.pacing.rate", 0);
+
+    /**
+     * Global egress cap of all the responses, in bytes per second, 0 for no cap.
+     */
+    public static final long GLOBAL_RATE = Long.getLong("openweb.pacing.global", 0);
+
+    /**
+     * Response size from which a response is paced, in bytes.
+     */
+    public static final int SIZE = Integer.getInteger("openweb.pacing.size", 8 << 20);
+
+    /**
+     * Paced file kinds, as "video" or "video/mpeg" separated by commas.
+     */
+    public static final String[] KINDS = System.getProperty("openweb.pacing.kinds", "video,audio")
+            .trim().split("\\s*,\\s*");
+
+    /**
+     * Bytes a transfer sends at full speed before the pacing starts.
+     */
+    public static final int BURST = Integer.getInteger("openweb.pacing.burst", 256 * 1024);
+
+    /**
+     * Tick of the pacing wheel, in milliseconds.
+     */
+    public static final int TICK = Integer.getInteger("openweb.pacing.tick", 10);
+
+    /**
+     * Slices written every second by a paced transfer.
+     */
+    private static final int SLICES = 10;
+
+    /**
+     * Smallest slice of a paced transfer, in bytes.
+     */
+    private static final int MIN_SLICE = 8 * 1024;
+
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Wheel waking up the paced writers, shared by all the transfers.
+     */
+    private static final TimingWheel WHEEL = new TimingWheel("pacing", TICK, TimeUnit.MILLISECONDS,
+            512);
+
+    /**
+     * Global egress bucket.
+     */
+    private static final TokenBucket EGRESS = new TokenBucket(System.nanoTime());
+
+    /**
+     * Bytes written by all the responses.
+     */
+    private static final RateMeter EGRESS_BYTES = new RateMeter();
+
+    /**
+     * Paced transfers.
+     */
+    private static final LongAdder TRANSFERS = new LongAdder();
+
+    /**
+     * Waits of the paced transfers.
+     */
+    private static final LongAdder WAITS = new LongAdder();
+
+    /**
+     * Paced transfers running.
+     */
+    private static final AtomicInteger ACTIVE = new AtomicInteger();
+
+    /**
+     * Identifier of the next paced transfer.
+     */
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    static {
+        WHEEL.start();
+        StatsReporter.register("pacing", Pacer::report);
+    }
+
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * Pacer has only static components.
+     */
+    private Pacer() {
+
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Check if a response is paced.
+     *
+     * @param response Http response.
+     * @return True if the pacing is enabled and the response is large or of a paced kind.
+     */
+    public static boolean isPaced(HttpResponse response) {
+        if (RATE <= 0) {
+            return false;
+        }
+        if (response.getContentLength() >= SIZE) {
+            return true;
+        }
+        String contentType = response.getContentType();
+        for (String kind : KINDS) {
+            if (!kind.isEmpty()
+                    && (contentType.equals(kind) || contentType.startsWith(kind + "/"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Start the pacing of a response.
+     *
+     * @param response Http response, not written yet.
+     * @return Paced transfer, null if the response is not paced.
+     */
+    public static Transfer start(HttpResponse response) {
+        return isPaced(response) ? new Transfer(response.getContentLength()) : null;
+    }
+
+    /**
+     * Count the bytes written by a response not paced.
+     * They take from the global egress bucket without waiting.
+     *
+     * @param bytes Bytes written.
+     */
+    public static void sent(int bytes) {
+        EGRESS_BYTES.mark(bytes);
+        if (GLOBAL_RATE > 0) {
+            EGRESS.consume(System.nanoTime(), bytes * TimeUnit.SECONDS.toNanos(1) / GLOBAL_RATE);
+        }
+    }
+
+    /**
+     * Take bytes from a bucket, waiting on the pacing wheel until they are available.
+     *
+     * @param bucket Token bucket.
+     * @param bytes  Bytes to take.
+     * @param rate   Bucket rate, in bytes per second.
+     * @throws IOException Interrupted while waiting.
+     */
+    private static void take(TokenBucket bucket, int bytes, long rate) throws IOException {
+        long interval = bytes * TimeUnit.SECONDS.toNanos(1) / rate;
+        long tolerance = BURST * TimeUnit.SECONDS.toNanos(1) / rate;
+        long wait;
+        while ((wait = bucket.take(System.nanoTime(), interval, tolerance)) > 0) {
+            WAITS.increment();
+            Thread writer = Thread.currentThread();
+            TimingWheel.Timeout wakeUp = WHEEL.schedule(() -> LockSupport.unpark(writer), wait,
+                    TimeUnit.NANOSECONDS);
+            while (!wakeUp.isExpired()) {
+                LockSupport.park(bucket);
+                if (Thread.interrupted()) {
+                    wakeUp.cancel();
+                    throw new InterruptedIOException("interrupted while paced");
+                }
+            }
+        }
+    }
+
+    /**
+     * Build the pacing statistics.
+     *
+     * @return Paced transfers, running transfers, waits and egress rate.
+     */
+    private static String report() {
+        return "transfers=" + TRANSFERS.sum() + " active=" + ACTIVE.get() + " waits=" + WAITS.sum()
+                + String.format(" egress=%.1fKB/s", EGRESS_BYTES.rate() / 1024)
+                + (GLOBAL_RATE > 0 ? " cap=" + GLOBAL_RATE / 1024 + "KB/s" : "");
+    }
+
+    /**
+     * Paced transfer of a response on a connection.
+     */
+    public static class Transfer {
+
+        /**
+         * Statistics name of the transfer, by an opaque id: the statistics don't show the clients.
+         */
+        private final String name;
+
+        /**
+         * Response length, in bytes.
+         */
+        private final int length;
+
+        /**
+         * Token bucket of the transfer.
+         */
+        private final TokenBucket bucket = new TokenBucket(System.nanoTime());
+
+        /**
+         * Bytes written.
+         */
+        private final RateMeter bytes = new RateMeter();
+
+        /**
+         * Start the paced transfer and register its statistics.
+         *
+         * @param length Response length, in bytes.
+         */
+        private Transfer(int length) {
+            this.name = "pacing-" + NEXT_ID.incrementAndGet();
+            this.length = length;
+            TRANSFERS.increment();
+            ACTIVE.incrementAndGet();
+            StatsReporter.register(this.name, this::report);
+        }
+
+        /**
+         * Get the bytes of a slice, a tenth of a second at the pacing rate.
+         *
+         * @return Slice size, in bytes.
+         */
+        public int getSlice() {
+            return (int) Math.min(Math.max(RATE / SLICES, MIN_SLICE), Integer.MAX_VALUE);
+        }
+
+        /**
+         * Wait until a slice can be written, at the connection rate and under the global cap.
+         *
+         * @param bytes Slice size, in bytes.
+         * @throws IOException Interrupted while waiting.
+         */
+        public void pace(int bytes) throws IOException {
+            take(this.bucket, bytes, RATE);
+            if (GLOBAL_RATE > 0) {
+                take(EGRESS, bytes, GLOBAL_RATE);
+            }
+        }
+
+        /**
+         * Count the bytes of a slice written.
+         *
+         * @param bytes Bytes written.
+         */
+        public void sent(int bytes) {
+            this.bytes.mark(bytes);
+            EGRESS_BYTES.mark(bytes);
+        }
+
+        /**
+         * End the transfer and remove its statistics.
+         */
+        public void finish() {
+            ACTIVE.decrementAndGet();
+            StatsReporter.unregister(this.name);
+        }
+
+        /**
+         * Build the transfer statistics.
+         *
+         * @return Bytes written, current rate and target rate.
+         */
+        private String report() {
+            return String.format("sent=%dKB/%dKB rate=%.1fKB/s target=%dKB/s",
+                    this.bytes.getCount() >> 10, this.length >> 10, this.bytes.rate() / 1024,
+                    RATE >> 10);
+        }
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache sharing between server instances.
+ * Every file path is owned by one of the configured peers, chosen by consistent hashing of the
+ * request path on a ring with virtual nodes of the peers that are up. A file missing from the
+ * cache and owned by another peer is fetched from it with a plain http request marked by the
+ * peer header, the owner serves it from its own cache reading the disk at most once for all the
+ * instances. On timeout or error the file is read from the disk. The health of the peers is
+ * tracked by the fetches: a peer that can't be reached or doesn't answer in time is taken out of
+ * the ring, the peer thread probes the peers that are down with a request at every check interval
+ * and puts them back in the ring when they answer.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-24)
+ */
+public class PeerCache extends Thread {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Peers, as "host:port" separated by commas, empty disables the peer mode.
+     */
+    public static final String PEERS = System.getProperty("openweb.peers", "");
+
+    /**
+     * Address of this instance in the peers.
+     */
+    public static final String SELF = System.getProperty("openweb.peers.self",
+            "127.0.0.1:" + WebServer.PORT);
+
+    /**
+     * Milliseconds to wait a peer before reading the disk.
+     */
+    public static final int TIMEOUT = Integer.getInteger("openweb.peers.timeout", 200);
+
+    /**
+     * Milliseconds between the probes of the peers that are down.
+     */
+    public static final long CHECK_INTERVAL = Long.getLong("openweb.peers.check", 2000);
+
+    /**
+     * Virtual nodes of every peer on the ring.
+     */
+    public static final int VIRTUAL_NODES = 128;
+
+    /**
+     * Header marking the requests of a peer, served without asking other peers.
+     */
+    public static final String PEER_HEADER = "X-Openweb-Peer";
+
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Peer cache, null if the peer mode is disabled.
+     */
+    private static final PeerCache INSTANCE = PEERS.trim().isEmpty() ? null : new PeerCache(PEERS);
+
+    static {
+        if (INSTANCE != null) {
+            INSTANCE.start();
+            StatsReporter.register("peers", INSTANCE::report);
+        }
+    }
+
+    /**
+     * Configured peers, this instance included.
+     */
+    private final List<String> peers = new ArrayList<>();
+
+    /**
+     * Peers that are up.
+     */
+    private final Set<String> up = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Ring of the peers that are up, by virtual node hash.
+     */
+    private volatile TreeMap<Long, String> ring = new TreeMap<>();
+
+    /**
+     * Files fetched from the peers.
+     */
+    private final LongAdder fetched = new LongAdder();
+
+    /**
+     * Fetches failed, served from the disk.
+     */
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * Files served to the peers.
+     */
+    private final LongAdder served = new LongAdder();
+
+    // --------------------------------------------------------------------------- Getters & Setters
+
+    /**
+     * Get the number of peers that are up, this instance included.
+     *
+     * @return Number of peers that are up.
+     */
+    public int getPeersUp() {
+        return this.up.size();
+    }
+
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * Create the peer cache, all the peers are up until the first check.
+     *
+     * @param peers Peers, as "host:port" separated by commas.
+     */
+    public PeerCache(String peers) {
+        super("peer-cache");
+        setDaemon(true);
+
+        Set<String> addresses = new LinkedHashSet<>();
+        for (String peer : peers.split(",")) {
+            if (!peer.trim().isEmpty()) {
+                addresses.add(peer.trim());
+            }
+        }
+        addresses.add(SELF);
+        this.peers.addAll(addresses);
+        this.up.addAll(addresses);
+        buildRing();
+    }
+
+    // -------------------------------------------------------------------------------- Help Methods
+
+    /**
+     * Hash a key on the ring.
+     *
+     * @param key Key to hash.
+     * @return First 64 bits of the key MD5.
+     */
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5")
+                    .digest(key.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = hash << 8 | (digest[i] & 0xff);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException(nsae);
+        }
+    }
+
+    /**
+     * Build the ring of the peers that are up.
+     */
+    private void buildRing() {
+        TreeMap<Long, String> ring = new TreeMap<>();
+        for (String peer : this.peers) {
+            if (this.up.contains(peer)) {
+                for (int i = 0; i < VIRTUAL_NODES; i++) {
+                    ring.put(hash(peer + "#" + i), peer);
+                }
+            }
+        }
+        this.ring = ring;
+    }
+
+    /**
+     * Open a connection to a peer.
+     *
+     * @param peer Peer address, "host:port".
+     * @return Connected socket with the read timeout.
+     * @throws IOException Error while connecting.
+     */
+    private static Socket connect(String peer) throws IOException {
+        int colon = peer.lastIndexOf(':');
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(peer.substring(0, colon),
+                    Integer.parseInt(peer.substring(colon + 1))), TIMEOUT);
+            socket.setSoTimeout(TIMEOUT);
+            socket.setTcpNoDelay(true);
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+        return socket;
+    }
+
+    /**
+     * Probe a peer with a HEAD request, any http response means it's up.
+     *
+     * @param peer Peer address, "host:port".
+     * @return True if the peer answered.
+     */
+    private static boolean probe(String peer) {
+        try (Socket socket = connect(peer)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("HEAD / HTTP/1.0\r\n" + PEER_HEADER + ": " + SELF + "\r\n\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            return readLine(socket.getInputStream()).startsWith("HTTP/");
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Take a peer out of the ring after a failed fetch, until a probe finds it up again.
+     *
+     * @param peer Peer address, "host:port".
+     */
+    private synchronized void down(String peer) {
+        if (this.up.remove(peer)) {
+            buildRing();
+        }
+    }
+
+    /**
+     * Read a response head line.
+     *
+     * @param in Response input.
+     * @return Line without the line end.
+     * @throws IOException Error while reading or end of the stream.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                throw new IOException("peer closed the connection");
+            }
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return line.toString();
+    }
+
+    // ----------------------------------------------------------------------------- General Methods
+
+    /**
+     * Get the owner peer of a request path.
+     *
+     * @param requestPath Request path.
+     * @return Owner peer address, this instance if no peer is up.
+     */
+    public String getOwner(String requestPath) {
+        TreeMap<Long, String> ring = this.ring;
+        if (ring.isEmpty()) {
+            return SELF;
+        }
+        Map.Entry<Long, String> owner = ring.ceilingEntry(hash(requestPath));
+        return owner != null ? owner.getValue() : ring.firstEntry().getValue();
+    }
+
+    /**
+     * Fetch a document root file from its owner peer.
+     *
+     * @param path Normalized path of the file, under the document root.
+     * @return Http response of the owner, null if this instance owns the file or on error.
+     */
+    public HttpResponse fetch(Path path) {
+        String requestPath = "/" + VirtualHost.getDefault().getRoot().relativize(path).toString()
+                .replace('\\', '/');
+        String owner = getOwner(requestPath);
+        if (owner.equals(SELF)) {
+            return null;
+        }
+
+        try (Socket socket = connect(owner)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET " + requestPath + " HTTP/1.0\r\n" + PEER_HEADER + ": " + SELF
+                    + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            String status = readLine(in);
+            String contentType = null;
+            int contentLength = -1;
+            for (String line = readLine(in); !line.isEmpty(); line = readLine(in)) {
+                int colon = line.indexOf(':');
+                String name = colon > 0 ? line.substring(0, colon).trim() : "";
+                if (name.equalsIgnoreCase("Content-Type")) {
+                    contentType = line.substring(colon + 1).trim();
+                } else if (name.equalsIgnoreCase("Content-Length")) {
+                    contentLength = Integer.parseInt(line.substring(colon + 1).trim());
+                }
+            }
+            if (!status.contains(" " + HttpStatus.OK.getCode() + " ") || contentType == null
+                    || contentLength < 0) {
+                this.failed.increment();
+                return null;
+            }
+
+            byte[] body = new byte[contentLength];
+            new DataInputStream(in).readFully(body);
+            this.fetched.increment();
+            return new HttpResponse(HttpStatus.OK, contentType, body);
+        } catch (IOException ioe) {
+            // not reachable or too slow
+            this.failed.increment();
+            down(owner);
+            return null;
+        } catch (RuntimeException re) {
+            this.failed.increment();
+            return null;
+        }
+    }
+
+    /**
+     * Count a file served to a peer.
+     */
+    public void served() {
+        this.served.increment();
+    }
+
+    /**
+     * Probe the peers that are down at every check interval, the ones answering go back in the
+     * ring.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            for (String peer : this.peers) {
+                if (!this.up.contains(peer) && probe(peer)) {
+                    synchronized (this) {
+                        this.up.add(peer);
+                        buildRing();
+                    }
+                }
+            }
+
+            try {
+                Thread.sleep(CHECK_INTERVAL);
+            } catch (InterruptedException ie) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Build the peer statistics.
+     *
+     * @return Peers up, files fetched from and served to the peers, failed fetches.
+     */
+    public String report() {
+        return "up=" + getPeersUp() + "/" + this.peers.size() + " fetched=" + this.fetched.sum()
+                + " served=" + this.served.sum() + " failed=" + this.failed.sum();
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Get the peer cache.
+     *
+     * @return Peer cache, null if the peer mode is disabled.
+     */
+    public static PeerCache getInstance() {
+        return INSTANCE;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Buffered output stream with a buffer of the buffer pool.
+ * The buffer is acquired by the first write and released by the flush, so an idle connection
+ * holds no buffer. Writes larger than the buffer go straight to the stream when nothing is
+ * buffered. Like the BufferedOutputStream the methods are synchronized, the writes of a response
+ * can come from several threads.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-21)
+ */
+public class PooledOutputStream extends OutputStream {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Size of the output buffer.
+     */
+    public static final int BUFFER_SIZE = 16384;
+
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Underlying output stream.
+     */
+    private final OutputStream out;
+
+    /**
+     * Output buffer, null when nothing is buffered.
+     */
+    private ByteBuffer buffer;
+
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * Create the pooled output stream.
+     *
+     * @param out Underlying output stream.
+     */
+    public PooledOutputStream(OutputStream out) {
+        this.out = out;
+    }
+
+    // -------------------------------------------------------------------------------- Help Methods
+
+    /**
+     * Write the buffered bytes to the underlying stream and release the buffer.
+     *
+     * @throws IOException Error while writing.
+     */
+    private void flushBuffer() throws IOException {
+        if (this.buffer != null) {
+            ByteBuffer buffer = this.buffer;
+            this.buffer = null;
+            try {
+                this.out.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+            } finally {
+                BufferPool.getPool().release(buffer);
+            }
+        }
+    }
+
+    // ----------------------------------------------------------------------------- General Methods
+
+    /**
+     * Write a byte.
+     *
+     * @param b Byte to write.
+     * @throws IOException Error while writing.
+     */
+    @Override
+    public synchronized void write(int b) throws IOException {
+        if (this.buffer == null) {
+            this.buffer = BufferPool.getPool().acquire(BUFFER_SIZE);
+        }
+        this.buffer.put((byte) b);
+        if (!this.buffer.hasRemaining()) {
+            flushBuffer();
+        }
+    }
+
+    /**
+     * Write bytes.
+     *
+     * @param b   Bytes to write.
+     * @param off Offset of the first byte.
+     * @param len Number of bytes.
+     * @throws IOException Error while writing.
+     */
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        if (this.buffer == null && len >= BUFFER_SIZE) {
+            this.out.write(b, off, len);
+            return;
+        }
+        while (len > 0) {
+            if (this.buffer == null) {
+                this.buffer = BufferPool.getPool().acquire(BUFFER_SIZE);
+            }
+            int length = Math.min(len, this.buffer.remaining());
+            this.buffer.put(b, off, length);
+            off += length;
+            len -= length;
+            if (!this.buffer.hasRemaining()) {
+                flushBuffer();
+            }
+        }
+    }
+
+    /**
+     * Write the buffered bytes and flush the underlying stream.
+     *
+     * @throws IOException Error while writing.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        flushBuffer();
+        this.out.flush();
+    }
+
+    /**
+     * Release the buffer, discarding the buffered bytes, and close the underlying stream.
+     * The session closes the output after the socket, there is nothing left to write.
+     *
+     * @throws IOException Error while closing.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.buffer != null) {
+            BufferPool.getPool().release(this.buffer);
+            this.buffer = null;
+        }
+        this.out.close();
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+
+/**
+ * ISO-8859-1 reader with a buffer of the buffer pool.
+ * The buffer is acquired when bytes are available and released as soon as all its bytes are read:
+ * the reader waits for the first byte without buffer, so an idle connection holds none.
+ * Every byte is the char with the same code, no decoder is needed. Used by one thread only.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-21)
+ */
+public class PooledReader extends Reader {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Size of the input buffer.
+     */
+    public static final int BUFFER_SIZE = 4096;
+
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Underlying input stream.
+     */
+    private final InputStream in;
+
+    /**
+     * Input buffer, null when all the bytes are read.
+     */
+    private ByteBuffer buffer;
+
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * Create the pooled reader.
+     *
+     * @param in Underlying input stream.
+     */
+    public PooledReader(InputStream in) {
+        this.in = in;
+    }
+
+    // -------------------------------------------------------------------------------- Help Methods
+
+    /**
+     * Release the buffer.
+     */
+    private void releaseBuffer() {
+        if (this.buffer != null) {
+            BufferPool.getPool().release(this.buffer);
+            this.buffer = null;
+        }
+    }
+
+    // ----------------------------------------------------------------------------- General Methods
+
+    /**
+     * Read chars, reading the stream if nothing is buffered.
+     *
+     * @param cbuf Destination chars.
+     * @param off  Offset of the first char.
+     * @param len  Maximum number of chars.
+     * @return Number of chars read, -1 at the end of the stream.
+     * @throws IOException Error while reading.
+     */
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (this.buffer == null) {
+            int first = -1;
+            if (this.in.available() == 0) {
+                // block on a single byte, the buffer is acquired once data arrives
+                first = this.in.read();
+                if (first < 0) {
+                    return -1;
+                }
+            }
+            this.buffer = BufferPool.getPool().acquire(BUFFER_SIZE);
+            int start = 0;
+            if (first >= 0) {
+                this.buffer.array()[this.buffer.arrayOffset()] = (byte) first;
+                start = 1;
+            }
+            int read = 0;
+            if (start == 0 || this.in.available() > 0) {
+                try {
+                    read = this.in.read(this.buffer.array(), this.buffer.arrayOffset() + start,
+                            this.buffer.capacity() - start);
+                } catch (IOException ioe) {
+                    releaseBuffer();
+                    throw ioe;
+                }
+            }
+            if (read < 0 && start == 0) {
+                releaseBuffer();
+                return -1;
+            }
+            this.buffer.limit(start + Math.max(read, 0));
+        }
+
+        byte[] bytes = this.buffer.array();
+        int position = this.buffer.arrayOffset() + this.buffer.position();
+        int length = Math.min(len, this.buffer.remaining());
+        for (int i = 0; i < length; i++) {
+            cbuf[off + i] = (char) (bytes[position + i] & 0xff);
+        }
+        this.buffer.position(this.buffer.position() + length);
+        if (!this.buffer.hasRemaining()) {
+            releaseBuffer();
+        }
+        return length;
+    }
+
+    /**
+     * Check if chars can be read without blocking.
+     *
+     * @return True if bytes are buffered or available on the stream.
+     * @throws IOException Error while checking the stream.
+     */
+    @Override
+    public boolean ready() throws IOException {
+        return this.buffer != null || this.in.available() > 0;
+    }
+
+    /**
+     * Release the buffer and close the underlying stream.
+     *
+     * @throws IOException Error while closing.
+     */
+    @Override
+    public void close() throws IOException {
+        releaseBuffer();
+        this.in.close();
+    }
+}
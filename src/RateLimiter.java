@@ -0,0 +1,261 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-client rate limiter.
+ * Every client has its own token bucket, the buckets are kept in independent stripes selected by
+ * the hash of the client key, so the lookups on different stripes never touch the same memory and
+ * the token buckets are updated without locks. The idle buckets are evicted by the requests
+ * themselves: at most once per sweep interval a request sweeps the stripe it's using.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-12)
+ */
+public class RateLimiter {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Requests per second allowed to each client, 0 disables the client rate limiting.
+     */
+    public static final double CLIENT_RATE = Double.parseDouble(
+            System.getProperty("openweb.ratelimit.rate", "0"));
+
+    /**
+     * Requests each client can send in a burst.
+     */
+    public static final int CLIENT_BURST = Integer.getInteger("openweb.ratelimit.burst", 20);
+
+    /**
+     * Rate limits by path prefix, like "/api=10:20,/video=1:2" where every prefix has its requests
+     * per second and its burst. The limit is applied per client and prefix.
+     */
+    public static final String PATH_LIMITS = System.getProperty("openweb.ratelimit.paths", "");
+
+    /**
+     * Time after which a full bucket is evicted, in milliseconds.
+     */
+    public static final long IDLE_MILLIS = Long.getLong("openweb.ratelimit.idle", 60_000);
+
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Rate limiter of the clients, null if disabled.
+     */
+    private static final RateLimiter CLIENTS = CLIENT_RATE > 0
+            ? new RateLimiter("ratelimit-clients", CLIENT_RATE, CLIENT_BURST) : null;
+
+    /**
+     * Rate limiters of the path prefixes, in declaration order.
+     */
+    private static final Map<String, RateLimiter> PATHS = parsePathLimits(PATH_LIMITS);
+
+    /**
+     * Emission interval in nanoseconds.
+     */
+    private final long interval;
+
+    /**
+     * Burst tolerance in nanoseconds.
+     */
+    private final long tolerance;
+
+    /**
+     * Token buckets stripes.
+     */
+    private final ConcurrentHashMap<String, TokenBucket>[] stripes;
+
+    /**
+     * Next sweep time of each stripe in nanoseconds.
+     */
+    private final AtomicLong[] sweeps;
+
+    /**
+     * Allowed requests.
+     */
+    private final LongAdder allowed = new LongAdder();
+
+    /**
+     * Limited requests.
+     */
+    private final LongAdder limited = new LongAdder();
+
+    // --------------------------------------------------------------------------- Getters & Setters
+
+    /**
+     * Get the number of tracked clients.
+     *
+     * @return Number of token buckets.
+     */
+    public int getClients() {
+        int clients = 0;
+        for (Map<String, TokenBucket> stripe : this.stripes) {
+            clients += stripe.size();
+        }
+        return clients;
+    }
+
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * Create the rate limiter and register its statistics.
+     *
+     * @param name  Statistics name.
+     * @param rate  Requests per second.
+     * @param burst Requests in a burst.
+     */
+    @SuppressWarnings("unchecked")
+    public RateLimiter(String name, double rate, int burst) {
+        this.interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        this.tolerance = this.interval * (Math.max(burst, 1) - 1);
+
+        int size = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1;
+        this.stripes = (ConcurrentHashMap<String, TokenBucket>[]) new ConcurrentHashMap<?, ?>[size];
+        this.sweeps = new AtomicLong[size];
+        long now = System.nanoTime();
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ConcurrentHashMap<>();
+            this.sweeps[i] = new AtomicLong(now);
+        }
+
+        StatsReporter.register(name, this::report);
+    }
+
+    // -------------------------------------------------------------------------------- Help Methods
+
+    /**
+     * Remove the idle buckets of the stripe if its sweep time is passed.
+     * Only the request that moves the sweep time forward sweeps the stripe.
+     *
+     * @param stripe Stripe index.
+     * @param now    Current time in nanoseconds.
+     */
+    private void sweep(int stripe, long now) {
+        long idle = TimeUnit.MILLISECONDS.toNanos(IDLE_MILLIS);
+        long next = this.sweeps[stripe].get();
+        if (now - next >= 0 && this.sweeps[stripe].compareAndSet(next, now + idle)) {
+            this.stripes[stripe].values().removeIf(bucket -> bucket.isIdle(now, idle));
+        }
+    }
+
+    // ----------------------------------------------------------------------------- General Methods
+
+    /**
+     * Take a token for the client.
+     *
+     * @param key Client key.
+     * @return 0 if the request is allowed, other ways the nanoseconds to wait.
+     */
+    public long acquire(String key) {
+        long now = System.nanoTime();
+        int hash = key.hashCode();
+        int stripe = (hash ^ (hash >>> 16)) & (this.stripes.length - 1);
+
+        TokenBucket bucket = this.stripes[stripe].get(key);
+        if (bucket == null) {
+            bucket = this.stripes[stripe].computeIfAbsent(key, k -> new TokenBucket(now));
+        }
+        long wait = bucket.take(now, this.interval, this.tolerance);
+
+        if (wait == 0) {
+            this.allowed.increment();
+        } else {
+            this.limited.increment();
+        }
+        sweep(stripe, now);
+        return wait;
+    }
+
+    /**
+     * Get the rate limiter statistics.
+     *
+     * @return Rate limiter statistics line.
+     */
+    public String report() {
+        return "allowed=" + this.allowed.sum() + " limited=" + this.limited.sum()
+                + " clients=" + getClients();
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Parse the path prefix limits.
+     * The invalid limits are skipped with a message, they don't stop the server.
+     *
+     * @param limits Path limits, like "/api=10:20,/video=1:2".
+     * @return Rate limiters by path prefix.
+     */
+    private static Map<String, RateLimiter> parsePathLimits(String limits) {
+        Map<String, RateLimiter> paths = new LinkedHashMap<>();
+        for (String limit : limits.split(",")) {
+            String[] prefixRate = limit.trim().split("=");
+            String[] rateBurst = prefixRate.length == 2 ? prefixRate[1].split(":") : null;
+            double rate = 0;
+            int burst = 0;
+            if (rateBurst != null && rateBurst.length <= 2) {
+                try {
+                    rate = Double.parseDouble(rateBurst[0].trim());
+                    burst = rateBurst.length > 1 ? Integer.parseInt(rateBurst[1].trim()) : 1;
+                } catch (NumberFormatException ignored) {
+
+                }
+            }
+            String prefix = prefixRate[0].trim();
+            if (rate > 0 && !Double.isInfinite(rate) && burst > 0 && !prefix.isEmpty()) {
+                paths.put(prefix, new RateLimiter("ratelimit-path " + prefix, rate, burst));
+            } else if (!limit.trim().isEmpty()) {
+                System.out.println("ratelimit: invalid path limit skipped: " + limit.trim());
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Check the client and path prefix limits of a request.
+     *
+     * @param client Client address.
+     * @param path   Requested path.
+     * @return 0 if the request is allowed, other ways the nanoseconds to wait.
+     */
+    public static long check(String client, String path) {
+        if (CLIENTS != null) {
+            long wait = CLIENTS.acquire(client);
+            if (wait > 0) {
+                return wait;
+            }
+        }
+        for (Map.Entry<String, RateLimiter> prefix : PATHS.entrySet()) {
+            if (path.startsWith(prefix.getKey())) {
+                return prefix.getValue().acquire(client + ' ' + prefix.getKey());
+            }
+        }
+        return 0;
+    }
+}
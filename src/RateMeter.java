@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Event rate meter.
+ * Counts the events and computes the rate since the previous report.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-13)
+ */
+public class RateMeter {
+    // ------------------------------------------------------------------------------------ Costants
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Number of events.
+     */
+    private final LongAdder count = new LongAdder();
+
+    /**
+     * Number of events at the previous report.
+     */
+    private long lastCount;
+
+    /**
+     * Time of the previous report in nanoseconds.
+     */
+    private long lastTime = System.nanoTime();
+
+    // --------------------------------------------------------------------------- Getters & Setters
+
+    /**
+     * Get the number of events.
+     *
+     * @return Number of events.
+     */
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    // -------------------------------------------------------------------------------- Constructors
+    // -------------------------------------------------------------------------------- Help Methods
+    // ----------------------------------------------------------------------------- General Methods
+
+    /**
+     * Count an event.
+     */
+    public void mark() {
+        this.count.increment();
+    }
+
+    /**
+     * Count some events.
+     *
+     * @param events Number of events.
+     */
+    public void mark(long events) {
+        this.count.add(events);
+    }
+
+    /**
+     * Get the events per second since the previous call.
+     *
+     * @return Events per second.
+     */
+    public synchronized double rate() {
+        long now = System.nanoTime();
+        long total = this.count.sum();
+        double seconds = (now - this.lastTime) / 1e9;
+        double rate = seconds > 0 ? (total - this.lastCount) / seconds : 0;
+
+        this.lastTime = now;
+        this.lastCount = total;
+
+        return rate;
+    }
+
+    /**
+     * Get the rate since the previous call and the total events.
+     *
+     * @param unit Event unit, like "conn".
+     * @return Rate statistics.
+     */
+    public String report(String unit) {
+        double rate = rate();
+        return String.format("%.1f %s/s (total %d)", rate, unit, getCount());
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+}
@@ -0,0 +1,189 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder event of an http request, with the time spent in every phase.
+ * The phases are accept (from the accept to the session start, first request of a connection
+ * only), parse (request head), handle (rate limit and file lookup) and write (response to the
+ * socket, for http/2 until the last frame is queued). On https the handshake is part of parse.
+ * Only the requests slower than the threshold are recorded, the threshold can be changed in the
+ * recording settings, for example with "openweb.Request#threshold=0 ms" to record every request.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-20)
+ */
+@Name(RequestEvent.NAME)
+@Label("Http Request")
+@Category("OpenWeb")
+@Description("Http request with the time spent in every phase")
+@Threshold("20 ms")
+@StackTrace(false)
+public class RequestEvent extends Event {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Event name.
+     */
+    public static final String NAME = "openweb.Request";
+
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Request method.
+     */
+    @Label("Method")
+    private String method;
+
+    /**
+     * Request path.
+     */
+    @Label("Path")
+    private String path;
+
+    /**
+     * Response status code.
+     */
+    @Label("Status")
+    private int status;
+
+    /**
+     * Response body bytes.
+     */
+    @Label("Body Bytes")
+    @DataAmount
+    private long bytes;
+
+    /**
+     * Time from the accept to the session start.
+     */
+    @Label("Accept")
+    @Timespan
+    private long accept;
+
+    /**
+     * Time reading and parsing the request head.
+     */
+    @Label("Parse")
+    @Timespan
+    private long parse;
+
+    /**
+     * Time handling the request, with the file lookup.
+     */
+    @Label("Handle")
+    @Timespan
+    private long handle;
+
+    /**
+     * Time writing the response.
+     */
+    @Label("Write")
+    @Timespan
+    private long write;
+
+    /**
+     * Start of the current phase, in nanoseconds.
+     */
+    private transient long phaseStart;
+
+    // -------------------------------------------------------------------------------- Help Methods
+
+    /**
+     * End the current phase and start the next one.
+     *
+     * @return Time of the ended phase, in nanoseconds.
+     */
+    private long phase() {
+        long now = System.nanoTime();
+        long time = now - this.phaseStart;
+        this.phaseStart = now;
+        return time;
+    }
+
+    // ----------------------------------------------------------------------------- General Methods
+
+    /**
+     * End the accept phase, the event was started at the accept.
+     */
+    public void accepted() {
+        this.accept = phase();
+    }
+
+    /**
+     * End the parse phase.
+     *
+     * @param request Parsed request.
+     */
+    public void parsed(HttpRequest request) {
+        this.parse = phase();
+        this.method = request.getMethod();
+        this.path = request.getFilePath() != null ? request.getFilePath().toString() : null;
+    }
+
+    /**
+     * End the handle phase.
+     *
+     * @param response Response of the request.
+     */
+    public void handled(HttpResponse response) {
+        this.handle = phase();
+        this.status = response.getStatus().getCode();
+        this.bytes = response.getContentLength();
+    }
+
+    /**
+     * End the write phase and commit the event if slower than the threshold.
+     */
+    public void written() {
+        this.write = phase();
+        end();
+        if (shouldCommit()) {
+            commit();
+        }
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Start the event of a request, the first phase starts now.
+     *
+     * @return Started event.
+     */
+    public static RequestEvent start() {
+        RequestEvent event = new RequestEvent();
+        event.begin();
+        event.phaseStart = System.nanoTime();
+        return event;
+    }
+}
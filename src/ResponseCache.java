@@ -0,0 +1,418 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Microcache of the generated responses.
+ * The rendered templates are kept for a short time as complete messages, header and body, by
+ * method, host, path, sorted query attributes and the values of the request headers in the Vary
+ * header of the response. A hit builds no response: the kept message is written with a single
+ * write. After the time to live a response is stale: the first request renders it again while
+ * the others keep getting the stale one until the end of the stale time. The requests with a
+ * session and the responses setting a cookie are never cached, the memory is bounded: over the
+ * cap the oldest variants are removed first, in the order they were added.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-03-02)
+ */
+public class ResponseCache {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Milliseconds a cached response is fresh, 0 to disable the cache.
+     */
+    public static final long TTL = Long.getLong("openweb.microcache.ttl", 1000);
+
+    /**
+     * Milliseconds a stale response is served while it is rendered again.
+     */
+    public static final long STALE = Long.getLong("openweb.microcache.stale", 10_000);
+
+    /**
+     * Maximum memory of the cached responses, in bytes.
+     */
+    public static final long MAX_MEMORY = Long.getLong("openweb.microcache.max", 16L << 20);
+
+    /**
+     * Maximum size of a cached response, in bytes.
+     */
+    public static final int MAX_ENTRY = Integer.getInteger("openweb.microcache.entry", 256 << 10);
+
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Cached responses, by method, host, path and query, then by the values of the vary headers.
+     */
+    private static final Map<String, Variants> RESPONSES = new ConcurrentHashMap<>();
+
+    /**
+     * Cached variants in the order they were added, as key and variant, the oldest first.
+     * A variant removed otherwise stays until it reaches the head, then it is skipped.
+     */
+    private static final Queue<String[]> ORDER = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Memory of the cached responses, in bytes.
+     */
+    private static final AtomicLong MEMORY = new AtomicLong();
+
+    /**
+     * True while a thread shrinks the cache.
+     */
+    private static final AtomicBoolean SHRINKING = new AtomicBoolean();
+
+    /**
+     * Fresh hits.
+     */
+    private static final LongAdder HITS = new LongAdder();
+
+    /**
+     * Stale hits, served while rendering again.
+     */
+    private static final LongAdder STALE_HITS = new LongAdder();
+
+    /**
+     * Misses, rendered.
+     */
+    private static final LongAdder MISSES = new LongAdder();
+
+    /**
+     * Responses removed over the memory cap.
+     */
+    private static final LongAdder EVICTED = new LongAdder();
+
+    static {
+        StatsReporter.register("microcache", ResponseCache::report);
+    }
+
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * ResponseCache has only static components.
+     */
+    private ResponseCache() {
+
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Get the cache key of a request, without the vary headers.
+     *
+     * @param request Http request.
+     * @param host    Virtual host of the request.
+     * @return Cache key, null if the request can't be cached.
+     */
+    public static String key(HttpRequest request, VirtualHost host) {
+        String path = request.getFilePath().toString();
+        if (TTL <= 0 || !HttpSession.GET.equals(request.getMethod())
+                || !TemplateEngine.isTemplate(request.getFilePath())
+                || request.getCookie(SessionStore.COOKIE) != null) {
+            return null;
+        }
+
+        HttpRequestAttribute[] attributes = request.getAttributes() != null
+                ? request.getAttributes().clone() : new HttpRequestAttribute[0];
+        Arrays.sort(attributes, Comparator.comparing(HttpRequestAttribute::getName)
+                .thenComparing(HttpRequestAttribute::getValue));
+        StringBuilder key = new StringBuilder(request.getMethod()).append(' ')
+                .append(host.getName()).append(' ').append(path);
+        char separator = '?';
+        for (HttpRequestAttribute attribute : attributes) {
+            key.append(separator).append(attribute.getName()).append('=')
+                    .append(attribute.getValue());
+            separator = '&';
+        }
+        return key.toString();
+    }
+
+    /**
+     * Get the cached response of a request.
+     * A stale response is given to every request but the first one, that must render it again.
+     *
+     * @param key     Cache key of the request.
+     * @param request Http request.
+     * @return Cached response, null to render the response.
+     */
+    public static HttpResponse get(String key, HttpRequest request) {
+        Variants variants = RESPONSES.get(key);
+        Entry entry = variants != null ? variants.entries.get(variants.select(request)) : null;
+        long now = System.currentTimeMillis();
+        if (entry == null || now >= entry.staleUntil) {
+            MISSES.increment();
+            return null;
+        }
+        if (now >= entry.freshUntil) {
+            if (entry.refreshing.compareAndSet(false, true)) {
+                MISSES.increment();
+                return null;
+            }
+            STALE_HITS.increment();
+        } else {
+            HITS.increment();
+        }
+        return entry.toResponse();
+    }
+
+    /**
+     * Cache a rendered response.
+     * Only the 200 responses not setting a cookie and not bigger than the maximum size are kept.
+     *
+     * @param key      Cache key of the request.
+     * @param request  Http request.
+     * @param response Rendered response.
+     */
+    public static void put(String key, HttpRequest request, HttpResponse response) {
+        if (response.getStatus() != HttpStatus.OK || response.getHeader("Set-Cookie") != null
+                || response.getContentLength() > MAX_ENTRY) {
+            return;
+        }
+
+        // the variants of the key change only under its mapping, so a concurrent shrink or
+        // vary change can't drop a variants the entry is put in, leaving its memory counted
+        String vary = response.getHeader("Vary");
+        Entry entry = new Entry(response);
+        RESPONSES.compute(key, (k, variants) -> {
+            if (variants != null && !Arrays.equals(variants.vary, Variants.split(vary))) {
+                // the vary headers changed, the other variants are obsolete
+                variants.clear();
+                variants = null;
+            }
+            if (variants == null) {
+                variants = new Variants(vary);
+            }
+            String variant = variants.select(request);
+            Entry old = variants.entries.put(variant, entry);
+            if (old == null) {
+                // a rendered again variant keeps its place
+                ORDER.add(new String[]{key, variant});
+            }
+            MEMORY.addAndGet(entry.message.length - (old != null ? old.message.length : 0));
+            return variants;
+        });
+        if (MEMORY.get() > MAX_MEMORY) {
+            shrink();
+        }
+    }
+
+    /**
+     * Shrink the cache under the memory cap, one thread at a time.
+     * The variants are removed from the head of the insertion order, each one in constant time,
+     * under the mapping of their key like the puts.
+     */
+    private static void shrink() {
+        if (!SHRINKING.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            String[] oldest;
+            while (MEMORY.get() > MAX_MEMORY && (oldest = ORDER.poll()) != null) {
+                String variant = oldest[1];
+                RESPONSES.computeIfPresent(oldest[0], (k, variants) -> {
+                    Entry entry = variants.entries.remove(variant);
+                    if (entry != null) {
+                        MEMORY.addAndGet(-entry.message.length);
+                        EVICTED.increment();
+                    }
+                    return variants.entries.isEmpty() ? null : variants;
+                });
+            }
+        } finally {
+            SHRINKING.set(false);
+        }
+    }
+
+    /**
+     * Build the microcache statistics.
+     *
+     * @return Cached urls, memory, fresh and stale hits, misses and evictions.
+     */
+    public static String report() {
+        return "urls=" + RESPONSES.size() + " memory=" + MEMORY.get() / 1024 + "KB hits="
+                + HITS.sum() + " stale-hits=" + STALE_HITS.sum() + " misses=" + MISSES.sum()
+                + " evicted=" + EVICTED.sum();
+    }
+
+    /**
+     * Cached variants of an url, by the values of the vary headers.
+     */
+    private static class Variants {
+
+        /**
+         * Request headers the responses vary on, besides Accept-Encoding.
+         */
+        private final String[] vary;
+
+        /**
+         * Cached responses, by the values of the vary headers.
+         */
+        private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+        /**
+         * Create the variants of an url.
+         *
+         * @param vary Vary header of the responses, null if they don't vary.
+         */
+        private Variants(String vary) {
+            this.vary = split(vary);
+        }
+
+        /**
+         * Select the variant of a request.
+         * The compressor chooses the encoding by whether gzip is accepted, so every response
+         * varies on that, then on the values of the other vary headers.
+         *
+         * @param request Http request.
+         * @return Values of the vary headers of the request.
+         */
+        private String select(HttpRequest request) {
+            StringBuilder variant = new StringBuilder().append(request.acceptsEncoding("gzip"));
+            for (String name : this.vary) {
+                variant.append('\0').append(request.getHeader(name));
+            }
+            return variant.toString();
+        }
+
+        /**
+         * Remove all the variants, releasing their memory, under the mapping of their key.
+         */
+        private void clear() {
+            for (Entry entry : this.entries.values()) {
+                MEMORY.addAndGet(-entry.message.length);
+            }
+            this.entries.clear();
+        }
+
+        /**
+         * Split a Vary header in header names, without Accept-Encoding.
+         *
+         * @param vary Vary header, null for none.
+         * @return Header names.
+         */
+        private static String[] split(String vary) {
+            List<String> names = new ArrayList<>();
+            if (vary != null) {
+                for (String name : vary.split(",")) {
+                    name = name.trim();
+                    if (!name.isEmpty() && !name.equalsIgnoreCase("Accept-Encoding")) {
+                        names.add(name);
+                    }
+                }
+            }
+            return names.toArray(new String[0]);
+        }
+    }
+
+    /**
+     * Cached response, as a complete message.
+     */
+    private static class Entry {
+
+        /**
+         * Response status.
+         */
+        private final HttpStatus status;
+
+        /**
+         * Response content type.
+         */
+        private final String contentType;
+
+        /**
+         * Additional response headers, for the http/2 streams.
+         */
+        private final List<String[]> headers;
+
+        /**
+         * Response message, header and body.
+         */
+        private final byte[] message;
+
+        /**
+         * Header length in the message.
+         */
+        private final int headerLength;
+
+        /**
+         * Time until the response is fresh, in milliseconds.
+         */
+        private final long freshUntil;
+
+        /**
+         * Time until the stale response is served, in milliseconds.
+         */
+        private final long staleUntil;
+
+        /**
+         * True once a request is rendering the stale response again.
+         */
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        /**
+         * Serialize a response.
+         *
+         * @param response Rendered response.
+         */
+        private Entry(HttpResponse response) {
+            this.status = response.getStatus();
+            this.contentType = response.getContentType();
+            this.headers = new ArrayList<>(response.getHeaders());
+            byte[] header = response.getHttpHeader();
+            ByteBuffer body = response.getBody();
+            this.message = Arrays.copyOf(header, header.length + body.remaining());
+            body.get(this.message, header.length, body.remaining());
+            this.headerLength = header.length;
+            this.freshUntil = System.currentTimeMillis() + TTL;
+            this.staleUntil = this.freshUntil + STALE;
+        }
+
+        /**
+         * Create the response of the cached message.
+         *
+         * @return Http response, written with a single write.
+         */
+        private HttpResponse toResponse() {
+            HttpResponse response = new HttpResponse(this.status, this.contentType,
+                    ByteBuffer.wrap(this.message, this.headerLength,
+                            this.message.length - this.headerLength), null);
+            for (String[] header : this.headers) {
+                response.addHeader(header[0], header[1]);
+            }
+            return response.withMessage(this.message);
+        }
+    }
+}
@@ -0,0 +1,634 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Server side session store, keyed by the session id cookie.
+ * The sessions are spread by id in stripes, every stripe is an access ordered hash map with its
+ * own lock, so a lookup is one hash and one short lock of a stripe that the other requests rarely
+ * share. The least recently used session is always at the head of its stripe: every access of a
+ * stripe removes a few expired sessions from the head, there is no sweeper thread, and when the
+ * stripe is over its share of the memory cap the head sessions are evicted.
+ * The session attributes are kept encoded, on the heap or, in off-heap mode, in fixed size slots
+ * of direct slabs, out of the garbage collector's way; a session bigger than a slot stays on the
+ * heap.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-27)
+ */
+public class SessionStore {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Name of the session id cookie.
+     */
+    public static final String COOKIE = System.getProperty("openweb.sessions.cookie", "OWSESSION");
+
+    /**
+     * Milliseconds after the last access after which a session expires.
+     */
+    public static final long TTL = Long.getLong("openweb.sessions.ttl", 1_800_000);
+
+    /**
+     * Maximum memory of the sessions, in bytes.
+     */
+    public static final long MAX_MEMORY = Long.getLong("openweb.sessions.max", 64L << 20);
+
+    /**
+     * Number of stripes, a power of two.
+     */
+    public static final int STRIPES = Integer.highestOneBit(
+            Math.max(Integer.getInteger("openweb.sessions.stripes", 256), 1));
+
+    /**
+     * True to keep the session attributes in direct slabs.
+     */
+    public static final boolean OFF_HEAP = Boolean.getBoolean("openweb.sessions.offheap");
+
+    /**
+     * Size of an off-heap slot, the biggest encoded session kept off-heap.
+     */
+    public static final int SLOT_SIZE = Integer.getInteger("openweb.sessions.slot", 256);
+
+    /**
+     * Size of an off-heap slab.
+     */
+    public static final int SLAB_SIZE = 1 << 16;
+
+    /**
+     * Maximum expired sessions removed by an access of a stripe.
+     */
+    public static final int EXPIRE_BATCH = 8;
+
+    /**
+     * Estimated heap bytes of a session besides its attributes: id, map node and entry.
+     */
+    public static final int ENTRY_OVERHEAD = 160;
+
+    /**
+     * Bytes of the session id, before the base 64 encoding.
+     */
+    public static final int ID_BYTES = 18;
+
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Session store of the server.
+     */
+    private static final SessionStore STORE = new SessionStore();
+
+    static {
+        StatsReporter.register("sessions", STORE::report);
+    }
+
+    /**
+     * Session id generator.
+     */
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Stripes of the sessions.
+     */
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    /**
+     * Created sessions.
+     */
+    private final LongAdder created = new LongAdder();
+
+    /**
+     * Expired sessions.
+     */
+    private final LongAdder expired = new LongAdder();
+
+    /**
+     * Sessions evicted over the memory cap.
+     */
+    private final LongAdder evicted = new LongAdder();
+
+    /**
+     * Lookups of unknown or expired sessions.
+     */
+    private final LongAdder misses = new LongAdder();
+
+    // --------------------------------------------------------------------------- Getters & Setters
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * Create the session store, every stripe gets an equal share of the memory cap.
+     */
+    public SessionStore() {
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new Stripe(MAX_MEMORY / STRIPES);
+        }
+    }
+
+    // -------------------------------------------------------------------------------- Help Methods
+
+    /**
+     * Get the stripe of a session id.
+     *
+     * @param id Session id.
+     * @return Stripe of the session.
+     */
+    private Stripe stripe(String id) {
+        int hash = id.hashCode();
+        return this.stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    /**
+     * Encode the session attributes, every name and value with its length.
+     *
+     * @param attributes Session attributes.
+     * @return Encoded attributes.
+     */
+    private static byte[] encode(Map<String, String> attributes) {
+        int length = 0;
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            length += 8 + attribute.getKey().length() + attribute.getValue().length();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            putString(buffer, attribute.getKey());
+            putString(buffer, attribute.getValue());
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Put a string with its length, one byte for every char.
+     *
+     * @param buffer Destination buffer.
+     * @param string String to put.
+     */
+    private static void putString(ByteBuffer buffer, String string) {
+        buffer.putInt(string.length());
+        buffer.put(string.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Decode the session attributes.
+     *
+     * @param buffer Encoded attributes, from the position to the limit.
+     * @return Session attributes.
+     */
+    private static Map<String, String> decode(ByteBuffer buffer) {
+        Map<String, String> attributes = new LinkedHashMap<>();
+        while (buffer.hasRemaining()) {
+            String name = getString(buffer);
+            attributes.put(name, getString(buffer));
+        }
+        return attributes;
+    }
+
+    /**
+     * Get a string with its length, one char for every byte.
+     *
+     * @param buffer Source buffer.
+     * @return String read.
+     */
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    // ----------------------------------------------------------------------------- General Methods
+
+    /**
+     * Get a live session, the access renews its time to live.
+     *
+     * @param id Session id.
+     * @return Session, null if unknown or expired.
+     */
+    public Session get(String id) {
+        Stripe stripe = stripe(id);
+        ByteBuffer data;
+        synchronized (stripe) {
+            long now = System.currentTimeMillis();
+            this.expired.add(stripe.expire(now));
+            Entry entry = stripe.sessions.get(id);
+            if (entry == null || now - entry.lastAccess > TTL) {
+                if (entry != null) {
+                    stripe.remove(id);
+                    this.expired.increment();
+                }
+                this.misses.increment();
+                return null;
+            }
+            entry.lastAccess = now;
+            data = stripe.read(entry);
+        }
+        return new Session(id, decode(data), false);
+    }
+
+    /**
+     * Create a new session, stored when it is saved.
+     *
+     * @return New session.
+     */
+    public Session create() {
+        byte[] id = new byte[ID_BYTES];
+        this.random.nextBytes(id);
+        this.created.increment();
+        return new Session(Base64.getUrlEncoder().withoutPadding().encodeToString(id),
+                new LinkedHashMap<>(), true);
+    }
+
+    /**
+     * Save the session attributes, evicting the least recently used sessions of the stripe while
+     * it is over its memory share.
+     *
+     * @param session Session to save.
+     */
+    public void save(Session session) {
+        byte[] data = encode(session.attributes);
+        Stripe stripe = stripe(session.id);
+        synchronized (stripe) {
+            this.expired.add(stripe.expire(System.currentTimeMillis()));
+            stripe.remove(session.id);
+            stripe.put(session.id, data);
+            while (stripe.memory > stripe.maxMemory && stripe.sessions.size() > 1) {
+                stripe.remove(stripe.sessions.keySet().iterator().next());
+                this.evicted.increment();
+            }
+        }
+        session.dirty = false;
+        session.created = false;
+    }
+
+    /**
+     * Remove a session.
+     *
+     * @param id Session id.
+     */
+    public void remove(String id) {
+        Stripe stripe = stripe(id);
+        synchronized (stripe) {
+            stripe.remove(id);
+        }
+    }
+
+    /**
+     * Save the session changed by the request and give the cookie of a new session to the client.
+     * The sessions not loaded by the request are left alone.
+     *
+     * @param request  Http request.
+     * @param response Http response of the request.
+     */
+    public void commit(HttpRequest request, HttpResponse response) {
+        Session session = request.getCurrentSession();
+        if (session == null || !session.dirty) {
+            return;
+        }
+        boolean created = session.created;
+        save(session);
+        if (created) {
+            response.addHeader("Set-Cookie", COOKIE + "=" + session.id
+                    + "; Path=/; HttpOnly; SameSite=Lax");
+        }
+    }
+
+    /**
+     * Build the session store statistics.
+     *
+     * @return Live sessions, memory, off-heap slabs and the created, expired, evicted and missed
+     * sessions.
+     */
+    public String report() {
+        long sessions = 0;
+        long memory = 0;
+        long slabs = 0;
+        for (Stripe stripe : this.stripes) {
+            synchronized (stripe) {
+                sessions += stripe.sessions.size();
+                memory += stripe.memory;
+                slabs += stripe.slabs.length;
+            }
+        }
+        return String.format("sessions=%d memory=%dKB off-heap=%dKB created=%d expired=%d "
+                        + "evicted=%d misses=%d", sessions, memory >> 10, slabs * SLAB_SIZE >> 10,
+                this.created.sum(), this.expired.sum(), this.evicted.sum(), this.misses.sum());
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Get the session store of the server.
+     *
+     * @return Session store.
+     */
+    public static SessionStore getStore() {
+        return STORE;
+    }
+
+    /**
+     * Session of a client, a copy of the stored attributes.
+     * The changes are stored when the session is saved.
+     */
+    public static class Session {
+
+        /**
+         * Session id.
+         */
+        private final String id;
+
+        /**
+         * Session attributes.
+         */
+        private final Map<String, String> attributes;
+
+        /**
+         * True if the session is new, its cookie is not yet sent.
+         */
+        private boolean created;
+
+        /**
+         * True if the attributes changed since the session was loaded.
+         */
+        private boolean dirty;
+
+        /**
+         * Create the session.
+         *
+         * @param id         Session id.
+         * @param attributes Session attributes.
+         * @param created    True if the session is new.
+         */
+        private Session(String id, Map<String, String> attributes, boolean created) {
+            this.id = id;
+            this.attributes = attributes;
+            this.created = created;
+        }
+
+        /**
+         * Get the session id.
+         *
+         * @return Session id.
+         */
+        public String getId() {
+            return this.id;
+        }
+
+        /**
+         * Get the session attributes.
+         *
+         * @return Read only session attributes.
+         */
+        public Map<String, String> getAttributes() {
+            return Collections.unmodifiableMap(this.attributes);
+        }
+
+        /**
+         * Get a session attribute.
+         *
+         * @param name Attribute name.
+         * @return Attribute value, null if not set.
+         */
+        public String get(String name) {
+            return this.attributes.get(name);
+        }
+
+        /**
+         * Set a session attribute.
+         *
+         * @param name  Attribute name.
+         * @param value Attribute value, null to remove the attribute.
+         */
+        public void set(String name, String value) {
+            if (value == null) {
+                this.dirty |= this.attributes.remove(name) != null;
+            } else if (!value.equals(this.attributes.put(name, value))) {
+                this.dirty = true;
+            }
+        }
+
+        /**
+         * Check if the attributes changed since the session was loaded.
+         *
+         * @return True if the session must be saved.
+         */
+        public boolean isDirty() {
+            return this.dirty;
+        }
+    }
+
+    /**
+     * Stored session, its encoded attributes and last access.
+     */
+    private static class Entry {
+
+        /**
+         * Encoded attributes on the heap, null if off-heap.
+         */
+        private byte[] data;
+
+        /**
+         * Off-heap slot, -1 if on the heap.
+         */
+        private int slot = -1;
+
+        /**
+         * Encoded attributes length.
+         */
+        private int length;
+
+        /**
+         * Last access time, in milliseconds.
+         */
+        private long lastAccess = System.currentTimeMillis();
+    }
+
+    /**
+     * Stripe of the sessions, guarded by its own monitor.
+     */
+    private static class Stripe {
+
+        /**
+         * Sessions by id, the least recently used first.
+         */
+        private final LinkedHashMap<String, Entry> sessions = new LinkedHashMap<>(16, 0.75f, true);
+
+        /**
+         * Memory share of the stripe, in bytes.
+         */
+        private final long maxMemory;
+
+        /**
+         * Memory of the stored sessions, in bytes.
+         */
+        private long memory;
+
+        /**
+         * Off-heap slabs of the stripe.
+         */
+        private ByteBuffer[] slabs = new ByteBuffer[0];
+
+        /**
+         * Free off-heap slots.
+         */
+        private int[] free = new int[0];
+
+        /**
+         * Number of free off-heap slots.
+         */
+        private int freeCount;
+
+        /**
+         * Create the stripe.
+         *
+         * @param maxMemory Memory share of the stripe, in bytes.
+         */
+        private Stripe(long maxMemory) {
+            this.maxMemory = maxMemory;
+        }
+
+        /**
+         * Remove the expired sessions at the head, at most a batch.
+         * The head is the least recently used session, the first not expired ends the removal.
+         *
+         * @param now Current time, in milliseconds.
+         * @return Number of removed sessions.
+         */
+        private int expire(long now) {
+            Iterator<Map.Entry<String, Entry>> iterator = this.sessions.entrySet().iterator();
+            int removed = 0;
+            while (removed < EXPIRE_BATCH && iterator.hasNext()) {
+                Entry entry = iterator.next().getValue();
+                if (now - entry.lastAccess <= TTL) {
+                    break;
+                }
+                iterator.remove();
+                release(entry);
+                removed++;
+            }
+            return removed;
+        }
+
+        /**
+         * Store a session, off-heap when enabled and the attributes fit in a slot.
+         *
+         * @param id   Session id.
+         * @param data Encoded attributes.
+         */
+        private void put(String id, byte[] data) {
+            Entry entry = new Entry();
+            entry.length = data.length;
+            if (OFF_HEAP && data.length <= SLOT_SIZE && (this.freeCount > 0 || grow())) {
+                entry.slot = this.free[--this.freeCount];
+                slot(entry.slot).put(data);
+                this.memory += SLOT_SIZE + ENTRY_OVERHEAD;
+            } else {
+                entry.data = data;
+                this.memory += data.length + ENTRY_OVERHEAD;
+            }
+            this.sessions.put(id, entry);
+        }
+
+        /**
+         * Remove a session.
+         *
+         * @param id Session id.
+         */
+        private void remove(String id) {
+            Entry entry = this.sessions.remove(id);
+            if (entry != null) {
+                release(entry);
+            }
+        }
+
+        /**
+         * Release the memory of a removed session.
+         *
+         * @param entry Removed session.
+         */
+        private void release(Entry entry) {
+            if (entry.slot >= 0) {
+                this.free[this.freeCount++] = entry.slot;
+                this.memory -= SLOT_SIZE + ENTRY_OVERHEAD;
+            } else {
+                this.memory -= entry.length + ENTRY_OVERHEAD;
+            }
+        }
+
+        /**
+         * Read the encoded attributes of a session.
+         *
+         * @param entry Stored session.
+         * @return Encoded attributes, a copy if off-heap.
+         */
+        private ByteBuffer read(Entry entry) {
+            if (entry.slot < 0) {
+                return ByteBuffer.wrap(entry.data);
+            }
+            byte[] data = new byte[entry.length];
+            slot(entry.slot).get(data);
+            return ByteBuffer.wrap(data);
+        }
+
+        /**
+         * Get the buffer of an off-heap slot.
+         *
+         * @param slot Slot number.
+         * @return Slot buffer, positioned at the slot start.
+         */
+        private ByteBuffer slot(int slot) {
+            int perSlab = SLAB_SIZE / SLOT_SIZE;
+            ByteBuffer buffer = this.slabs[slot / perSlab].duplicate();
+            buffer.position(slot % perSlab * SLOT_SIZE);
+            return buffer;
+        }
+
+        /**
+         * Allocate a new off-heap slab, if the slabs stay under the memory share of the stripe.
+         *
+         * @return True if the slab was allocated.
+         */
+        private boolean grow() {
+            int perSlab = SLAB_SIZE / SLOT_SIZE;
+            if (perSlab == 0 || (this.slabs.length + 1L) * SLAB_SIZE > this.maxMemory) {
+                return false;
+            }
+            int first = this.slabs.length * perSlab;
+            this.slabs = Arrays.copyOf(this.slabs, this.slabs.length + 1);
+            this.slabs[this.slabs.length - 1] = ByteBuffer.allocateDirect(SLAB_SIZE);
+            this.free = Arrays.copyOf(this.free, this.free.length + perSlab);
+            for (int i = perSlab - 1; i >= 0; i--) {
+                this.free[this.freeCount++] = first + i;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalescing of concurrent loads of the same key.
+ * The first caller of a key runs the load, the callers arriving while it runs wait for it and
+ * share its result or its error, so a burst of misses on a popular file reads it once. A waiter
+ * gives up after the timeout, the load goes on for the others. Nothing is cached: once the load
+ * ends the next caller runs a new one.
+ *
+ * @param <K> Key type.
+ * @param <V> Result type.
+ * @author giuliobosco
+ * @version 1.0 (2019-02-28)
+ */
+public class SingleFlight<K, V> {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Milliseconds a caller waits for the load of another caller.
+     */
+    public static final long TIMEOUT = Long.getLong("openweb.singleflight.timeout", 5000);
+
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Running loads, by key.
+     */
+    private final Map<K, CompletableFuture<V>> flights = new ConcurrentHashMap<>();
+
+    /**
+     * Milliseconds a caller waits for the load of another caller.
+     */
+    private final long timeout;
+
+    /**
+     * Loads run.
+     */
+    private final LongAdder loads = new LongAdder();
+
+    /**
+     * Callers that shared the load of another caller.
+     */
+    private final LongAdder shared = new LongAdder();
+
+    /**
+     * Callers that stopped waiting after the timeout.
+     */
+    private final LongAdder timeouts = new LongAdder();
+
+    /**
+     * Failed loads.
+     */
+    private final LongAdder failures = new LongAdder();
+
+    // --------------------------------------------------------------------------- Getters & Setters
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * Create the coalescing of the loads and register its statistics.
+     *
+     * @param name    Statistics name.
+     * @param timeout Milliseconds a caller waits for the load of another caller.
+     */
+    public SingleFlight(String name, long timeout) {
+        this.timeout = timeout;
+        StatsReporter.register(name, this::report);
+    }
+
+    // -------------------------------------------------------------------------------- Help Methods
+
+    /**
+     * Wait for the load of another caller.
+     *
+     * @param key    Loaded key.
+     * @param flight Running load.
+     * @return Load result.
+     * @throws IOException Load failed, or timeout while waiting.
+     */
+    private V await(K key, CompletableFuture<V> flight) throws IOException {
+        try {
+            V value = flight.get(this.timeout, TimeUnit.MILLISECONDS);
+            this.shared.increment();
+            return value;
+        } catch (TimeoutException te) {
+            this.timeouts.increment();
+            throw new InterruptedIOException("Load of " + key + " timed out");
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading " + key);
+        } catch (ExecutionException ee) {
+            this.shared.increment();
+            throw new IOException("Load of " + key + " failed: " + ee.getCause().getMessage(),
+                    ee.getCause());
+        }
+    }
+
+    // ----------------------------------------------------------------------------- General Methods
+
+    /**
+     * Load a key, or wait for the load already running for it.
+     *
+     * @param key    Key to load.
+     * @param loader Load of the key, run only if no load of the key is running.
+     * @return Load result, shared by the concurrent callers.
+     * @throws IOException Load failed, or timeout while waiting for another caller.
+     */
+    public V run(K key, Loader<V> loader) throws IOException {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> running = this.flights.putIfAbsent(key, flight);
+        if (running != null) {
+            return await(key, running);
+        }
+
+        this.loads.increment();
+        try {
+            V value = loader.load();
+            flight.complete(value);
+            return value;
+        } catch (Throwable t) {
+            this.failures.increment();
+            flight.completeExceptionally(t);
+            throw t;
+        } finally {
+            this.flights.remove(key, flight);
+        }
+    }
+
+    /**
+     * Build the coalescing statistics.
+     *
+     * @return Loads, shared results, timeouts, failures and running loads.
+     */
+    public String report() {
+        return "loads=" + this.loads.sum() + " shared=" + this.shared.sum() + " timeouts="
+                + this.timeouts.sum() + " failures=" + this.failures.sum() + " running="
+                + this.flights.size();
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Load of a key.
+     *
+     * @param <V> Result type.
+     */
+    public interface Loader<V> {
+
+        /**
+         * Load the result.
+         *
+         * @return Load result.
+         * @throws IOException Error while loading.
+         */
+        V load() throws IOException;
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compare the loopback tcp and the unix domain socket listeners of a running server.
+ * Every client sends its share of the requests one after the other, on a keep-alive connection or
+ * on a new connection for each request, then the throughput and the latency percentiles of both
+ * transports are printed.
+ * Usage: java SocketBench socket-path tcp-port [requests] [clients] [path] [keep|new]
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-26)
+ */
+public class SocketBench {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Share of the requests sent before measuring, to warm up both the server and the client.
+     */
+    public static final int WARMUP_DIVISOR = 10;
+
+    // ---------------------------------------------------------------------------------- Attributes
+    // --------------------------------------------------------------------------- Getters & Setters
+    // -------------------------------------------------------------------------------- Constructors
+    // -------------------------------------------------------------------------------- Help Methods
+    // ----------------------------------------------------------------------------- General Methods
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Open a client connection.
+     *
+     * @param address Server address, tcp or unix domain socket.
+     * @return Connected channel.
+     * @throws IOException Error while connecting.
+     */
+    private static SocketChannel connect(SocketAddress address) throws IOException {
+        SocketChannel channel = SocketChannel.open(address);
+        if (address instanceof InetSocketAddress) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+        return channel;
+    }
+
+    /**
+     * Read a line of the response head.
+     *
+     * @param in Response input stream.
+     * @return Line without the line terminator.
+     * @throws IOException Error while reading or connection closed.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                throw new EOFException("Response truncated");
+            }
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+
+    /**
+     * Read a response and skip its body.
+     *
+     * @param in Response input stream.
+     * @return Response length, head and body.
+     * @throws IOException Error while reading or connection closed.
+     */
+    private static long readResponse(InputStream in) throws IOException {
+        long length = 0;
+        long contentLength = 0;
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            length += line.length() + 2;
+            if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                contentLength = Long.parseLong(line.substring(15).trim());
+            }
+        }
+        for (long left = contentLength; left > 0; ) {
+            long skipped = in.skip(left);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("Response body truncated");
+                }
+                skipped = 1;
+            }
+            left -= skipped;
+        }
+        return length + 2 + contentLength;
+    }
+
+    /**
+     * Send the requests of a client and record their latencies.
+     *
+     * @param address   Server address.
+     * @param request   Request bytes.
+     * @param latencies Latencies of all the clients, in nanoseconds.
+     * @param from      First latency index of the client.
+     * @param to        Last latency index of the client, excluded.
+     * @param keepAlive True to reuse the connection, false for a new connection per request.
+     * @param bytes     Received bytes counter.
+     * @throws IOException Error while connecting, writing or reading.
+     */
+    private static void client(SocketAddress address, byte[] request, long[] latencies, int from,
+                               int to, boolean keepAlive, AtomicLong bytes) throws IOException {
+        SocketChannel channel = null;
+        InputStream in = null;
+        try {
+            for (int i = from; i < to; i++) {
+                long start = System.nanoTime();
+                if (channel == null) {
+                    channel = connect(address);
+                    in = new BufferedInputStream(Channels.newInputStream(channel));
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(request);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                bytes.addAndGet(readResponse(in));
+                if (!keepAlive) {
+                    channel.close();
+                    channel = null;
+                }
+                latencies[i] = System.nanoTime() - start;
+            }
+        } finally {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Run the requests on a transport with concurrent clients.
+     *
+     * @param name      Transport name, printed in the results.
+     * @param address   Server address.
+     * @param request   Request bytes.
+     * @param requests  Number of requests.
+     * @param clients   Number of concurrent clients.
+     * @param keepAlive True to reuse the connections, false for a new connection per request.
+     * @param print     True to print the results, false for the warm-up.
+     * @throws InterruptedException Interrupted while waiting the clients.
+     */
+    private static void run(String name, SocketAddress address, byte[] request, int requests,
+                            int clients, boolean keepAlive, boolean print)
+            throws InterruptedException {
+        long[] latencies = new long[requests];
+        AtomicLong bytes = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        Thread[] threads = new Thread[clients];
+
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            int from = (int) ((long) requests * c / clients);
+            int to = (int) ((long) requests * (c + 1) / clients);
+            threads[c] = new Thread(() -> {
+                try {
+                    client(address, request, latencies, from, to, keepAlive, bytes);
+                } catch (IOException ioe) {
+                    errors.incrementAndGet();
+                }
+            });
+            threads[c].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        if (print) {
+            Arrays.sort(latencies);
+            double seconds = elapsed / 1e9;
+            System.out.printf("%-5s %10.0f %10.2f %10.3f %10.3f %10.3f %10.3f %7d%n", name,
+                    requests / seconds, bytes.get() / seconds / (1 << 20),
+                    Arrays.stream(latencies).average().orElse(0) / 1e6,
+                    percentile(latencies, 50), percentile(latencies, 99),
+                    latencies[latencies.length - 1] / 1e6, errors.get());
+        }
+    }
+
+    /**
+     * Get a percentile of sorted times.
+     *
+     * @param sorted     Sorted times, in nanoseconds.
+     * @param percentile Percentile, from 0 to 100.
+     * @return Percentile time in milliseconds.
+     */
+    private static double percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args Socket path, tcp port, requests, clients, request path and connection mode.
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java SocketBench socket-path tcp-port "
+                    + "[requests] [clients] [path] [keep|new]");
+            return;
+        }
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+        int clients = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+        String path = args.length > 4 ? args[4] : "/";
+        boolean keepAlive = args.length <= 5 || !args[5].equals("new");
+
+        byte[] request = ("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1);
+        SocketAddress unix = UnixDomainSocketAddress.of(args[0]);
+        SocketAddress tcp = new InetSocketAddress("127.0.0.1", Integer.parseInt(args[1]));
+
+        try {
+            int warmup = Math.max(requests / WARMUP_DIVISOR, clients);
+            run("tcp", tcp, request, warmup, clients, keepAlive, false);
+            run("unix", unix, request, warmup, clients, keepAlive, false);
+
+            System.out.printf("%d requests of %s, %d clients, %s connections%n", requests, path,
+                    clients, keepAlive ? "keep-alive" : "new");
+            System.out.printf("%-5s %10s %10s %10s %10s %10s %10s %7s%n", "", "req/s", "MB/s",
+                    "mean ms", "p50 ms", "p99 ms", "max ms", "errors");
+            run("tcp", tcp, request, requests, clients, keepAlive, true);
+            run("unix", unix, request, requests, clients, keepAlive, true);
+        } catch (InterruptedException ignored) {
+
+        }
+    }
+}
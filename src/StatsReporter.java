@@ -0,0 +1,115 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+/**
+ * Server statistics reporter.
+ * Every component that wants to expose statistics registers a named source, the reporter prints
+ * all the sources to the standard output every REPORT_INTERVAL seconds.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-10)
+ */
+public class StatsReporter extends Thread {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Report interval in seconds, 0 disables the periodic report.
+     */
+    public static final int REPORT_INTERVAL = Integer.getInteger("openweb.stats.interval", 10);
+
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Registered statistics sources, sorted by name.
+     */
+    private static final Map<String, Supplier<String>> SOURCES = new ConcurrentSkipListMap<>();
+
+    // --------------------------------------------------------------------------- Getters & Setters
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * Create the statistics reporter as daemon thread.
+     */
+    public StatsReporter() {
+        super("stats-reporter");
+        setDaemon(true);
+    }
+
+    // -------------------------------------------------------------------------------- Help Methods
+    // ----------------------------------------------------------------------------- General Methods
+
+    /**
+     * Print the report every REPORT_INTERVAL seconds.
+     */
+    @Override
+    public void run() {
+        try {
+            while (REPORT_INTERVAL > 0) {
+                Thread.sleep(REPORT_INTERVAL * 1000L);
+                System.out.print(report());
+            }
+        } catch (InterruptedException ignored) {
+
+        }
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Register a statistics source.
+     * A source registered with an existing name replaces the previous one.
+     *
+     * @param name   Name of the source.
+     * @param source Supplier of the source statistics line.
+     */
+    public static void register(String name, Supplier<String> source) {
+        SOURCES.put(name, source);
+    }
+
+    /**
+     * Remove a statistics source.
+     *
+     * @param name Name of the source.
+     */
+    public static void unregister(String name) {
+        SOURCES.remove(name);
+    }
+
+    /**
+     * Build the report of all the registered sources, one source per line.
+     *
+     * @return Statistics report.
+     */
+    public static String report() {
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, Supplier<String>> source : SOURCES.entrySet()) {
+            report.append(source.getKey()).append(": ").append(source.getValue().get()).append('\n');
+        }
+        return report.toString();
+    }
+}
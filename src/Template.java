@@ -0,0 +1,714 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compiled server side template.
+ * The template source is compiled once in a list of segments: the static text as bytes ready to
+ * be written, interleaved with the expressions and the cached fragments. Rendering writes the
+ * bytes straight into a growable output buffer that becomes the response body, the values are
+ * escaped and written char by char, no intermediate string is built.
+ *
+ * Syntax:
+ * {{name}} or {{param.name}} request attribute, {{header.Name}} request header,
+ * {{request.path}} and {{request.method}}, {{session.name}} session attribute, HTML escaped;
+ * {{&amp;expression}} not escaped; {{! comment }}; {{#cache name seconds [expression ...]}} ...
+ * {{/cache}} fragment rendered once every seconds for every combination of the expression values,
+ * it can't read the session: the rendering is shared by all the clients;
+ * {{#set name expression}} sets a session attribute, creating the session, outside the fragments.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-22)
+ */
+public class Template {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Tag start.
+     */
+    public static final String OPEN = "{{";
+
+    /**
+     * Tag end.
+     */
+    public static final String CLOSE = "}}";
+
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Template file path.
+     */
+    private final Path path;
+
+    /**
+     * Content type of the rendered template.
+     */
+    private final String contentType;
+
+    /**
+     * Compiled segments.
+     */
+    private final Segment[] segments;
+
+    /**
+     * File modification time when compiled, in milliseconds.
+     */
+    private final long lastModified;
+
+    /**
+     * File size when compiled.
+     */
+    private final long fileSize;
+
+    /**
+     * Size of the last rendering, initial size of the next output buffer.
+     */
+    private volatile int sizeHint;
+
+    /**
+     * Request headers read by the template, the Vary header of the rendered template.
+     */
+    private final Set<String> varyHeaders = new LinkedHashSet<>();
+
+    // --------------------------------------------------------------------------- Getters & Setters
+
+    /**
+     * Get the template file path.
+     *
+     * @return Template file path.
+     */
+    public Path getPath() {
+        return this.path;
+    }
+
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * Compile a template.
+     *
+     * @param path        Template file path.
+     * @param contentType Content type of the rendered template.
+     * @param source      Template source.
+     * @param attributes  Template file attributes when read.
+     * @throws IOException Syntax error in the template.
+     */
+    public Template(Path path, String contentType, byte[] source, BasicFileAttributes attributes)
+            throws IOException {
+        this.path = path;
+        this.contentType = contentType;
+        this.segments = compile(new String(source, StandardCharsets.ISO_8859_1));
+        this.lastModified = attributes.lastModifiedTime().toMillis();
+        this.fileSize = attributes.size();
+        this.sizeHint = source.length;
+    }
+
+    // -------------------------------------------------------------------------------- Help Methods
+
+    /**
+     * Compile the template source in segments.
+     *
+     * @param source Template source, one char for every byte.
+     * @return Compiled segments.
+     * @throws IOException Syntax error in the template.
+     */
+    private Segment[] compile(String source) throws IOException {
+        Deque<List<Segment>> blocks = new ArrayDeque<>();
+        Deque<String[]> fragments = new ArrayDeque<>();
+        List<Segment> segments = new ArrayList<>();
+
+        int position = 0;
+        while (position < source.length()) {
+            int open = source.indexOf(OPEN, position);
+            if (open < 0) {
+                open = source.length();
+            }
+            if (open > position) {
+                segments.add(new Text(source.substring(position, open)
+                        .getBytes(StandardCharsets.ISO_8859_1)));
+            }
+            if (open == source.length()) {
+                break;
+            }
+
+            int close = source.indexOf(CLOSE, open + OPEN.length());
+            if (close < 0) {
+                throw new IOException(this.path + ": tag not closed at " + open);
+            }
+            String tag = source.substring(open + OPEN.length(), close).trim();
+            position = close + CLOSE.length();
+
+            if (tag.startsWith("!")) {
+                continue;
+            } else if (tag.startsWith("#cache")) {
+                String[] arguments = tag.split("\\s+");
+                if (arguments.length < 3 || !arguments[2].matches("\\d+")) {
+                    throw new IOException(this.path + ": expected {{#cache name seconds}} at " + open);
+                }
+                blocks.push(segments);
+                fragments.push(arguments);
+                segments = new ArrayList<>();
+            } else if (tag.startsWith("#set")) {
+                String[] arguments = tag.split("\\s+");
+                if (arguments.length != 3 || !blocks.isEmpty()) {
+                    throw new IOException(this.path + ": expected {{#set name expression}} "
+                            + "outside {{#cache}} at " + open);
+                }
+                segments.add(new Assign(arguments[1], expression(arguments[2])));
+            } else if (tag.equals("/cache")) {
+                if (blocks.isEmpty()) {
+                    throw new IOException(this.path + ": {{/cache}} without {{#cache}} at " + open);
+                }
+                String[] arguments = fragments.pop();
+                Expression[] vary = new Expression[arguments.length - 3];
+                for (int i = 0; i < vary.length; i++) {
+                    vary[i] = fragmentExpression(arguments[i + 3], open);
+                }
+                Fragment fragment = new Fragment(this.path + "#" + arguments[1],
+                        Long.parseLong(arguments[2]) * 1000, vary, segments.toArray(new Segment[0]));
+                segments = blocks.pop();
+                segments.add(fragment);
+            } else if (tag.startsWith("&")) {
+                String raw = tag.substring(1).trim();
+                segments.add(new Value(blocks.isEmpty() ? expression(raw)
+                        : fragmentExpression(raw, open), false));
+            } else {
+                segments.add(new Value(blocks.isEmpty() ? expression(tag)
+                        : fragmentExpression(tag, open), true));
+            }
+        }
+        if (!blocks.isEmpty()) {
+            throw new IOException(this.path + ": {{#cache " + fragments.peek()[1] + "}} not closed");
+        }
+
+        return segments.toArray(new Segment[0]);
+    }
+
+    /**
+     * Compile an expression, remembering the request headers it reads.
+     *
+     * @param source Expression source.
+     * @return Compiled expression.
+     * @throws IOException Unknown expression.
+     */
+    private Expression expression(String source) throws IOException {
+        Expression expression = new Expression(source);
+        if (expression.kind == Expression.HEADER) {
+            this.varyHeaders.add(expression.name);
+        }
+        return expression;
+    }
+
+    /**
+     * Compile an expression of a cached fragment, the session can't be read: the fragment would
+     * show the session of a client to the others.
+     *
+     * @param source Expression source.
+     * @param open   Position of the tag, for the error message.
+     * @return Compiled expression.
+     * @throws IOException Unknown expression or session expression.
+     */
+    private Expression fragmentExpression(String source, int open) throws IOException {
+        Expression expression = expression(source);
+        if (expression.isSession()) {
+            throw new IOException(this.path + ": {{" + source + "}} reads the session inside "
+                    + "{{#cache}} at " + open);
+        }
+        return expression;
+    }
+
+    /**
+     * Render segments.
+     *
+     * @param segments Segments to render.
+     * @param request  Http request.
+     * @param out      Output buffer.
+     */
+    private static void render(Segment[] segments, HttpRequest request, Output out) {
+        for (Segment segment : segments) {
+            segment.render(request, out);
+        }
+    }
+
+    // ----------------------------------------------------------------------------- General Methods
+
+    /**
+     * Check if the template file was not changed since it was compiled.
+     *
+     * @param attributes Current template file attributes.
+     * @return True if the compiled template is still valid.
+     */
+    public boolean isFresh(BasicFileAttributes attributes) {
+        return attributes.lastModifiedTime().toMillis() == this.lastModified
+                && attributes.size() == this.fileSize;
+    }
+
+    /**
+     * Render the template for a request.
+     * The request headers read by the template are listed in the Vary header.
+     *
+     * @param request Http request.
+     * @return Http response with the rendered template.
+     */
+    public HttpResponse render(HttpRequest request) {
+        Output out = new Output(this.sizeHint);
+        render(this.segments, request, out);
+        this.sizeHint = out.size();
+        HttpResponse response = new HttpResponse(HttpStatus.OK, this.contentType, out.toBuffer(),
+                null);
+        if (!this.varyHeaders.isEmpty()) {
+            response.addHeader("Vary", String.join(", ", this.varyHeaders));
+        }
+        return response;
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Compiled part of a template.
+     */
+    private interface Segment {
+
+        /**
+         * Render the segment.
+         *
+         * @param request Http request.
+         * @param out     Output buffer.
+         */
+        void render(HttpRequest request, Output out);
+    }
+
+    /**
+     * Static text.
+     */
+    private static class Text implements Segment {
+
+        /**
+         * Text bytes.
+         */
+        private final byte[] bytes;
+
+        /**
+         * Create the static text.
+         *
+         * @param bytes Text bytes.
+         */
+        private Text(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void render(HttpRequest request, Output out) {
+            out.write(this.bytes, 0, this.bytes.length);
+        }
+    }
+
+    /**
+     * Expression value.
+     */
+    private static class Value implements Segment {
+
+        /**
+         * Value expression.
+         */
+        private final Expression expression;
+
+        /**
+         * True to escape the HTML special chars.
+         */
+        private final boolean escape;
+
+        /**
+         * Create the expression value.
+         *
+         * @param expression Value expression.
+         * @param escape     True to escape the HTML special chars.
+         */
+        private Value(Expression expression, boolean escape) {
+            this.expression = expression;
+            this.escape = escape;
+        }
+
+        @Override
+        public void render(HttpRequest request, Output out) {
+            String value = this.expression.evaluate(request);
+            if (value != null) {
+                out.writeValue(value, this.expression.isUrlEncoded(), this.escape);
+            }
+        }
+    }
+
+    /**
+     * Session attribute assignment, renders nothing.
+     */
+    private static class Assign implements Segment {
+
+        /**
+         * Session attribute name.
+         */
+        private final String name;
+
+        /**
+         * Value expression.
+         */
+        private final Expression expression;
+
+        /**
+         * Create the assignment.
+         *
+         * @param name       Session attribute name.
+         * @param expression Value expression.
+         */
+        private Assign(String name, Expression expression) {
+            this.name = name;
+            this.expression = expression;
+        }
+
+        @Override
+        public void render(HttpRequest request, Output out) {
+            String value = this.expression.evaluate(request);
+            if (value != null && this.expression.isUrlEncoded()) {
+                Output decoded = new Output(value.length());
+                decoded.writeValue(value, true, false);
+                value = new String(decoded.bytes, 0, decoded.size(), StandardCharsets.ISO_8859_1);
+            }
+            request.getSession(true).set(this.name, value);
+        }
+    }
+
+    /**
+     * Cached fragment, rendered once for every time to live and combination of the vary values.
+     */
+    private static class Fragment implements Segment {
+
+        /**
+         * Fragment cache key, template path and fragment name.
+         */
+        private final String key;
+
+        /**
+         * Fragment time to live, in milliseconds.
+         */
+        private final long ttl;
+
+        /**
+         * Expressions whose values select the cached rendering.
+         */
+        private final Expression[] vary;
+
+        /**
+         * Fragment segments.
+         */
+        private final Segment[] segments;
+
+        /**
+         * Create the cached fragment.
+         *
+         * @param key      Fragment cache key, template path and fragment name.
+         * @param ttl      Fragment time to live, in milliseconds.
+         * @param vary     Expressions whose values select the cached rendering.
+         * @param segments Fragment segments.
+         */
+        private Fragment(String key, long ttl, Expression[] vary, Segment[] segments) {
+            this.key = key;
+            this.ttl = ttl;
+            this.vary = vary;
+            this.segments = segments;
+        }
+
+        @Override
+        public void render(HttpRequest request, Output out) {
+            String key = this.key;
+            if (this.vary.length > 0) {
+                StringBuilder builder = new StringBuilder(this.key);
+                for (Expression expression : this.vary) {
+                    builder.append('\0').append(expression.evaluate(request));
+                }
+                key = builder.toString();
+            }
+
+            byte[] cached = TemplateEngine.getFragment(this.key, key);
+            if (cached == null) {
+                Output fragment = new Output(256);
+                Template.render(this.segments, request, fragment);
+                cached = Arrays.copyOf(fragment.bytes, fragment.size());
+                TemplateEngine.putFragment(this.key, key, cached, this.ttl);
+            }
+            out.write(cached, 0, cached.length);
+        }
+    }
+
+    /**
+     * Expression reading a value of the request.
+     */
+    private static class Expression {
+
+        /**
+         * Request attribute.
+         */
+        private static final int PARAM = 0;
+
+        /**
+         * Request header.
+         */
+        private static final int HEADER = 1;
+
+        /**
+         * Request path.
+         */
+        private static final int PATH = 2;
+
+        /**
+         * Request method.
+         */
+        private static final int METHOD = 3;
+
+        /**
+         * Session attribute.
+         */
+        private static final int SESSION = 4;
+
+        /**
+         * Expression kind.
+         */
+        private final int kind;
+
+        /**
+         * Attribute, header or session attribute name.
+         */
+        private final String name;
+
+        /**
+         * Compile an expression.
+         *
+         * @param expression Expression source.
+         * @throws IOException Unknown expression.
+         */
+        private Expression(String expression) throws IOException {
+            if (expression.equals("request.path")) {
+                this.kind = PATH;
+                this.name = null;
+            } else if (expression.equals("request.method")) {
+                this.kind = METHOD;
+                this.name = null;
+            } else if (expression.startsWith("header.")) {
+                this.kind = HEADER;
+                this.name = expression.substring("header.".length());
+            } else if (expression.startsWith("session.")) {
+                this.kind = SESSION;
+                this.name = expression.substring("session.".length());
+            } else if (expression.startsWith("param.")) {
+                this.kind = PARAM;
+                this.name = expression.substring("param.".length());
+            } else if (!expression.isEmpty() && !expression.contains(".")) {
+                this.kind = PARAM;
+                this.name = expression;
+            } else {
+                throw new IOException("unknown template expression: " + expression);
+            }
+        }
+
+        /**
+         * Check if the value is URL encoded, as the request attributes.
+         *
+         * @return True if the value is URL encoded.
+         */
+        private boolean isUrlEncoded() {
+            return this.kind == PARAM;
+        }
+
+        /**
+         * Check if the expression reads the session.
+         *
+         * @return True for a session attribute.
+         */
+        private boolean isSession() {
+            return this.kind == SESSION;
+        }
+
+        /**
+         * Evaluate the expression.
+         *
+         * @param request Http request.
+         * @return Expression value, null if missing.
+         */
+        private String evaluate(HttpRequest request) {
+            switch (this.kind) {
+                case PARAM:
+                    return request.getAttribute(this.name);
+                case HEADER:
+                    return request.getHeader(this.name);
+                case PATH:
+                    return request.getFilePath().toString();
+                case SESSION:
+                    SessionStore.Session session = request.getSession(false);
+                    return session != null ? session.get(this.name) : null;
+                default:
+                    return request.getMethod();
+            }
+        }
+    }
+
+    /**
+     * Growable output buffer, its array becomes the response body.
+     */
+    private static class Output {
+
+        /**
+         * Output bytes.
+         */
+        private byte[] bytes;
+
+        /**
+         * Number of written bytes.
+         */
+        private int count;
+
+        /**
+         * Create the output buffer.
+         *
+         * @param size Initial size.
+         */
+        private Output(int size) {
+            this.bytes = new byte[Math.max(size, 64)];
+        }
+
+        /**
+         * Make room for more bytes.
+         *
+         * @param length Bytes to add.
+         */
+        private void ensure(int length) {
+            if (this.count + length > this.bytes.length) {
+                this.bytes = Arrays.copyOf(this.bytes,
+                        Math.max(this.bytes.length * 2, this.count + length));
+            }
+        }
+
+        /**
+         * Write bytes.
+         *
+         * @param bytes  Bytes to write.
+         * @param offset Offset of the first byte.
+         * @param length Number of bytes.
+         */
+        private void write(byte[] bytes, int offset, int length) {
+            ensure(length);
+            System.arraycopy(bytes, offset, this.bytes, this.count, length);
+            this.count += length;
+        }
+
+        /**
+         * Write a byte, escaping the HTML special chars.
+         *
+         * @param b      Byte to write.
+         * @param escape True to escape the HTML special chars.
+         */
+        private void writeByte(int b, boolean escape) {
+            String entity = null;
+            if (escape) {
+                switch (b) {
+                    case '&':
+                        entity = "&amp;";
+                        break;
+                    case '<':
+                        entity = "&lt;";
+                        break;
+                    case '>':
+                        entity = "&gt;";
+                        break;
+                    case '"':
+                        entity = "&quot;";
+                        break;
+                    case '\'':
+                        entity = "&#39;";
+                        break;
+                    default:
+                        break;
+                }
+            }
+            if (entity != null) {
+                ensure(entity.length());
+                for (int i = 0; i < entity.length(); i++) {
+                    this.bytes[this.count++] = (byte) entity.charAt(i);
+                }
+            } else {
+                ensure(1);
+                this.bytes[this.count++] = (byte) b;
+            }
+        }
+
+        /**
+         * Write a value, one byte for every char, decoding the URL encoding and escaping.
+         *
+         * @param value      Value to write.
+         * @param urlEncoded True to decode the URL encoding.
+         * @param escape     True to escape the HTML special chars.
+         */
+        private void writeValue(String value, boolean urlEncoded, boolean escape) {
+            for (int i = 0; i < value.length(); i++) {
+                int c = value.charAt(i);
+                if (urlEncoded && c == '+') {
+                    c = ' ';
+                } else if (urlEncoded && c == '%' && i + 2 < value.length()
+                        && Character.digit(value.charAt(i + 1), 16) >= 0
+                        && Character.digit(value.charAt(i + 2), 16) >= 0) {
+                    c = Character.digit(value.charAt(i + 1), 16) * 16
+                            + Character.digit(value.charAt(i + 2), 16);
+                    i += 2;
+                }
+                writeByte(c, escape);
+            }
+        }
+
+        /**
+         * Get the number of written bytes.
+         *
+         * @return Number of written bytes.
+         */
+        private int size() {
+            return this.count;
+        }
+
+        /**
+         * Get the written bytes as response body, without copy.
+         *
+         * @return Buffer of the written bytes.
+         */
+        private ByteBuffer toBuffer() {
+            return ByteBuffer.wrap(this.bytes, 0, this.count);
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Server side templates of the document root.
+ * The files ending with the template extension are compiled at the first request and compiled
+ * again when the file changes, the content type is the one of the name without the template
+ * extension: page.html.tpl renders text/html. The rendered fragments are cached until their time
+ * to live expires. Every fragment keeps a bounded number of renderings for its vary values in its
+ * own least recently used order, guarded by its own monitor: a fragment over its cap evicts its
+ * own least recently used rendering in constant time, so a client sending always new values can't
+ * flush the other fragments, and the hits of different fragments never share a lock. A full cache
+ * evicts from the fragment being cached, if it has other renderings, else from another fragment.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-22)
+ */
+public class TemplateEngine {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Template file extension.
+     */
+    public static final String EXTENSION = ".tpl";
+
+    /**
+     * Maximum number of cached fragments.
+     */
+    public static final int MAX_FRAGMENTS = Integer.getInteger("openweb.templates.fragments", 10_000);
+
+    /**
+     * Maximum number of cached renderings of a fragment, for its different vary values.
+     */
+    public static final int MAX_VARIANTS = Integer.getInteger("openweb.templates.variants", 1_000);
+
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Compiled templates, by path.
+     */
+    private static final Map<Path, Template> TEMPLATES = new ConcurrentHashMap<>();
+
+    /**
+     * Rendered fragments by fragment name, every one with its renderings.
+     */
+    private static final Map<String, Renderings> FRAGMENTS = new ConcurrentHashMap<>();
+
+    /**
+     * Cached renderings of all the fragments.
+     */
+    private static final AtomicInteger RENDERINGS = new AtomicInteger();
+
+    /**
+     * Template compilations.
+     */
+    private static final LongAdder COMPILES = new LongAdder();
+
+    /**
+     * Template renderings.
+     */
+    private static final LongAdder RENDERS = new LongAdder();
+
+    /**
+     * Fragments served from the cache.
+     */
+    private static final LongAdder FRAGMENT_HITS = new LongAdder();
+
+    /**
+     * Fragments rendered.
+     */
+    private static final LongAdder FRAGMENT_MISSES = new LongAdder();
+
+    static {
+        StatsReporter.register("templates", TemplateEngine::report);
+    }
+
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * Template engine has only static components.
+     */
+    private TemplateEngine() {
+
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Check if a path is a template.
+     *
+     * @param path File path.
+     * @return True if the file name ends with the template extension.
+     */
+    public static boolean isTemplate(Path path) {
+        return path.toString().endsWith(EXTENSION);
+    }
+
+    /**
+     * Render a template, compiling it if new or changed.
+     *
+     * @param path    Template file path.
+     * @param request Http request.
+     * @return Http response with the rendered template, null if the template is not found.
+     * @throws IOException Error while reading the template or syntax error.
+     */
+    public static HttpResponse render(Path path, HttpRequest request) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException ioe) {
+            return null;
+        }
+        if (!attributes.isRegularFile()) {
+            return null;
+        }
+
+        Template template = TEMPLATES.get(path);
+        if (template == null || !template.isFresh(attributes)) {
+            String name = path.toString();
+            template = new Template(path,
+                    FileRequest.getContentType(name.substring(0, name.length() - EXTENSION.length())),
+                    Files.readAllBytes(path), attributes);
+            TEMPLATES.put(path, template);
+            COMPILES.increment();
+        }
+
+        RENDERS.increment();
+        return template.render(request);
+    }
+
+    /**
+     * Get a rendered fragment, if cached and not expired.
+     *
+     * @param name Fragment name, template path and fragment name.
+     * @param key  Fragment key, the name and the vary values.
+     * @return Rendered fragment, null if not cached or expired.
+     */
+    public static byte[] getFragment(String name, String key) {
+        long now = System.currentTimeMillis();
+        Renderings renderings = FRAGMENTS.get(name);
+        if (renderings != null) {
+            synchronized (renderings) {
+                CachedFragment fragment = renderings.get(key);
+                if (fragment != null && fragment.expires > now) {
+                    FRAGMENT_HITS.increment();
+                    return fragment.bytes;
+                } else if (fragment != null) {
+                    renderings.remove(key);
+                    RENDERINGS.decrementAndGet();
+                }
+            }
+        }
+        FRAGMENT_MISSES.increment();
+        return null;
+    }
+
+    /**
+     * Cache a rendered fragment, evicting the least recently used rendering of the fragment if
+     * it's over its cap, then a least recently used rendering if the cache is full.
+     *
+     * @param name  Fragment name, template path and fragment name.
+     * @param key   Fragment key, the name and the vary values.
+     * @param bytes Rendered fragment.
+     * @param ttl   Time to live, in milliseconds.
+     */
+    public static void putFragment(String name, String key, byte[] bytes, long ttl) {
+        CachedFragment fragment = new CachedFragment(bytes, System.currentTimeMillis() + ttl);
+        Renderings renderings = FRAGMENTS.computeIfAbsent(name, fragmentName -> new Renderings());
+        synchronized (renderings) {
+            if (renderings.put(key, fragment) == null) {
+                RENDERINGS.incrementAndGet();
+            }
+        }
+        if (RENDERINGS.get() > MAX_FRAGMENTS) {
+            evict(renderings);
+        }
+    }
+
+    /**
+     * Evict a least recently used rendering from a full cache: the one of the fragment just
+     * cached if it has others, else the one of the first fragment with renderings.
+     *
+     * @param cached Renderings of the fragment just cached.
+     */
+    private static void evict(Renderings cached) {
+        synchronized (cached) {
+            if (cached.size() > 1) {
+                cached.removeEldest();
+                return;
+            }
+        }
+        for (Renderings renderings : FRAGMENTS.values()) {
+            synchronized (renderings) {
+                if (!renderings.isEmpty()) {
+                    renderings.removeEldest();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Build the template statistics.
+     *
+     * @return Compiled templates, renderings and fragment cache hits.
+     */
+    public static String report() {
+        return "templates=" + TEMPLATES.size() + " compiles=" + COMPILES.sum()
+                + " renders=" + RENDERS.sum() + " fragments=" + RENDERINGS.get()
+                + " fragment-hits=" + FRAGMENT_HITS.sum() + " fragment-misses=" + FRAGMENT_MISSES.sum();
+    }
+
+    /**
+     * Renderings of a fragment by fragment key, least recently used first, guarded by itself.
+     * Over the variants cap the least recently used rendering is evicted.
+     */
+    private static class Renderings extends LinkedHashMap<String, CachedFragment> {
+
+        /**
+         * Serialization version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Create the renderings of a fragment, in access order.
+         */
+        private Renderings() {
+            super(16, 0.75f, true);
+        }
+
+        /**
+         * Remove the least recently used rendering.
+         */
+        private void removeEldest() {
+            Iterator<CachedFragment> iterator = values().iterator();
+            iterator.next();
+            iterator.remove();
+            RENDERINGS.decrementAndGet();
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedFragment> eldest) {
+            if (size() > MAX_VARIANTS) {
+                RENDERINGS.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Rendered fragment with its expiration.
+     */
+    private static class CachedFragment {
+
+        /**
+         * Rendered fragment.
+         */
+        private final byte[] bytes;
+
+        /**
+         * Expiration time, in milliseconds.
+         */
+        private final long expires;
+
+        /**
+         * Create the cached fragment.
+         *
+         * @param bytes   Rendered fragment.
+         * @param expires Expiration time, in milliseconds.
+         */
+        private CachedFragment(byte[] bytes, long expires) {
+            this.bytes = bytes;
+            this.expires = expires;
+        }
+    }
+}
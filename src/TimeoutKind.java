@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connection timeout kinds.
+ * Every phase of a connection has its own deadline, configurable in milliseconds through a system
+ * property, and counts its expired timeouts.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-11)
+ */
+public enum TimeoutKind {
+
+    /**
+     * Reading the request line and headers.
+     */
+    HEADER_READ("openweb.timeout.header", 10_000, true),
+
+    /**
+     * Reading the request body.
+     */
+    BODY_READ("openweb.timeout.body", 30_000, true),
+
+    /**
+     * Waiting for the next request on a kept alive connection.
+     */
+    IDLE("openweb.timeout.idle", 15_000, false),
+
+    /**
+     * Writing the response.
+     */
+    WRITE("openweb.timeout.write", 30_000, false),
+
+    /**
+     * Writing a chunk of a large response, holding one of the few turns of the large lane.
+     */
+    CHUNK_WRITE("openweb.timeout.chunk", 5_000, false);
+
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Timeout in milliseconds.
+     */
+    private final long millis;
+
+    /**
+     * True if the client gets a 408 response when the timeout expires.
+     */
+    private final boolean requestTimeout;
+
+    /**
+     * Number of expired timeouts.
+     */
+    private final AtomicLong expired = new AtomicLong();
+
+    // --------------------------------------------------------------------------- Getters & Setters
+
+    /**
+     * Get the timeout in milliseconds.
+     *
+     * @return Timeout in milliseconds.
+     */
+    public long getMillis() {
+        return this.millis;
+    }
+
+    /**
+     * Check if the client gets a 408 response when the timeout expires.
+     *
+     * @return True if the client gets a 408 response.
+     */
+    public boolean isRequestTimeout() {
+        return this.requestTimeout;
+    }
+
+    /**
+     * Get the number of expired timeouts.
+     *
+     * @return Number of expired timeouts.
+     */
+    public long getExpired() {
+        return this.expired.get();
+    }
+
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * Create the timeout kind.
+     *
+     * @param property       System property of the timeout in milliseconds.
+     * @param millis         Default timeout in milliseconds.
+     * @param requestTimeout True if the client gets a 408 response when the timeout expires.
+     */
+    TimeoutKind(String property, long millis, boolean requestTimeout) {
+        this.millis = Long.getLong(property, millis);
+        this.requestTimeout = requestTimeout;
+    }
+
+    // ----------------------------------------------------------------------------- General Methods
+
+    /**
+     * Count an expired timeout.
+     */
+    public void expire() {
+        this.expired.incrementAndGet();
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Get the expired timeouts of every kind.
+     *
+     * @return Expired timeouts statistics line.
+     */
+    public static String report() {
+        StringBuilder report = new StringBuilder();
+        for (TimeoutKind kind : values()) {
+            if (report.length() > 0) {
+                report.append(' ');
+            }
+            report.append(kind.name().toLowerCase()).append('=').append(kind.getExpired());
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashed timing wheel.
+ * The wheel is an array of buckets, every bucket is a doubly linked list of timeouts. A timeout is
+ * placed in the bucket of its deadline tick modulo the wheel size, with the number of complete
+ * rounds still to wait. Scheduling and cancelling are O(1): the callers only enqueue the timeout,
+ * the worker thread moves the new timeouts in the buckets and unlinks the cancelled ones at every
+ * tick, then expires the timeouts of the current bucket.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-11)
+ */
+public class TimingWheel extends Thread {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Timeout waiting in the pending queue or in a bucket.
+     */
+    private static final int WAITING = 0;
+
+    /**
+     * Cancelled timeout.
+     */
+    private static final int CANCELLED = 1;
+
+    /**
+     * Expired timeout.
+     */
+    private static final int EXPIRED = 2;
+
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Tick duration in nanoseconds.
+     */
+    private long tickNanos;
+
+    /**
+     * Wheel buckets, the length is a power of two.
+     */
+    private Timeout[] buckets;
+
+    /**
+     * Mask to compute the bucket of a tick.
+     */
+    private int mask;
+
+    /**
+     * Timeouts scheduled but not yet placed in a bucket.
+     */
+    private Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Timeouts cancelled but not yet removed from their bucket.
+     */
+    private Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Wheel start time in nanoseconds.
+     */
+    private long startTime = System.nanoTime();
+
+    /**
+     * Current tick, only used by the worker thread.
+     */
+    private long tick;
+
+    // --------------------------------------------------------------------------- Getters & Setters
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * Create the timing wheel as daemon thread.
+     *
+     * @param name      Thread name.
+     * @param tick      Tick duration.
+     * @param unit      Tick duration unit.
+     * @param wheelSize Number of buckets, rounded up to a power of two.
+     */
+    public TimingWheel(String name, long tick, TimeUnit unit, int wheelSize) {
+        super(name);
+        setDaemon(true);
+        int size = Integer.highestOneBit(Math.max(wheelSize, 2) - 1) << 1;
+        this.tickNanos = Math.max(unit.toNanos(tick), 1_000_000);
+        this.buckets = new Timeout[size];
+        this.mask = size - 1;
+    }
+
+    // -------------------------------------------------------------------------------- Help Methods
+
+    /**
+     * Move the scheduled timeouts in their buckets.
+     * A bounded number is moved for each tick, so a burst of schedules can't stall the wheel.
+     */
+    private void transferPending() {
+        for (int i = 0; i < 100_000; i++) {
+            Timeout timeout = this.pending.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (timeout.state.get() != WAITING) {
+                continue;
+            }
+
+            long deadlineTick = Math.max(timeout.deadline / this.tickNanos, this.tick);
+            timeout.rounds = (deadlineTick - this.tick) / this.buckets.length;
+            timeout.bucket = (int) (deadlineTick & this.mask);
+            link(timeout);
+        }
+    }
+
+    /**
+     * Remove the cancelled timeouts from their buckets.
+     */
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = this.cancelled.poll()) != null) {
+            unlink(timeout);
+        }
+    }
+
+    /**
+     * Link the timeout at the head of its bucket.
+     *
+     * @param timeout Timeout to link.
+     */
+    private void link(Timeout timeout) {
+        Timeout head = this.buckets[timeout.bucket];
+        timeout.next = head;
+        timeout.prev = null;
+        if (head != null) {
+            head.prev = timeout;
+        }
+        this.buckets[timeout.bucket] = timeout;
+        timeout.linked = true;
+    }
+
+    /**
+     * Unlink the timeout from its bucket.
+     *
+     * @param timeout Timeout to unlink.
+     */
+    private void unlink(Timeout timeout) {
+        if (!timeout.linked) {
+            return;
+        }
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            this.buckets[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.linked = false;
+    }
+
+    /**
+     * Expire the timeouts of the current bucket that have no more rounds to wait.
+     */
+    private void expireBucket() {
+        Timeout timeout = this.buckets[(int) (this.tick & this.mask)];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.rounds <= 0) {
+                unlink(timeout);
+                if (timeout.state.compareAndSet(WAITING, EXPIRED)) {
+                    try {
+                        timeout.task.run();
+                    } catch (RuntimeException ignored) {
+
+                    }
+                }
+            } else {
+                timeout.rounds--;
+            }
+            timeout = next;
+        }
+    }
+
+    // ----------------------------------------------------------------------------- General Methods
+
+    /**
+     * Schedule a task to run after the delay.
+     * The task runs on the wheel thread, so it must be short.
+     *
+     * @param task  Task to run at the deadline.
+     * @param delay Delay before the deadline.
+     * @param unit  Delay unit.
+     * @return Scheduled timeout, used to cancel it.
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        long deadline = System.nanoTime() - this.startTime + unit.toNanos(delay);
+        Timeout timeout = new Timeout(this, task, deadline);
+        this.pending.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Advance the wheel at every tick.
+     */
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                long sleep = (this.tick + 1) * this.tickNanos - (System.nanoTime() - this.startTime);
+                if (sleep > 0) {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                }
+
+                removeCancelled();
+                transferPending();
+                expireBucket();
+                this.tick++;
+            }
+        } catch (InterruptedException ignored) {
+
+        }
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Timeout scheduled in a timing wheel.
+     */
+    public static class Timeout {
+
+        /**
+         * Wheel of the timeout.
+         */
+        private final TimingWheel wheel;
+
+        /**
+         * Task to run at the deadline.
+         */
+        private final Runnable task;
+
+        /**
+         * Deadline in nanoseconds from the wheel start.
+         */
+        private final long deadline;
+
+        /**
+         * Timeout state: waiting, cancelled or expired.
+         */
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+
+        /**
+         * Rounds of the wheel still to wait, only used by the worker thread.
+         */
+        private long rounds;
+
+        /**
+         * Bucket index, only used by the worker thread.
+         */
+        private int bucket;
+
+        /**
+         * True if linked in a bucket, only used by the worker thread.
+         */
+        private boolean linked;
+
+        /**
+         * Previous timeout in the bucket.
+         */
+        private Timeout prev;
+
+        /**
+         * Next timeout in the bucket.
+         */
+        private Timeout next;
+
+        /**
+         * Create the timeout.
+         *
+         * @param wheel    Wheel of the timeout.
+         * @param task     Task to run at the deadline.
+         * @param deadline Deadline in nanoseconds from the wheel start.
+         */
+        private Timeout(TimingWheel wheel, Runnable task, long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Check if the timeout is expired.
+         *
+         * @return True if the task has run.
+         */
+        public boolean isExpired() {
+            return this.state.get() == EXPIRED;
+        }
+
+        /**
+         * Cancel the timeout.
+         *
+         * @return True if cancelled, false if already expired or cancelled.
+         */
+        public boolean cancel() {
+            if (this.state.compareAndSet(WAITING, CANCELLED)) {
+                this.wheel.cancelled.add(this);
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+
+/**
+ * TLS handshake benchmark.
+ * Measure the full handshakes per second, invalidating the client session after every connection,
+ * and the resumed handshakes per second, reusing the client session cache. Every connection sends
+ * one request, so the server counts the handshake too. Trusts any certificate, to run against the
+ * self-signed test key store.
+ * Usage: java TlsBench [host] [port] [connections]
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-13)
+ */
+public class TlsBench {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Request sent on every connection.
+     */
+    private static final byte[] REQUEST = "GET / HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    // ---------------------------------------------------------------------------------- Attributes
+    // --------------------------------------------------------------------------- Getters & Setters
+    // -------------------------------------------------------------------------------- Constructors
+    // -------------------------------------------------------------------------------- Help Methods
+    // ----------------------------------------------------------------------------- General Methods
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Create a client SSL context that trusts any certificate.
+     *
+     * @return Client SSL context.
+     * @throws GeneralSecurityException Error while creating the context.
+     */
+    private static SSLContext trustAll() throws GeneralSecurityException {
+        TrustManager trustAll = new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        };
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, new TrustManager[]{trustAll}, null);
+        return context;
+    }
+
+    /**
+     * Connect, send one request and read the response.
+     *
+     * @param context    Client SSL context.
+     * @param host       Server host.
+     * @param port       Server port.
+     * @param invalidate True to invalidate the session, so the next handshake is full.
+     * @throws IOException Error during the connection.
+     */
+    private static void connect(SSLContext context, String host, int port, boolean invalidate)
+            throws IOException {
+        try (SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket(host, port)) {
+            socket.startHandshake();
+            OutputStream out = socket.getOutputStream();
+            out.write(REQUEST);
+            out.flush();
+
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[8192];
+            socket.setSoTimeout(200);
+            try {
+                in.read(buffer);
+            } catch (IOException ignored) {
+
+            }
+            if (invalidate) {
+                socket.getSession().invalidate();
+            }
+        }
+    }
+
+    /**
+     * Run the handshakes and print the handshakes per second.
+     *
+     * @param name        Benchmark name.
+     * @param context     Client SSL context.
+     * @param host        Server host.
+     * @param port        Server port.
+     * @param connections Number of connections.
+     * @param invalidate  True to invalidate the session after every connection.
+     * @throws IOException Error during a connection.
+     */
+    private static void run(String name, SSLContext context, String host, int port,
+                            int connections, boolean invalidate) throws IOException {
+        long start = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            connect(context, host, port, invalidate);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%s: %d handshakes in %.2f s, %.1f hs/s%n",
+                name, connections, seconds, connections / seconds);
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args Host, port and number of connections.
+     * @throws Exception Error during the benchmark.
+     */
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : TlsContext.PORT;
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+
+        run("full", trustAll(), host, port, connections, true);
+
+        SSLContext resumed = trustAll();
+        connect(resumed, host, port, false);
+        run("resumed", resumed, host, port, connections, false);
+    }
+}
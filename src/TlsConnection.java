@@ -0,0 +1,507 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+
+/**
+ * TLS connection over an SSLEngine.
+ * Works on a blocking socket, using its streams, or on a blocking or non-blocking socket channel:
+ * in non-blocking mode read and write return 0 when the channel isn't ready.
+ * The network data is read straight in the network buffer backing array and the application data
+ * is unwrapped straight in the caller buffer when it's large enough, so the only copy is from the
+ * application buffer when the caller buffer is small.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-13)
+ */
+public class TlsConnection implements ByteChannel {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Empty buffer used to wrap the handshake messages.
+     */
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * TLS context of the connection.
+     */
+    private final TlsContext context;
+
+    /**
+     * SSL engine.
+     */
+    private final SSLEngine engine;
+
+    /**
+     * Socket of a blocking connection, null for a channel connection.
+     */
+    private Socket socket;
+
+    /**
+     * Socket input stream of a blocking connection.
+     */
+    private InputStream input;
+
+    /**
+     * Socket output stream of a blocking connection.
+     */
+    private OutputStream output;
+
+    /**
+     * Socket channel of a channel connection, null for a blocking connection.
+     */
+    private SocketChannel channel;
+
+    /**
+     * Network data read from the client, in write mode.
+     */
+    private ByteBuffer netIn;
+
+    /**
+     * Network data to send to the client, in write mode.
+     */
+    private ByteBuffer netOut;
+
+    /**
+     * Application data unwrapped but not yet read, in write mode.
+     */
+    private ByteBuffer appIn;
+
+    /**
+     * Handshake start time in milliseconds, 0 if not started.
+     */
+    private long handshakeStart;
+
+    /**
+     * True when the handshake is complete.
+     */
+    private volatile boolean handshakeComplete;
+
+    /**
+     * Lock of the read side.
+     */
+    private final Object readLock = new Object();
+
+    /**
+     * Lock of the write side.
+     */
+    private final Object writeLock = new Object();
+
+    // --------------------------------------------------------------------------- Getters & Setters
+
+    /**
+     * Check if the handshake is complete.
+     *
+     * @return True if the handshake is complete.
+     */
+    public boolean isHandshakeComplete() {
+        return this.handshakeComplete;
+    }
+
+    /**
+     * Get the negotiated application protocol.
+     *
+     * @return Application protocol, empty if not negotiated or the handshake isn't complete.
+     */
+    public String getApplicationProtocol() {
+        String protocol = this.engine.getApplicationProtocol();
+        return protocol == null ? "" : protocol;
+    }
+
+    /**
+     * Get an input stream reading the application data.
+     *
+     * @return Application data input stream.
+     */
+    public InputStream getInputStream() {
+        return Channels.newInputStream(this);
+    }
+
+    /**
+     * Get an output stream writing the application data.
+     *
+     * @return Application data output stream.
+     */
+    public OutputStream getOutputStream() {
+        return Channels.newOutputStream(this);
+    }
+
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * Create the TLS connection of a blocking socket.
+     *
+     * @param context TLS context.
+     * @param engine  Server SSL engine.
+     * @param socket  Accepted socket.
+     * @throws IOException Error while getting the socket streams.
+     */
+    public TlsConnection(TlsContext context, SSLEngine engine, Socket socket) throws IOException {
+        this(context, engine);
+        this.socket = socket;
+        this.input = socket.getInputStream();
+        this.output = socket.getOutputStream();
+    }
+
+    /**
+     * Create the TLS connection of a socket channel.
+     *
+     * @param context TLS context.
+     * @param engine  Server SSL engine.
+     * @param channel Accepted socket channel.
+     */
+    public TlsConnection(TlsContext context, SSLEngine engine, SocketChannel channel) {
+        this(context, engine);
+        this.channel = channel;
+    }
+
+    /**
+     * Create the TLS connection buffers.
+     *
+     * @param context TLS context.
+     * @param engine  Server SSL engine.
+     */
+    private TlsConnection(TlsContext context, SSLEngine engine) {
+        this.context = context;
+        this.engine = engine;
+        int packetSize = engine.getSession().getPacketBufferSize();
+        this.netIn = ByteBuffer.allocate(packetSize);
+        this.netOut = ByteBuffer.allocate(packetSize);
+        this.appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+    }
+
+    // -------------------------------------------------------------------------------- Help Methods
+
+    /**
+     * Read network data from the client in the network input buffer.
+     *
+     * @return Bytes read, 0 if the channel isn't ready, -1 at the end of the stream.
+     * @throws IOException Error while reading from the client.
+     */
+    private int fill() throws IOException {
+        if (!this.netIn.hasRemaining()) {
+            this.netIn = enlarge(this.netIn, this.engine.getSession().getPacketBufferSize());
+        }
+        if (this.channel != null) {
+            return this.channel.read(this.netIn);
+        }
+        int read = this.input.read(this.netIn.array(),
+                this.netIn.arrayOffset() + this.netIn.position(), this.netIn.remaining());
+        if (read > 0) {
+            this.netIn.position(this.netIn.position() + read);
+        }
+        return read;
+    }
+
+    /**
+     * Send the network output buffer to the client.
+     *
+     * @return True if the buffer is empty, false if the channel isn't ready.
+     * @throws IOException Error while writing to the client.
+     */
+    private boolean flush() throws IOException {
+        this.netOut.flip();
+        if (this.channel != null) {
+            this.channel.write(this.netOut);
+        } else {
+            this.output.write(this.netOut.array(),
+                    this.netOut.arrayOffset() + this.netOut.position(), this.netOut.remaining());
+            this.output.flush();
+            this.netOut.position(this.netOut.limit());
+        }
+        boolean empty = !this.netOut.hasRemaining();
+        this.netOut.compact();
+        return empty;
+    }
+
+    /**
+     * Wrap a message in the network output buffer.
+     * The buffer is sent only when full, so the handshake messages go out together.
+     *
+     * @param src Application data, empty for handshake messages.
+     * @return Engine result.
+     * @throws IOException Error while wrapping or sending.
+     */
+    private SSLEngineResult wrap(ByteBuffer src) throws IOException {
+        while (true) {
+            SSLEngineResult result = this.engine.wrap(src, this.netOut);
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                if (this.netOut.position() == 0) {
+                    this.netOut = enlarge(this.netOut, this.engine.getSession().getPacketBufferSize());
+                } else if (!flush()) {
+                    return result;
+                }
+                continue;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Run the handshake tasks and the post-handshake messages.
+     *
+     * @param status Engine handshake status.
+     * @throws IOException Error while sending a post-handshake message.
+     */
+    private void handleStatus(SSLEngineResult.HandshakeStatus status) throws IOException {
+        if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+            Runnable task;
+            while ((task = this.engine.getDelegatedTask()) != null) {
+                task.run();
+            }
+        } else if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+            synchronized (this.writeLock) {
+                wrap(EMPTY);
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Run the handshake until complete.
+     * Runs once, the other readers and writers wait for it. Called by the first read or write,
+     * or before them to know the negotiated application protocol.
+     *
+     * @return True if the handshake is complete, false if the channel isn't ready.
+     * @throws IOException Error during the handshake.
+     */
+    public synchronized boolean handshake() throws IOException {
+        if (this.handshakeComplete) {
+            return true;
+        }
+        if (this.handshakeStart == 0) {
+            this.handshakeStart = System.currentTimeMillis();
+            this.engine.beginHandshake();
+        }
+
+        while (true) {
+            SSLEngineResult.HandshakeStatus status = this.engine.getHandshakeStatus();
+            switch (status) {
+                case NEED_TASK:
+                    handleStatus(status);
+                    break;
+                case NEED_WRAP:
+                    SSLEngineResult wrapped = wrap(EMPTY);
+                    if (wrapped.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new SSLException("Connection closed during handshake");
+                    }
+                    break;
+                case NEED_UNWRAP:
+                case NEED_UNWRAP_AGAIN:
+                    this.netIn.flip();
+                    SSLEngineResult unwrapped = this.engine.unwrap(this.netIn, this.appIn);
+                    this.netIn.compact();
+                    if (unwrapped.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                        // send the pending messages before waiting for the client
+                        if (this.netOut.position() > 0 && !flush()) {
+                            return false;
+                        }
+                        int read = fill();
+                        if (read < 0) {
+                            throw new EOFException("Connection closed during handshake");
+                        } else if (read == 0) {
+                            return false;
+                        }
+                    } else if (unwrapped.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                        this.appIn = enlarge(this.appIn,
+                                this.engine.getSession().getApplicationBufferSize());
+                    } else if (unwrapped.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new SSLException("Connection closed during handshake");
+                    }
+                    break;
+                default:
+                    if (this.netOut.position() > 0 && !flush()) {
+                        return false;
+                    }
+                    this.handshakeComplete = true;
+                    this.context.handshakeCompleted(this.engine.getSession(), this.handshakeStart);
+                    return true;
+            }
+        }
+    }
+
+    /**
+     * Move the unwrapped application data to the destination.
+     *
+     * @param dst Destination buffer.
+     * @return Bytes moved.
+     */
+    private int drain(ByteBuffer dst) {
+        this.appIn.flip();
+        int count = Math.min(this.appIn.remaining(), dst.remaining());
+        ByteBuffer slice = this.appIn.slice();
+        slice.limit(count);
+        dst.put(slice);
+        this.appIn.position(this.appIn.position() + count);
+        this.appIn.compact();
+        return count;
+    }
+
+    // ----------------------------------------------------------------------------- General Methods
+
+    /**
+     * Read application data from the client.
+     *
+     * @param dst Destination buffer.
+     * @return Bytes read, 0 if the channel isn't ready, -1 at the end of the stream.
+     * @throws IOException Error while reading from the client.
+     */
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!this.handshakeComplete && !handshake()) {
+            return 0;
+        }
+        synchronized (this.readLock) {
+            while (true) {
+                if (this.appIn.position() > 0) {
+                    return drain(dst);
+                }
+
+                // unwrap straight in the destination when it can hold a whole record
+                boolean direct = dst.remaining() >= this.engine.getSession().getApplicationBufferSize();
+                this.netIn.flip();
+                SSLEngineResult result = this.engine.unwrap(this.netIn, direct ? dst : this.appIn);
+                this.netIn.compact();
+                handleStatus(result.getHandshakeStatus());
+
+                switch (result.getStatus()) {
+                    case OK:
+                        if (direct && result.bytesProduced() > 0) {
+                            return result.bytesProduced();
+                        }
+                        break;
+                    case BUFFER_UNDERFLOW:
+                        int read = fill();
+                        if (read <= 0) {
+                            return read;
+                        }
+                        break;
+                    case BUFFER_OVERFLOW:
+                        this.appIn = enlarge(this.appIn,
+                                this.engine.getSession().getApplicationBufferSize());
+                        break;
+                    default:
+                        return -1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Write application data to the client.
+     *
+     * @param src Source buffer.
+     * @return Bytes written, 0 if the channel isn't ready.
+     * @throws IOException Error while writing to the client.
+     */
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (!this.handshakeComplete && !handshake()) {
+            return 0;
+        }
+        synchronized (this.writeLock) {
+            if (this.netOut.position() > 0 && !flush()) {
+                return 0;
+            }
+            int written = 0;
+            while (src.hasRemaining()) {
+                SSLEngineResult result = wrap(src);
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    throw new SSLException("Connection closed");
+                }
+                written += result.bytesConsumed();
+                if (result.bytesConsumed() == 0) {
+                    break;
+                }
+            }
+            flush();
+            return written;
+        }
+    }
+
+    /**
+     * Check if the connection is open.
+     *
+     * @return True if the connection is open.
+     */
+    @Override
+    public boolean isOpen() {
+        return this.channel != null ? this.channel.isOpen() : !this.socket.isClosed();
+    }
+
+    /**
+     * Send the close notify alert and close the socket.
+     *
+     * @throws IOException Error while closing the socket.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (this.handshakeComplete) {
+                synchronized (this.writeLock) {
+                    this.engine.closeOutbound();
+                    wrap(EMPTY);
+                    flush();
+                }
+            }
+        } catch (IOException ignored) {
+
+        } finally {
+            if (this.channel != null) {
+                this.channel.close();
+            } else {
+                this.socket.close();
+            }
+        }
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Enlarge a buffer in write mode, keeping its content.
+     *
+     * @param buffer  Buffer to enlarge.
+     * @param minimum Minimum free space.
+     * @return Enlarged buffer.
+     */
+    private static ByteBuffer enlarge(ByteBuffer buffer, int minimum) {
+        ByteBuffer larger = ByteBuffer.allocate(buffer.position() + Math.max(minimum, buffer.capacity()));
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * TLS context of the https listeners.
+ * Load the server key store, configure the bounded session cache and the session tickets used for
+ * the session resumption, select the application protocol (ALPN) and count the full and the
+ * resumed handshakes.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-13)
+ */
+public class TlsContext {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Key store path, the https listener is disabled without a key store.
+     */
+    public static final String KEYSTORE = System.getProperty("openweb.tls.keystore");
+
+    /**
+     * Key store password.
+     */
+    public static final String KEYSTORE_PASSWORD = System.getProperty("openweb.tls.password", "changeit");
+
+    /**
+     * Https listener port.
+     */
+    public static final int PORT = Integer.getInteger("openweb.tls.port", 443);
+
+    /**
+     * Maximum number of sessions in the session cache.
+     */
+    public static final int SESSION_CACHE_SIZE = Integer.getInteger("openweb.tls.sessions", 20_000);
+
+    /**
+     * Session lifetime in seconds.
+     */
+    public static final int SESSION_TIMEOUT = Integer.getInteger("openweb.tls.session.timeout", 3600);
+
+    /**
+     * True to resume the sessions with stateless session tickets.
+     */
+    public static final boolean SESSION_TICKETS = Boolean.parseBoolean(
+            System.getProperty("openweb.tls.tickets", "true"));
+
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * SSL context.
+     */
+    private SSLContext context;
+
+    /**
+     * Supported application protocols, in preference order.
+     */
+    private List<String> applicationProtocols = new CopyOnWriteArrayList<>(List.of("http/1.1"));
+
+    /**
+     * Full handshakes meter.
+     */
+    private RateMeter fullHandshakes = new RateMeter();
+
+    /**
+     * Resumed handshakes meter.
+     */
+    private RateMeter resumedHandshakes = new RateMeter();
+
+    // --------------------------------------------------------------------------- Getters & Setters
+
+    /**
+     * Get the SSL context.
+     *
+     * @return SSL context.
+     */
+    public SSLContext getContext() {
+        return this.context;
+    }
+
+    /**
+     * Set the supported application protocols, in preference order.
+     *
+     * @param protocols Application protocols, like "h2" and "http/1.1".
+     */
+    public void setApplicationProtocols(String... protocols) {
+        this.applicationProtocols = new CopyOnWriteArrayList<>(protocols);
+    }
+
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * Create the TLS context from the key store.
+     *
+     * @param keystore Key store path, PKCS12 or JKS.
+     * @param password Key store password.
+     * @throws IOException Error while loading the key store.
+     */
+    public TlsContext(String keystore, String password) throws IOException {
+        System.setProperty("jdk.tls.server.enableSessionTicketExtension",
+                String.valueOf(SESSION_TICKETS));
+        try (InputStream input = Files.newInputStream(Paths.get(keystore))) {
+            KeyStore keys = KeyStore.getInstance(keystore.endsWith(".jks") ? "JKS" : "PKCS12");
+            keys.load(input, password.toCharArray());
+
+            KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(
+                    KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(keys, password.toCharArray());
+
+            this.context = SSLContext.getInstance("TLS");
+            this.context.init(keyManagers.getKeyManagers(), null, null);
+        } catch (GeneralSecurityException gse) {
+            throw new IOException("TLS context initialization failed", gse);
+        }
+
+        SSLSessionContext sessions = this.context.getServerSessionContext();
+        sessions.setSessionCacheSize(SESSION_CACHE_SIZE);
+        sessions.setSessionTimeout(SESSION_TIMEOUT);
+
+        StatsReporter.register("tls-handshakes", () -> "full " + this.fullHandshakes.report("hs")
+                + ", resumed " + this.resumedHandshakes.report("hs"));
+    }
+
+    // -------------------------------------------------------------------------------- Help Methods
+
+    /**
+     * Create a server engine with the application protocol selector.
+     *
+     * @return Server SSL engine.
+     */
+    private SSLEngine createEngine() {
+        SSLEngine engine = this.context.createSSLEngine();
+        engine.setUseClientMode(false);
+        engine.setHandshakeApplicationProtocolSelector((e, offered) -> {
+            for (String protocol : this.applicationProtocols) {
+                if (offered.contains(protocol)) {
+                    return protocol;
+                }
+            }
+            // no common protocol: don't use ALPN
+            return "";
+        });
+        return engine;
+    }
+
+    // ----------------------------------------------------------------------------- General Methods
+
+    /**
+     * Create the TLS connection of a blocking socket.
+     * The handshake runs at the first read or write.
+     *
+     * @param socket Accepted socket.
+     * @return TLS connection.
+     * @throws IOException Error while getting the socket streams.
+     */
+    public TlsConnection createConnection(Socket socket) throws IOException {
+        return new TlsConnection(this, createEngine(), socket);
+    }
+
+    /**
+     * Create the TLS connection of a blocking or non-blocking socket channel.
+     * The handshake runs at the first read or write.
+     *
+     * @param channel Accepted socket channel.
+     * @return TLS connection.
+     */
+    public TlsConnection createConnection(SocketChannel channel) {
+        return new TlsConnection(this, createEngine(), channel);
+    }
+
+    /**
+     * Count a completed handshake.
+     * A resumed session was created before the handshake started.
+     *
+     * @param session        Negotiated session.
+     * @param handshakeStart Handshake start time in milliseconds.
+     */
+    public void handshakeCompleted(SSLSession session, long handshakeStart) {
+        if (session.getCreationTime() < handshakeStart) {
+            this.resumedHandshakes.mark();
+        } else {
+            this.fullHandshakes.mark();
+        }
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+}
@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket.
+ * Implemented as generic cell rate algorithm: the whole state is the theoretical arrival time of
+ * the next request, updated with a single compare and set. Every request moves the arrival time
+ * forward by the emission interval, the request is refused when the arrival time goes beyond the
+ * burst tolerance. A bucket with the arrival time in the past is full.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-12)
+ */
+public class TokenBucket {
+    // ------------------------------------------------------------------------------------ Costants
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Theoretical arrival time of the next request in nanoseconds.
+     */
+    private final AtomicLong arrival;
+
+    // --------------------------------------------------------------------------- Getters & Setters
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * Create a full token bucket.
+     *
+     * @param now Current time in nanoseconds.
+     */
+    public TokenBucket(long now) {
+        this.arrival = new AtomicLong(now);
+    }
+
+    // -------------------------------------------------------------------------------- Help Methods
+    // ----------------------------------------------------------------------------- General Methods
+
+    /**
+     * Take a token from the bucket.
+     *
+     * @param now       Current time in nanoseconds.
+     * @param interval  Emission interval in nanoseconds, the time to refill one token.
+     * @param tolerance Burst tolerance in nanoseconds, the time to refill the burst minus one.
+     * @return 0 if the token was taken, other ways the nanoseconds to wait for the next token.
+     */
+    public long take(long now, long interval, long tolerance) {
+        while (true) {
+            long current = this.arrival.get();
+            long next = Math.max(current, now) + interval;
+            long wait = next - now - tolerance - interval;
+            if (wait > 0) {
+                return wait;
+            }
+            if (this.arrival.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Take tokens from the bucket without waiting, the bucket can go in debt.
+     * The following requests wait until the debt is refilled.
+     *
+     * @param now      Current time in nanoseconds.
+     * @param interval Time to refill the tokens taken, in nanoseconds.
+     */
+    public void consume(long now, long interval) {
+        this.arrival.accumulateAndGet(now, (current, time) -> Math.max(current, time) + interval);
+    }
+
+    /**
+     * Check if the bucket is full since at least the idle time.
+     * An idle bucket can be dropped, a new full bucket behaves the same.
+     *
+     * @param now  Current time in nanoseconds.
+     * @param idle Idle time in nanoseconds.
+     * @return True if the bucket is idle.
+     */
+    public boolean isIdle(long now, long idle) {
+        return now - this.arrival.get() >= idle;
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+}
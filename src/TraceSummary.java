@@ -0,0 +1,146 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Summarize the http request events of a flight recording.
+ * Prints for every phase the count, mean and percentiles of the recorded requests, then the
+ * paths with the highest total time.
+ * Usage: java TraceSummary recording.jfr [paths]
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-20)
+ */
+public class TraceSummary {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Phases of the request event, the last one is the whole request.
+     */
+    public static final String[] PHASES = {"accept", "parse", "handle", "write", "total"};
+
+    // ---------------------------------------------------------------------------------- Attributes
+    // --------------------------------------------------------------------------- Getters & Setters
+    // -------------------------------------------------------------------------------- Constructors
+    // -------------------------------------------------------------------------------- Help Methods
+    // ----------------------------------------------------------------------------- General Methods
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Get a percentile of sorted times.
+     *
+     * @param sorted     Sorted times, in nanoseconds.
+     * @param percentile Percentile, from 0 to 100.
+     * @return Percentile time in milliseconds.
+     */
+    private static double percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+
+    /**
+     * Get the time of a phase of a request event.
+     *
+     * @param event Request event.
+     * @param phase Phase index in PHASES.
+     * @return Phase time, in nanoseconds.
+     */
+    private static long phaseTime(RecordedEvent event, int phase) {
+        Duration time = phase < PHASES.length - 1
+                ? event.getDuration(PHASES[phase]) : event.getDuration();
+        return time.toNanos();
+    }
+
+    /**
+     * Print the summary of a recording.
+     *
+     * @param args Recording file and number of paths to print, default 10.
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: java TraceSummary recording.jfr [paths]");
+            return;
+        }
+        int paths = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        List<RecordedEvent> events = new ArrayList<>();
+        try {
+            for (RecordedEvent event : RecordingFile.readAllEvents(Paths.get(args[0]))) {
+                if (event.getEventType().getName().equals(RequestEvent.NAME)) {
+                    events.add(event);
+                }
+            }
+        } catch (IOException ioe) {
+            System.out.println("recording error: " + ioe.getMessage());
+            return;
+        }
+        if (events.isEmpty()) {
+            System.out.println("no " + RequestEvent.NAME + " events");
+            return;
+        }
+
+        System.out.printf("%d requests%n%-8s %10s %10s %10s %10s %10s%n", events.size(),
+                "phase", "mean ms", "p50 ms", "p90 ms", "p99 ms", "max ms");
+        for (int phase = 0; phase < PHASES.length; phase++) {
+            long[] times = new long[events.size()];
+            double sum = 0;
+            for (int i = 0; i < times.length; i++) {
+                times[i] = phaseTime(events.get(i), phase);
+                sum += times[i];
+            }
+            Arrays.sort(times);
+            System.out.printf("%-8s %10.3f %10.3f %10.3f %10.3f %10.3f%n", PHASES[phase],
+                    sum / times.length / 1e6, percentile(times, 50), percentile(times, 90),
+                    percentile(times, 99), times[times.length - 1] / 1e6);
+        }
+
+        Map<String, long[]> byPath = new HashMap<>();
+        for (RecordedEvent event : events) {
+            String path = event.getString("path");
+            long[] totals = byPath.computeIfAbsent(path != null ? path : "-", p -> new long[2]);
+            totals[0]++;
+            totals[1] += event.getDuration().toNanos();
+        }
+        List<Map.Entry<String, long[]>> sorted = new ArrayList<>(byPath.entrySet());
+        sorted.sort((a, b) -> Long.compare(b.getValue()[1], a.getValue()[1]));
+
+        System.out.printf("%n%-40s %8s %12s %10s%n", "path", "requests", "total ms", "mean ms");
+        for (int i = 0; i < sorted.size() && i < paths; i++) {
+            long[] totals = sorted.get(i).getValue();
+            System.out.printf("%-40s %8d %12.3f %10.3f%n", sorted.get(i).getKey(), totals[0],
+                    totals[1] / 1e6, totals[1] / 1e6 / totals[0]);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pipelines of the transforms applied to the files when they enter the cache.
+ * Every content type of the FileRequest kinds has its own pipeline, the transforms run in the
+ * registration order. With openweb.minify the html, css and javascript minifiers are registered,
+ * more transforms are registered by class name in openweb.transforms, as
+ * "text/html=MyTransform,text/css=OtherTransform". A transform failing on a file leaves the file
+ * as it is. Every content type counts the bytes saved when filling the cache and the bytes saved
+ * on the wire by the served responses.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-03-03)
+ */
+public class Transforms {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * True to minify html, css and javascript.
+     */
+    public static final boolean MINIFY = Boolean.getBoolean("openweb.minify");
+
+    /**
+     * Additional transforms, as "content/type=ClassName" separated by commas.
+     */
+    public static final String CUSTOM = System.getProperty("openweb.transforms", "");
+
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Transform pipelines, by content type.
+     */
+    private static final Map<String, List<Transform>> PIPELINES = new ConcurrentHashMap<>();
+
+    /**
+     * Savings of the transforms, by content type.
+     */
+    private static final Map<String, Savings> SAVINGS = new ConcurrentHashMap<>();
+
+    static {
+        if (MINIFY) {
+            register("text/html", Minifier.HTML);
+            register("text/css", Minifier.CSS);
+            register("text/js", Minifier.JS);
+        }
+        for (String custom : CUSTOM.split(",")) {
+            String[] typeClass = custom.trim().split("=");
+            if (typeClass.length == 2) {
+                try {
+                    register(typeClass[0].trim(), (Transform) Class.forName(typeClass[1].trim())
+                            .getDeclaredConstructor().newInstance());
+                } catch (ReflectiveOperationException | RuntimeException e) {
+                    System.out.println("transform " + custom + " not loaded: " + e);
+                }
+            }
+        }
+    }
+
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * Transforms has only static components.
+     */
+    private Transforms() {
+
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Check if a content type is one of the FileRequest kinds.
+     *
+     * @param contentType Content type.
+     * @return True if a file kind has the content type.
+     */
+    private static boolean isFileKind(String contentType) {
+        for (String[] kind : FileRequest.FILE_KINDS) {
+            if (contentType.equals(kind[0] + "/" + kind[1])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add a transform at the end of the pipeline of a content type.
+     *
+     * @param contentType Content type of a FileRequest kind, example: text/html.
+     * @param transform   Transform to add.
+     * @throws IllegalArgumentException The content type is not a FileRequest kind.
+     */
+    public static void register(String contentType, Transform transform) {
+        if (!isFileKind(contentType)) {
+            throw new IllegalArgumentException("Unknown file kind: " + contentType);
+        }
+        PIPELINES.computeIfAbsent(contentType, type -> new CopyOnWriteArrayList<>()).add(transform);
+        SAVINGS.computeIfAbsent(contentType, type -> {
+            Savings savings = new Savings();
+            StatsReporter.register("transform-" + type, savings::report);
+            return savings;
+        });
+    }
+
+    /**
+     * Check if a content type has transforms.
+     *
+     * @param contentType Content type.
+     * @return True if the files of the content type are transformed.
+     */
+    public static boolean isTransformed(String contentType) {
+        return PIPELINES.containsKey(contentType);
+    }
+
+    /**
+     * Run the pipeline of the content type on a file content.
+     *
+     * @param contentType File content type.
+     * @param content     File content, not modified.
+     * @return Transformed content, the content itself without transforms.
+     */
+    public static byte[] apply(String contentType, byte[] content) {
+        List<Transform> pipeline = PIPELINES.get(contentType);
+        if (pipeline == null) {
+            return content;
+        }
+
+        byte[] transformed = content;
+        for (Transform transform : pipeline) {
+            try {
+                transformed = transform.apply(transformed);
+            } catch (RuntimeException re) {
+                System.out.println("transform of " + contentType + " failed: " + re);
+                return content;
+            }
+        }
+        Savings savings = SAVINGS.get(contentType);
+        savings.files.increment();
+        savings.bytesIn.add(content.length);
+        savings.bytesOut.add(transformed.length);
+        return transformed;
+    }
+
+    /**
+     * Count the bytes saved on the wire by a response of a transformed file.
+     *
+     * @param contentType File content type.
+     * @param saved       File size less the transformed size, before the compression.
+     */
+    public static void served(String contentType, long saved) {
+        Savings savings = SAVINGS.get(contentType);
+        if (savings != null) {
+            savings.responses.increment();
+            savings.wireSaved.add(saved);
+        }
+    }
+
+    /**
+     * Savings of the transforms of a content type.
+     */
+    private static class Savings {
+
+        /**
+         * Transformed files.
+         */
+        private final LongAdder files = new LongAdder();
+
+        /**
+         * Bytes of the files before the transforms.
+         */
+        private final LongAdder bytesIn = new LongAdder();
+
+        /**
+         * Bytes of the files after the transforms.
+         */
+        private final LongAdder bytesOut = new LongAdder();
+
+        /**
+         * Responses of the transformed files.
+         */
+        private final LongAdder responses = new LongAdder();
+
+        /**
+         * Bytes saved on the wire by the responses.
+         */
+        private final LongAdder wireSaved = new LongAdder();
+
+        /**
+         * Build the savings statistics.
+         *
+         * @return Transformed files, sizes before and after, saved ratio and bytes saved on the
+         * wire.
+         */
+        private String report() {
+            long in = this.bytesIn.sum();
+            long out = this.bytesOut.sum();
+            return String.format("files=%d in=%dKB out=%dKB saved=%.1f%% responses=%d "
+                            + "wire-saved=%dKB", this.files.sum(), in >> 10, out >> 10,
+                    in > 0 ? 100.0 - out * 100.0 / in : 0.0, this.responses.sum(),
+                    this.wireSaved.sum() >> 10);
+        }
+    }
+}
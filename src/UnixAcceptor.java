@@ -0,0 +1,185 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Unix domain socket connection acceptor.
+ * Accept the connections of a listening unix domain socket and start an http session for each
+ * one, the sessions handle the requests like the tcp ones. Local clients, like a reverse proxy on
+ * the same host, skip the tcp stack.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-26)
+ */
+public class UnixAcceptor extends Thread {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Path of the listening unix domain socket, null for no unix domain socket listener.
+     */
+    public static final String PATH = System.getProperty("openweb.unix.path");
+
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Listening channel.
+     */
+    private ServerSocketChannel server;
+
+    /**
+     * Accepted connections meter.
+     */
+    private RateMeter accepted = new RateMeter();
+
+    // --------------------------------------------------------------------------- Getters & Setters
+
+    /**
+     * Get the number of accepted connections.
+     *
+     * @return Number of accepted connections.
+     */
+    public long getAccepted() {
+        return this.accepted.getCount();
+    }
+
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * Create the acceptor on the listening channel.
+     *
+     * @param server Listening channel, bound to a unix domain socket.
+     */
+    public UnixAcceptor(ServerSocketChannel server) {
+        super("acceptor-unix");
+        this.server = server;
+    }
+
+    // -------------------------------------------------------------------------------- Help Methods
+    // ----------------------------------------------------------------------------- General Methods
+
+    /**
+     * Get the accept rate since the last call and the total accepted connections.
+     *
+     * @return Accept rate statistics line.
+     */
+    public String getAcceptRate() {
+        return this.accepted.report("conn");
+    }
+
+    /**
+     * Accept the connections until the listening channel is closed.
+     * A failed accept, like when the process is out of file descriptors, waits before retrying.
+     */
+    @Override
+    public void run() {
+        while (this.server.isOpen()) {
+            try {
+                SocketChannel channel = this.server.accept();
+                this.accepted.mark();
+                new HttpSession(channel).start();
+            } catch (IOException ioe) {
+                if (!this.server.isOpen() || !Acceptor.backOff()) {
+                    break;
+                }
+            }
+        }
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Remove the socket file left by a previous run.
+     * Only a socket nobody listens on is removed, any other file stops the server.
+     *
+     * @param file Path of the unix domain socket.
+     * @throws IOException The path is not a stale socket, or error while removing it.
+     */
+    private static void removeStaleSocket(Path file) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class,
+                    LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException nsfe) {
+            return;
+        }
+        if (!attributes.isOther()) {
+            throw new IOException(file + " exists and is not a socket");
+        }
+
+        boolean listening;
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(file)).close();
+            listening = true;
+        } catch (IOException ioe) {
+            listening = false;
+        }
+        if (listening) {
+            throw new IOException(file + " is in use by another server");
+        }
+        Files.delete(file);
+    }
+
+    /**
+     * Bind the listening unix domain socket and start the acceptor.
+     * A stale socket file left by a previous run is removed before binding, the file is removed
+     * again when the server shuts down.
+     *
+     * @param path    Path of the unix domain socket.
+     * @param backlog Listening socket backlog.
+     * @return Started acceptor.
+     * @throws IOException Error while binding the listening socket.
+     */
+    public static UnixAcceptor start(String path, int backlog) throws IOException {
+        Path file = Paths.get(path);
+        removeStaleSocket(file);
+
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(file), backlog);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+
+            }
+        }));
+
+        UnixAcceptor acceptor = new UnixAcceptor(server);
+        StatsReporter.register("acceptor-unix", acceptor::getAcceptRate);
+        acceptor.start();
+        return acceptor;
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Virtual host, a site with its own document root and its own share of the file cache.
+ * The hosts are read once from the hosts file, one "name root [cache-size]" line for each host,
+ * the name is exact, as www.example.com, or a wildcard for the subdomains, as *.example.com, and
+ * the first host is the default one, serving the requests of unknown hosts. The hosts without a
+ * cache size share equally the cache not assigned to the others, so a busy site evicts only its
+ * own files. Without hosts file the only host is the document root. The invalid lines are skipped.
+ * Only a host serving the document root uses the archive, the peers and the warm-up, all built
+ * from the document root.
+ * The lookup tables are built at startup: an exact name is one hash lookup, a wildcard one more
+ * lookup for each parent domain of the name.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-03-01)
+ */
+public class VirtualHost {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Hosts file, one "name root [cache-size]" line for each host.
+     */
+    public static final String HOSTS = System.getProperty("openweb.vhosts", "vhosts.txt");
+
+    /**
+     * Name of the default host when there is no hosts file.
+     */
+    public static final String DEFAULT_NAME = "default";
+
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Hosts by exact name.
+     */
+    private static final Map<String, VirtualHost> EXACT = new HashMap<>();
+
+    /**
+     * Hosts by the parent domain of a wildcard name, example.com for *.example.com.
+     */
+    private static final Map<String, VirtualHost> WILDCARD = new HashMap<>();
+
+    /**
+     * Default host, for the unknown host names.
+     */
+    private static final VirtualHost DEFAULT = loadHosts();
+
+    /**
+     * Host name, as in the hosts file.
+     */
+    private final String name;
+
+    /**
+     * Normalized document root.
+     */
+    private final Path root;
+
+    /**
+     * True if the host serves the document root.
+     */
+    private final boolean documentRoot;
+
+    /**
+     * File cache of the host.
+     */
+    private final FileCache cache;
+
+    /**
+     * Requests of the host.
+     */
+    private final LongAdder requests = new LongAdder();
+
+    /**
+     * Error responses of the host.
+     */
+    private final LongAdder errors = new LongAdder();
+
+    /**
+     * Body bytes of the responses of the host.
+     */
+    private final LongAdder bytes = new LongAdder();
+
+    // --------------------------------------------------------------------------- Getters & Setters
+
+    /**
+     * Get the host name.
+     *
+     * @return Host name, as in the hosts file.
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Get the document root of the host.
+     *
+     * @return Normalized document root.
+     */
+    public Path getRoot() {
+        return this.root;
+    }
+
+    /**
+     * Get the file cache of the host.
+     *
+     * @return File cache of the host.
+     */
+    public FileCache getCache() {
+        return this.cache;
+    }
+
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * Create the virtual host and register its statistics.
+     *
+     * @param name      Host name.
+     * @param root      Document root.
+     * @param cacheName Statistics name of the file cache.
+     * @param cacheSize Maximum size of the cached files of the host, in bytes.
+     */
+    public VirtualHost(String name, String root, String cacheName, long cacheSize) {
+        this.name = name;
+        this.root = Paths.get(root).normalize();
+        this.documentRoot = this.root.toAbsolutePath()
+                .equals(Paths.get(HttpSession.DOCUMENT_ROOT).toAbsolutePath().normalize());
+        this.cache = new FileCache(cacheName, cacheSize, FileCache.MAX_FILE_SIZE);
+        StatsReporter.register("host-" + name, this::report);
+    }
+
+    // -------------------------------------------------------------------------------- Help Methods
+    // ----------------------------------------------------------------------------- General Methods
+
+    /**
+     * Check if this is the default host.
+     *
+     * @return True for the default host.
+     */
+    public boolean isDefault() {
+        return this == DEFAULT;
+    }
+
+    /**
+     * Check if the host serves the document root, the root of the archive, the peers and the
+     * warm-up.
+     *
+     * @return True if the document root of the host is the server document root.
+     */
+    public boolean isDocumentRoot() {
+        return this.documentRoot;
+    }
+
+    /**
+     * Resolve a request path in the document root.
+     *
+     * @param filePath Request path, starting with a slash.
+     * @return Normalized file path, null if outside the document root.
+     */
+    public Path resolve(String filePath) {
+        Path path = Paths.get(this.root + filePath).normalize();
+        return path.startsWith(this.root) ? path : null;
+    }
+
+    /**
+     * Count a response of the host.
+     *
+     * @param response Http response.
+     */
+    public void served(HttpResponse response) {
+        this.requests.increment();
+        this.bytes.add(response.getContentLength());
+        if (response.getStatus().getCode() >= 400) {
+            this.errors.increment();
+        }
+    }
+
+    /**
+     * Build the host statistics.
+     *
+     * @return Requests, errors and body bytes of the host.
+     */
+    public String report() {
+        return "root=" + this.root + " requests=" + this.requests.sum() + " errors="
+                + this.errors.sum() + " body=" + this.bytes.sum() / 1024 + "KB";
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Normalize a host name: lower case, without port and final dot.
+     *
+     * @param host Host header value.
+     * @return Normalized host name, empty for no host.
+     */
+    public static String normalize(String host) {
+        if (host == null) {
+            return "";
+        }
+        host = host.trim().toLowerCase(Locale.ROOT);
+        int colon = host.lastIndexOf(':');
+        if (colon >= 0 && host.indexOf(']') < colon) {
+            host = host.substring(0, colon);
+        }
+        if (host.endsWith(".")) {
+            host = host.substring(0, host.length() - 1);
+        }
+        return host;
+    }
+
+    /**
+     * Check a line of the hosts file: a name, a root and an optional cache size.
+     *
+     * @param host Fields of the line.
+     * @return True if the line is a valid host.
+     */
+    private static boolean isValid(String[] host) {
+        if (host.length < 2 || host.length > 3 || normalize(host[0]).isEmpty()) {
+            return false;
+        }
+        try {
+            Paths.get(host[1]);
+            return host.length < 3 || Long.parseLong(host[2]) >= 0;
+        } catch (RuntimeException re) {
+            // invalid root path or cache size
+            return false;
+        }
+    }
+
+    /**
+     * Load the hosts file and build the lookup tables.
+     * Without hosts file the default host serves the document root with the whole cache.
+     *
+     * @return Default host.
+     */
+    private static VirtualHost loadHosts() {
+        List<String[]> hosts = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(Paths.get(HOSTS), StandardCharsets.ISO_8859_1)) {
+                String[] host = line.trim().split("\\s+");
+                if (host[0].isEmpty() || host[0].startsWith("#")) {
+                    continue;
+                }
+                if (isValid(host)) {
+                    hosts.add(host);
+                } else {
+                    System.out.println("vhosts: invalid host skipped: " + line.trim());
+                }
+            }
+        } catch (IOException ignored) {
+
+        }
+        if (hosts.isEmpty()) {
+            return new VirtualHost(DEFAULT_NAME, HttpSession.DOCUMENT_ROOT, "file-cache",
+                    FileCache.MAX_SIZE);
+        }
+
+        long assigned = 0;
+        int shared = 0;
+        for (String[] host : hosts) {
+            if (host.length > 2) {
+                assigned += Long.parseLong(host[2]);
+            } else {
+                shared++;
+            }
+        }
+        long share = shared > 0 ? Math.max(FileCache.MAX_SIZE - assigned, 0) / shared : 0;
+
+        VirtualHost first = null;
+        for (String[] host : hosts) {
+            String name = normalize(host[0]);
+            VirtualHost virtualHost = new VirtualHost(name, host[1], "file-cache-" + name,
+                    host.length > 2 ? Long.parseLong(host[2]) : share);
+            if (name.startsWith("*.")) {
+                WILDCARD.putIfAbsent(name.substring(2), virtualHost);
+            } else {
+                EXACT.putIfAbsent(name, virtualHost);
+            }
+            if (first == null) {
+                first = virtualHost;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Get the host of a request, by exact name, then by wildcard of the closest parent domain.
+     *
+     * @param request Http request.
+     * @return Virtual host of the request, the default host if unknown.
+     */
+    public static VirtualHost of(HttpRequest request) {
+        if (EXACT.isEmpty() && WILDCARD.isEmpty()) {
+            return DEFAULT;
+        }
+        String host = normalize(request.getHost());
+        VirtualHost virtualHost = EXACT.get(host);
+        for (int dot = host.indexOf('.'); virtualHost == null && dot >= 0;
+             dot = host.indexOf('.', dot + 1)) {
+            virtualHost = WILDCARD.get(host.substring(dot + 1));
+        }
+        return virtualHost != null ? virtualHost : DEFAULT;
+    }
+
+    /**
+     * Get the default host.
+     *
+     * @return Default host.
+     */
+    public static VirtualHost getDefault() {
+        return DEFAULT;
+    }
+}
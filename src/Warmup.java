@@ -0,0 +1,265 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache warm-up at startup.
+ * The hot set of the previous run, saved on shutdown, or the most requested paths of a previous
+ * access log are loaded in parallel in the file cache with their prebuilt headers. Optionally
+ * synthetic requests of the hot set are replayed through a loopback http session, so the request
+ * path is compiled by the JIT before the listeners accept the first client.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-18)
+ */
+public class Warmup {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Hot set file, written on shutdown and read at startup, one request path per line.
+     */
+    public static final String HOT_SET = System.getProperty("openweb.warmup.hotset", "hotset.txt");
+
+    /**
+     * Access log used when there is no hot set file, the lines are "METHOD path", null disables.
+     */
+    public static final String ACCESS_LOG = System.getProperty("openweb.warmup.log");
+
+    /**
+     * Maximum number of paths in the hot set.
+     */
+    public static final int COUNT = Integer.getInteger("openweb.warmup.count", 1000);
+
+    /**
+     * Threads loading the files.
+     */
+    public static final int THREADS = Integer.getInteger("openweb.warmup.threads",
+            Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Synthetic requests replayed through a loopback session, 0 disables the replay.
+     */
+    public static final int REPLAY = Integer.getInteger("openweb.warmup.replay", 0);
+
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * Warm-up has only static components.
+     */
+    private Warmup() {
+
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Read the request paths of the hot set file.
+     *
+     * @param file Hot set file.
+     * @return Request paths, most requested first.
+     * @throws IOException Error while reading the file.
+     */
+    public static List<String> readHotSet(Path file) throws IOException {
+        Set<String> paths = new LinkedHashSet<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.ISO_8859_1)) {
+            line = line.trim();
+            if (line.startsWith("/") && paths.size() < COUNT) {
+                paths.add(line);
+            }
+        }
+        return new ArrayList<>(paths);
+    }
+
+    /**
+     * Read the most requested GET paths of an access log.
+     *
+     * @param file Access log, one "METHOD path" line per request.
+     * @return Request paths, most requested first.
+     * @throws IOException Error while reading the file.
+     */
+    public static List<String> readAccessLog(Path file) throws IOException {
+        Map<String, Integer> requests = new HashMap<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.ISO_8859_1)) {
+            String[] request = line.trim().split(" ");
+            if (request.length == 2 && request[0].equals(HttpSession.GET)
+                    && request[1].startsWith("/")) {
+                requests.merge(request[1], 1, Integer::sum);
+            }
+        }
+
+        List<String> paths = new ArrayList<>(requests.keySet());
+        paths.sort((a, b) -> requests.get(b) - requests.get(a));
+        return paths.subList(0, Math.min(paths.size(), COUNT));
+    }
+
+    /**
+     * Save the hot set of the document root cache, for the next startup.
+     * An empty cache, like when the files are served from the archive, keeps the saved hot set,
+     * as a default host not serving the document root does.
+     */
+    public static void saveHotSet() {
+        if (!VirtualHost.getDefault().isDocumentRoot()) {
+            return;
+        }
+        List<Path> hotSet = FileCache.getDocumentRootCache().getHotSet(COUNT);
+        if (hotSet.isEmpty()) {
+            return;
+        }
+        Path root = VirtualHost.getDefault().getRoot();
+        List<String> lines = new ArrayList<>();
+        for (Path path : hotSet) {
+            lines.add("/" + root.relativize(path).toString().replace('\\', '/'));
+        }
+        try {
+            Files.write(Paths.get(HOT_SET), lines, StandardCharsets.ISO_8859_1);
+        } catch (IOException ignored) {
+
+        }
+    }
+
+    /**
+     * Replay a GET request through a loopback http session and read the whole response.
+     *
+     * @param server Loopback listening socket.
+     * @param path   Request path.
+     * @throws IOException Error on the loopback connection.
+     */
+    private static void replay(ServerSocket server, String path) throws IOException {
+        try (Socket client = new Socket(server.getInetAddress(), server.getLocalPort())) {
+            new HttpSession(server.accept()).start();
+
+            OutputStream out = client.getOutputStream();
+            out.write(("GET " + path + " HTTP/1.1\r\nHost: warmup\r\n\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            client.shutdownOutput();
+
+            InputStream in = client.getInputStream();
+            byte[] buffer = new byte[8192];
+            while (in.read(buffer) >= 0) {
+                // discard the response
+            }
+        }
+    }
+
+    /**
+     * Run the warm-up: load the hot set in the file cache and replay the synthetic requests.
+     * Prints how long the warm-up took and how much it loaded. Nothing is warmed up when the
+     * default host doesn't serve the document root.
+     */
+    public static void run() {
+        if (!VirtualHost.getDefault().isDocumentRoot()) {
+            // the hot set and the access log are document root paths
+            return;
+        }
+        long start = System.nanoTime();
+        List<String> paths = new ArrayList<>();
+        try {
+            if (Files.isReadable(Paths.get(HOT_SET))) {
+                paths = readHotSet(Paths.get(HOT_SET));
+            } else if (ACCESS_LOG != null) {
+                paths = readAccessLog(Paths.get(ACCESS_LOG));
+            }
+        } catch (IOException ignored) {
+
+        }
+        if (paths.isEmpty()) {
+            return;
+        }
+
+        AtomicLong files = new AtomicLong();
+        AtomicLong bytes = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(THREADS, 1));
+        try {
+            List<Callable<Object>> loads = new ArrayList<>();
+            for (String request : paths) {
+                loads.add(() -> {
+                    String filePath = request.equals("/") ? "/index.html" : request;
+                    Path path = VirtualHost.getDefault().resolve(filePath);
+                    if (path != null) {
+                        FileCache.Entry entry = FileCache.getDocumentRootCache().get(path);
+                        if (entry != null) {
+                            files.incrementAndGet();
+                            bytes.addAndGet(entry.getLength());
+                        }
+                    }
+                    return null;
+                });
+            }
+            pool.invokeAll(loads);
+
+            int replayed = 0;
+            if (REPLAY > 0) {
+                try (ServerSocket server = new ServerSocket(0, REPLAY,
+                        InetAddress.getLoopbackAddress())) {
+                    List<Future<Object>> requests = new ArrayList<>();
+                    for (int i = 0; i < REPLAY; i++) {
+                        String path = paths.get(i % paths.size());
+                        requests.add(pool.submit(() -> {
+                            replay(server, path);
+                            return null;
+                        }));
+                    }
+                    for (Future<Object> request : requests) {
+                        try {
+                            request.get();
+                            replayed++;
+                        } catch (Exception ignored) {
+
+                        }
+                    }
+                }
+            }
+
+            System.out.printf("warm-up: %d files, %d KB loaded, %d requests replayed in %d ms%n",
+                    files.get(), bytes.get() / 1024, replayed,
+                    (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException | InterruptedException ignored) {
+
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -23,7 +23,9 @@
  */
 
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * 
@@ -34,9 +36,20 @@ public class WebServer {
     // ------------------------------------------------------------------------------------ Costants
 
     /**
-     * Http web server port.
+     * Http web server port, 0 for no tcp listener when listening on a unix domain socket.
      */
-    public static final int PORT = 80;
+    public static final int PORT = Integer.getInteger("openweb.port", 80);
+
+    /**
+     * Number of acceptor threads, by default one for each processor.
+     */
+    public static final int ACCEPTORS = Integer.getInteger("openweb.acceptors",
+            Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Listening socket backlog, the queue of the connections not yet accepted.
+     */
+    public static final int BACKLOG = Integer.getInteger("openweb.backlog", 1024);
 
     // ---------------------------------------------------------------------------------- Attributes
     // --------------------------------------------------------------------------- Getters & Setters
@@ -47,18 +60,41 @@ public class WebServer {
 
     /**
      * Run the web server.
+     * If a listening socket can't be bound or the tls context can't be loaded the error is
+     * logged and the server exits.
      *
      * @param args Command line arguments.
      */
     public static void main(String[] args) {
         try {
-            ServerSocket server = new ServerSocket(PORT);
+            new StatsReporter().start();
+            Warmup.run();
+            Runtime.getRuntime().addShutdownHook(new Thread(Warmup::saveHotSet));
+
+            List<Thread> acceptors = new ArrayList<>();
+            if (PORT > 0 || UnixAcceptor.PATH == null) {
+                acceptors.addAll(Arrays.asList(Acceptor.start(PORT, ACCEPTORS, BACKLOG, null)));
+            }
+            if (UnixAcceptor.PATH != null) {
+                acceptors.add(UnixAcceptor.start(UnixAcceptor.PATH, BACKLOG));
+            }
+            if (TlsContext.KEYSTORE != null) {
+                TlsContext tls = new TlsContext(TlsContext.KEYSTORE, TlsContext.KEYSTORE_PASSWORD);
+                if (Http2Connection.ENABLED) {
+                    tls.setApplicationProtocols("h2", "http/1.1");
+                }
+                acceptors.addAll(Arrays.asList(
+                        Acceptor.start(TlsContext.PORT, ACCEPTORS, BACKLOG, tls)));
+            }
 
-            boolean alive = true;
-            while (alive) {
-                new HttpSession(server.accept()).start();
+            for (Thread acceptor : acceptors) {
+                acceptor.join();
             }
-        } catch (IOException ignored) {
+        } catch (IOException ioe) {
+            // a listener or the tls context failed, don't keep serving without them
+            System.out.println("server not started: " + ioe);
+            System.exit(1);
+        } catch (InterruptedException ignored) {
 
         }
     }
@@ -0,0 +1,498 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * WebSocket connection (RFC 6455).
+ * The session thread reads the client frames: unmasks them, joins the fragments, answers the
+ * pings and the close. The text and binary messages are relayed to the subscribers of the
+ * WebSocket path. The frames sent to the client go through a bounded send queue drained by the
+ * hub writer threads, a client not reading a drain within the send timeout is dropped. A client
+ * silent for the ping interval gets a ping, if it's still silent after another interval the socket
+ * is closed.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-17)
+ */
+public class WebSocket {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Path prefix of the WebSocket endpoints, the path is the topic of the socket.
+     */
+    public static final String PATH = System.getProperty("openweb.websocket.path", "/ws/");
+
+    /**
+     * Frames in the send queue before the client is dropped as too slow.
+     */
+    public static final int QUEUE_SIZE = Integer.getInteger("openweb.websocket.queue", 256);
+
+    /**
+     * Milliseconds a drain of the send queue may block on the client before it's dropped.
+     */
+    public static final long SEND_TIMEOUT = Long.getLong("openweb.websocket.send", 2000);
+
+    /**
+     * Maximum message size, with all its fragments.
+     */
+    public static final int MAX_MESSAGE = Integer.getInteger("openweb.websocket.message", 1 << 20);
+
+    /**
+     * Milliseconds without frames from the client before it's pinged, 0 disables the pings.
+     */
+    public static final long PING_INTERVAL = Long.getLong("openweb.websocket.ping", 30_000);
+
+    /**
+     * Continuation frame opcode.
+     */
+    public static final int CONTINUATION = 0x0;
+
+    /**
+     * Text frame opcode.
+     */
+    public static final int TEXT = 0x1;
+
+    /**
+     * Binary frame opcode.
+     */
+    public static final int BINARY = 0x2;
+
+    /**
+     * Close frame opcode.
+     */
+    public static final int CLOSE = 0x8;
+
+    /**
+     * Ping frame opcode.
+     */
+    public static final int PING = 0x9;
+
+    /**
+     * Pong frame opcode.
+     */
+    public static final int PONG = 0xA;
+
+    /**
+     * Protocol error close status.
+     */
+    public static final int PROTOCOL_ERROR = 1002;
+
+    /**
+     * Message too big close status.
+     */
+    public static final int MESSAGE_TOO_BIG = 1009;
+
+    /**
+     * Handshake key suffix.
+     */
+    private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Topic of the socket, its path.
+     */
+    private final String topic;
+
+    /**
+     * Client input.
+     */
+    private final DataInputStream in;
+
+    /**
+     * Client output, writes synchronized on it.
+     */
+    private final OutputStream out;
+
+    /**
+     * Closes the underlying connection.
+     */
+    private final Runnable closer;
+
+    /**
+     * Frames waiting to be sent.
+     */
+    private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+
+    /**
+     * True while a writer thread drains the queue.
+     */
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    /**
+     * True when the socket is closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Time of the last frame read from the client, in nanoseconds.
+     */
+    private volatile long lastRead = System.nanoTime();
+
+    /**
+     * True when a ping is sent and no frame is read since.
+     */
+    private volatile boolean pinged;
+
+    // --------------------------------------------------------------------------- Getters & Setters
+
+    /**
+     * Get the topic of the socket.
+     *
+     * @return Topic of the socket, its path.
+     */
+    public String getTopic() {
+        return this.topic;
+    }
+
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * Create the WebSocket after the handshake.
+     *
+     * @param topic  Topic of the socket, its path.
+     * @param in     Client input.
+     * @param out    Client output.
+     * @param closer Closes the underlying connection.
+     */
+    public WebSocket(String topic, InputStream in, OutputStream out, Runnable closer) {
+        this.topic = topic;
+        this.in = new DataInputStream(in);
+        this.out = out;
+        this.closer = closer;
+    }
+
+    // -------------------------------------------------------------------------------- Help Methods
+
+    /**
+     * Schedule the drain of the send queue, if not already running.
+     */
+    private void scheduleDrain() {
+        if (this.draining.compareAndSet(false, true)) {
+            WebSocketHub.schedule(this::drain);
+        }
+    }
+
+    /**
+     * Start the write timeout, it closes the socket when expired.
+     *
+     * @return Write timeout, to cancel after the write.
+     */
+    private TimingWheel.Timeout armWrite() {
+        return HttpSession.TIMEOUTS.schedule(() -> {
+            TimeoutKind.WRITE.expire();
+            close();
+        }, TimeoutKind.WRITE.getMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Check the client activity, called by the timing wheel every ping interval.
+     * A silent client gets a ping, a client silent also after the ping is closed.
+     */
+    private void checkIdle() {
+        if (this.closed) {
+            return;
+        }
+        long silent = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.lastRead);
+        if (silent < PING_INTERVAL) {
+            HttpSession.TIMEOUTS.schedule(this::checkIdle, PING_INTERVAL - silent,
+                    TimeUnit.MILLISECONDS);
+        } else if (this.pinged) {
+            TimeoutKind.IDLE.expire();
+            close();
+        } else {
+            this.pinged = true;
+            send(encodeFrame(PING, new byte[0]));
+            HttpSession.TIMEOUTS.schedule(this::checkIdle, PING_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Write the queued frames, under the send timeout: the writer threads are shared by all the
+     * subscribers, a client that stops reading is dropped instead of holding one.
+     */
+    private void drain() {
+        TimingWheel.Timeout timeout = HttpSession.TIMEOUTS.schedule(() -> {
+            // the blocked write fails when the connection is closed
+            WebSocketHub.dropped();
+            close();
+        }, SEND_TIMEOUT, TimeUnit.MILLISECONDS);
+        try {
+            synchronized (this.out) {
+                byte[] frame;
+                while ((frame = this.queue.poll()) != null) {
+                    this.out.write(frame);
+                }
+                this.out.flush();
+            }
+        } catch (IOException ioe) {
+            close();
+        } finally {
+            timeout.cancel();
+            this.draining.set(false);
+            if (!this.queue.isEmpty() && !this.closed) {
+                scheduleDrain();
+            }
+        }
+    }
+
+    /**
+     * Write a frame right away, from the reader thread, under the write timeout.
+     *
+     * @param frame Encoded frame.
+     * @throws IOException Error while writing to the client.
+     */
+    private void writeNow(byte[] frame) throws IOException {
+        TimingWheel.Timeout timeout = armWrite();
+        try {
+            synchronized (this.out) {
+                this.out.write(frame);
+                this.out.flush();
+            }
+        } finally {
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * Send a close frame and close the socket.
+     *
+     * @param status Close status.
+     */
+    private void closeWith(int status) {
+        try {
+            writeNow(encodeFrame(CLOSE, new byte[]{(byte) (status >>> 8), (byte) status}));
+        } catch (IOException ignored) {
+
+        }
+        close();
+    }
+
+    /**
+     * Handle a complete message, relaying it to the topic.
+     *
+     * @param opcode  Message opcode, text or binary.
+     * @param payload Message payload.
+     */
+    private void onMessage(int opcode, byte[] payload) {
+        WebSocketHub.broadcastFrame(this.topic, encodeFrame(opcode, payload));
+    }
+
+    // ----------------------------------------------------------------------------- General Methods
+
+    /**
+     * Queue a frame for the client.
+     * If the queue is full the client is too slow: it's dropped.
+     *
+     * @param frame Encoded frame, shared, must not change.
+     * @return True if queued.
+     */
+    public boolean send(byte[] frame) {
+        if (this.closed) {
+            return false;
+        }
+        if (!this.queue.offer(frame)) {
+            WebSocketHub.dropped();
+            close();
+            return false;
+        }
+        scheduleDrain();
+        return true;
+    }
+
+    /**
+     * Close the socket and unsubscribe it.
+     */
+    public void close() {
+        if (!this.closed) {
+            this.closed = true;
+            WebSocketHub.unsubscribe(this.topic, this);
+            this.closer.run();
+        }
+    }
+
+    /**
+     * Subscribe to the topic and read the client frames until the socket is closed.
+     */
+    public void run() {
+        WebSocketHub.subscribe(this.topic, this);
+        if (PING_INTERVAL > 0) {
+            HttpSession.TIMEOUTS.schedule(this::checkIdle, PING_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        int messageOpcode = -1;
+
+        try {
+            while (!this.closed) {
+                int b0 = this.in.read();
+                if (b0 < 0) {
+                    break;
+                }
+                int b1 = this.in.readUnsignedByte();
+                this.lastRead = System.nanoTime();
+                this.pinged = false;
+                boolean fin = (b0 & 0x80) != 0;
+                int opcode = b0 & 0x0f;
+                long length = b1 & 0x7f;
+                if (length == 126) {
+                    length = this.in.readUnsignedShort();
+                } else if (length == 127) {
+                    length = this.in.readLong();
+                }
+
+                boolean control = opcode >= CLOSE;
+                if ((b0 & 0x70) != 0 || (b1 & 0x80) == 0 || (control && (!fin || length > 125))) {
+                    // reserved bits, unmasked client frame or invalid control frame
+                    closeWith(PROTOCOL_ERROR);
+                    break;
+                }
+                if (length < 0 || message.size() + length > MAX_MESSAGE) {
+                    closeWith(MESSAGE_TOO_BIG);
+                    break;
+                }
+
+                byte[] mask = new byte[4];
+                this.in.readFully(mask);
+                byte[] payload = new byte[(int) length];
+                this.in.readFully(payload);
+                for (int i = 0; i < payload.length; i++) {
+                    payload[i] ^= mask[i & 3];
+                }
+
+                if (opcode == PING) {
+                    writeNow(encodeFrame(PONG, payload));
+                } else if (opcode == CLOSE) {
+                    writeNow(encodeFrame(CLOSE, payload.length >= 2
+                            ? new byte[]{payload[0], payload[1]} : new byte[0]));
+                    break;
+                } else if (opcode == PONG) {
+                    // answer to the idle ping, or unsolicited: the read time is already updated
+                } else if ((opcode == CONTINUATION) != (messageOpcode >= 0)) {
+                    // continuation without message or new message inside a fragmented one
+                    closeWith(PROTOCOL_ERROR);
+                    break;
+                } else if (opcode == CONTINUATION || opcode == TEXT || opcode == BINARY) {
+                    if (opcode != CONTINUATION) {
+                        messageOpcode = opcode;
+                    }
+                    message.write(payload);
+                    if (fin) {
+                        onMessage(messageOpcode, message.toByteArray());
+                        message.reset();
+                        messageOpcode = -1;
+                    }
+                } else {
+                    closeWith(PROTOCOL_ERROR);
+                    break;
+                }
+            }
+        } catch (IOException ignored) {
+
+        } finally {
+            close();
+        }
+    }
+
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Check if the request asks the upgrade to WebSocket.
+     *
+     * @param request Http request.
+     * @return True if the request asks the upgrade to WebSocket.
+     */
+    public static boolean isUpgrade(HttpRequest request) {
+        String upgrade = request.getHeader("Upgrade");
+        return upgrade != null && upgrade.equalsIgnoreCase("websocket");
+    }
+
+    /**
+     * Check if the upgrade request is a valid WebSocket handshake on an endpoint.
+     *
+     * @param request Upgrade request.
+     * @return True if the handshake can be accepted.
+     */
+    public static boolean isValidHandshake(HttpRequest request) {
+        return HttpRequest.GET_METHOD.equals(request.getMethod())
+                && request.getFilePath().toString().startsWith(PATH)
+                && request.getHeader("Sec-WebSocket-Key") != null
+                && "13".equals(request.getHeader("Sec-WebSocket-Version"));
+    }
+
+    /**
+     * Compute the handshake accept value of a client key.
+     *
+     * @param key Sec-WebSocket-Key header value.
+     * @return Sec-WebSocket-Accept header value.
+     */
+    public static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((key.trim() + GUID).getBytes(StandardCharsets.ISO_8859_1));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException(nsae);
+        }
+    }
+
+    /**
+     * Encode an unmasked final frame, as sent by the server.
+     *
+     * @param opcode  Frame opcode.
+     * @param payload Frame payload.
+     * @return Encoded frame.
+     */
+    public static byte[] encodeFrame(int opcode, byte[] payload) {
+        int header = payload.length < 126 ? 2 : payload.length < 65_536 ? 4 : 10;
+        byte[] frame = new byte[header + payload.length];
+        frame[0] = (byte) (0x80 | opcode);
+        if (header == 2) {
+            frame[1] = (byte) payload.length;
+        } else if (header == 4) {
+            frame[1] = 126;
+            frame[2] = (byte) (payload.length >>> 8);
+            frame[3] = (byte) payload.length;
+        } else {
+            frame[1] = 127;
+            for (int i = 0; i < 8; i++) {
+                frame[2 + i] = (byte) ((long) payload.length >>> (56 - i * 8));
+            }
+        }
+        System.arraycopy(payload, 0, frame, header, payload.length);
+        return frame;
+    }
+}
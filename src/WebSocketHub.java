@@ -0,0 +1,197 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 giuliobosco.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * WebSocket broadcast hub.
+ * Every WebSocket subscribes to the topic of its path. A broadcast encodes the frame once and
+ * offers the same bytes to the bounded send queue of every subscriber, a pool of writer threads
+ * drains the queues. A subscriber with a full queue, or not reading a drain within the send
+ * timeout, is too slow and gets dropped, so it never holds a writer thread for long.
+ *
+ * @author giuliobosco
+ * @version 1.0 (2019-02-17)
+ */
+public class WebSocketHub {
+    // ------------------------------------------------------------------------------------ Costants
+
+    /**
+     * Number of writer threads draining the send queues.
+     */
+    public static final int WRITERS = Integer.getInteger("openweb.websocket.writers",
+            Runtime.getRuntime().availableProcessors() * 2);
+
+    // ---------------------------------------------------------------------------------- Attributes
+
+    /**
+     * Subscribers by topic.
+     */
+    private static final Map<String, Set<WebSocket>> TOPICS = new ConcurrentHashMap<>();
+
+    /**
+     * Writer threads draining the send queues.
+     */
+    private static final ExecutorService WRITER_POOL = Executors.newFixedThreadPool(WRITERS, task -> {
+        Thread thread = new Thread(task, "websocket-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Broadcast messages.
+     */
+    private static final LongAdder BROADCASTS = new LongAdder();
+
+    /**
+     * Frames queued to the subscribers.
+     */
+    private static final LongAdder DELIVERIES = new LongAdder();
+
+    /**
+     * Subscribers dropped because their queue was full or a drain timed out.
+     */
+    private static final LongAdder DROPPED = new LongAdder();
+
+    static {
+        StatsReporter.register("websocket", () -> "subscribers=" + getSubscribers()
+                + " broadcasts=" + BROADCASTS.sum() + " deliveries=" + DELIVERIES.sum()
+                + " dropped=" + DROPPED.sum());
+    }
+
+    // --------------------------------------------------------------------------- Getters & Setters
+
+    /**
+     * Get the number of subscribers of all the topics.
+     *
+     * @return Number of subscribers.
+     */
+    public static int getSubscribers() {
+        int subscribers = 0;
+        for (Set<WebSocket> topic : TOPICS.values()) {
+            subscribers += topic.size();
+        }
+        return subscribers;
+    }
+
+    // -------------------------------------------------------------------------------- Constructors
+
+    /**
+     * Static hub, not instantiable.
+     */
+    private WebSocketHub() {
+    }
+
+    // -------------------------------------------------------------------------------- Help Methods
+    // ----------------------------------------------------------------------------- General Methods
+    // --------------------------------------------------------------------------- Static Components
+
+    /**
+     * Subscribe a WebSocket to a topic.
+     *
+     * @param topic  Topic name.
+     * @param socket WebSocket to subscribe.
+     */
+    public static void subscribe(String topic, WebSocket socket) {
+        // atomic with the removal of an emptied topic
+        TOPICS.compute(topic, (name, subscribers) -> {
+            Set<WebSocket> topicSubscribers = subscribers != null
+                    ? subscribers : ConcurrentHashMap.newKeySet();
+            topicSubscribers.add(socket);
+            return topicSubscribers;
+        });
+    }
+
+    /**
+     * Unsubscribe a WebSocket from a topic.
+     *
+     * @param topic  Topic name.
+     * @param socket WebSocket to unsubscribe.
+     */
+    public static void unsubscribe(String topic, WebSocket socket) {
+        TOPICS.computeIfPresent(topic, (name, subscribers) -> {
+            subscribers.remove(socket);
+            return subscribers.isEmpty() ? null : subscribers;
+        });
+    }
+
+    /**
+     * Broadcast a text message to all the subscribers of a topic.
+     *
+     * @param topic   Topic name.
+     * @param message Text message.
+     * @return Number of subscribers that got the message.
+     */
+    public static int broadcast(String topic, String message) {
+        return broadcastFrame(topic, WebSocket.encodeFrame(WebSocket.TEXT,
+                message.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Broadcast an encoded frame to all the subscribers of a topic.
+     * The frame bytes are shared by all the send queues, they must not change.
+     *
+     * @param topic Topic name.
+     * @param frame Encoded frame.
+     * @return Number of subscribers that got the frame.
+     */
+    public static int broadcastFrame(String topic, byte[] frame) {
+        BROADCASTS.increment();
+        Set<WebSocket> subscribers = TOPICS.get(topic);
+        if (subscribers == null) {
+            return 0;
+        }
+
+        int delivered = 0;
+        for (WebSocket subscriber : subscribers) {
+            if (subscriber.send(frame)) {
+                delivered++;
+            }
+        }
+        DELIVERIES.add(delivered);
+        return delivered;
+    }
+
+    /**
+     * Schedule the drain of a send queue on the writer threads.
+     *
+     * @param drain Drain task.
+     */
+    public static void schedule(Runnable drain) {
+        WRITER_POOL.execute(drain);
+    }
+
+    /**
+     * Count a dropped slow subscriber.
+     */
+    public static void dropped() {
+        DROPPED.increment();
+    }
+}